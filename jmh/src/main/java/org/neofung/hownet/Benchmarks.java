@@ -0,0 +1,39 @@
+/**
+ * 运行全部基准测试
+ */
+package org.neofung.hownet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks 是benchmarks.jar的入口, 接受JMH的全部命令行参数, 并总是加上GC profiler, 结果中的
+ * gc.alloc.rate.norm是每次调用分配的字节数.
+ * <p>
+ * 在工程根目录运行:
+ *
+ * <pre>
+ * mvn install
+ * mvn -f jmh/pom.xml package
+ * java -jar jmh/target/benchmarks.jar [JMH参数, 例如 Lookup -f 1]
+ * </pre>
+ *
+ * @author neo
+ * @version 2013-05-06
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions command = new CommandLineOptions(args);
+		if (command.shouldHelp()) {
+			command.showHelp();
+			return;
+		}
+		Options options = new OptionsBuilder().parent(command)
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * 导出数据集的基准测试
+ */
+package org.neofung.hownet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DatasetBenchmark 测试从词语对文件构造数据集, 以及把数据集写成二进制文件和libsvm文本文件的时间.
+ *
+ * @author neo
+ * @version 2013-05-06
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatasetBenchmark {
+
+	private NeuralNetwork mNetwork;
+	private Dataset mDataset;
+	private File mBinary;
+	private File mLibsvm;
+
+	@Setup
+	public void setUp() throws IOException {
+		mNetwork = new NeuralNetwork();
+		mDataset = Dataset.fromPairs(mNetwork, Workloads.PAIRS_FILE);
+		mBinary = File.createTempFile("hownet-jmh", ".bin");
+		mLibsvm = File.createTempFile("hownet-jmh", ".libsvm");
+	}
+
+	@TearDown
+	public void tearDown() {
+		mBinary.delete();
+		mLibsvm.delete();
+	}
+
+	/**
+	 * 读取词语对并构造输入向量, 词语向量已经缓存
+	 */
+	@Benchmark
+	public Dataset fromPairs() throws IOException {
+		return Dataset.fromPairs(mNetwork, Workloads.PAIRS_FILE);
+	}
+
+	@Benchmark
+	public long writeBinary() throws IOException {
+		DatasetFile.write(mDataset, mBinary);
+		return mBinary.length();
+	}
+
+	@Benchmark
+	public long writeLibsvm() throws IOException {
+		DatasetFile.writeLibsvm(mDataset, mLibsvm);
+		return mLibsvm.length();
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * 读取词典的基准测试
+ */
+package org.neofung.hownet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DictionaryLoadBenchmark 比较从glossary.dat和WHOLE.DAT重新构造词典与从快照读入的时间. 每次调用只读取一次,
+ * 因此使用单次计时, 第一次迭代包含类加载和JIT.
+ *
+ * @author neo
+ * @version 2013-05-06
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class DictionaryLoadBenchmark {
+
+	/**
+	 * 解析原始数据并重写快照
+	 */
+	@Benchmark
+	public HowNet rebuild() {
+		return new HowNet(true);
+	}
+
+	/**
+	 * 映射快照文件, 即loadData
+	 */
+	@Benchmark
+	public HowNet loadSnapshot() {
+		return new HowNet(false);
+	}
+}
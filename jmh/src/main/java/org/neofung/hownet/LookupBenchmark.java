@@ -0,0 +1,116 @@
+/**
+ * 词典查询的基准测试
+ */
+package org.neofung.hownet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LookupBenchmark 测试getSemantics, getSememeId以及沿getFather走到根的时间. 词语取自词语对文件, 义原取自这些
+ * 词语的义项, 每次调用取下一个.
+ *
+ * @author neo
+ * @version 2013-05-06
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+	private HowNet mHowNet;
+	private String[] mWords;
+	private String[] mSememes;
+	private int[] mSememeIds;
+	private int mNext;
+
+	@Setup
+	public void setUp() throws IOException {
+		mHowNet = new HowNet();
+		mWords = Workloads.words();
+		int count = 0;
+		String[] sememes = new String[1024];
+		for (String word : mWords) {
+			List<Pair<String, List<String>>> semantics = mHowNet
+					.getSemantics(word);
+			if (null == semantics) {
+				continue;
+			}
+			for (Pair<String, List<String>> sense : semantics) {
+				for (String sememe : sense.getSecond()) {
+					if (mHowNet.getSememeId(sememe) < 0) {
+						continue;
+					}
+					if (count == sememes.length) {
+						sememes = Arrays.copyOf(sememes, count * 2);
+					}
+					sememes[count++] = sememe;
+				}
+			}
+		}
+		mSememes = Arrays.copyOf(sememes, count);
+		mSememeIds = new int[count];
+		for (int i = 0; i < count; i++) {
+			mSememeIds[i] = mHowNet.getSememeId(mSememes[i]);
+		}
+	}
+
+	private int next(int length) {
+		if (++mNext >= length) {
+			mNext = 0;
+		}
+		return mNext;
+	}
+
+	@Benchmark
+	public List<Pair<String, List<String>>> getSemantics() {
+		return mHowNet.getSemantics(mWords[next(mWords.length)]);
+	}
+
+	@Benchmark
+	public int getSememeId() {
+		return mHowNet.getSememeId(mSememes[next(mSememes.length)]);
+	}
+
+	/**
+	 * 原来构造向量的做法: 用义原的名字沿getFather(String)走到根
+	 */
+	@Benchmark
+	public int fatherChainByName() {
+		int depth = 0;
+		for (String s = mSememes[next(mSememes.length)]; null != s; s = mHowNet
+				.getFather(s)) {
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * 用义原ID号沿getFather(int)走到根
+	 */
+	@Benchmark
+	public int fatherChainById() {
+		int depth = 0;
+		for (int id = mSememeIds[next(mSememeIds.length)]; id >= 0; id = mHowNet
+				.getFather(id)) {
+			depth++;
+		}
+		return depth;
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * 词语对打分的基准测试
+ */
+package org.neofung.hownet;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ScoringBenchmark 测试对词语对文件全部词语对打分的时间, 与SimilarityService的一块相同: 块内去重, 取向量,
+ * 计算余弦相似度. cold每次使用新的NeuralNetwork, 向量缓存是空的.
+ *
+ * @author neo
+ * @version 2013-05-06
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+
+	private HowNet mHowNet;
+	private List<WordPair> mPairs;
+	private SimilarityService mService;
+
+	@Setup
+	public void setUp() throws IOException {
+		mHowNet = new HowNet();
+		mPairs = Workloads.pairs();
+		mService = new SimilarityService(new NeuralNetwork(mHowNet),
+				PairScorer.COSINE, 1, mPairs.size(), 1);
+	}
+
+	@Benchmark
+	public float[] warm() {
+		return mService.score(mPairs);
+	}
+
+	@Benchmark
+	public float[] cold() {
+		return new SimilarityService(new NeuralNetwork(mHowNet),
+				PairScorer.COSINE, 1, mPairs.size(), 1).score(mPairs);
+	}
+}
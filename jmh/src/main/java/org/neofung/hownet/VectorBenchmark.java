@@ -0,0 +1,67 @@
+/**
+ * 构造词语向量的基准测试
+ */
+package org.neofung.hownet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * VectorBenchmark 测试按词语对文件中的顺序构造归一化向量的时间: 每次都从义项重新构造, 以及通过缓存读取.
+ *
+ * @author neo
+ * @version 2013-05-06
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorBenchmark {
+
+	private NeuralNetwork mNetwork;
+	private String[] mWords;
+	private int mNext;
+
+	@Setup
+	public void setUp() throws IOException {
+		mNetwork = new NeuralNetwork();
+		mWords = Workloads.words();
+	}
+
+	private String next() {
+		if (++mNext >= mWords.length) {
+			mNext = 0;
+		}
+		return mWords[mNext];
+	}
+
+	/**
+	 * getVector + normalize, 不经过缓存
+	 */
+	@Benchmark
+	public SparseVector build() {
+		SparseVector vector = mNetwork.getVector(next());
+		return null == vector ? null : mNetwork.normalize(vector);
+	}
+
+	/**
+	 * getNormalizedVector, 预热后全部命中缓存
+	 */
+	@Benchmark
+	public SparseVector cached() {
+		return mNetwork.getNormalizedVector(next());
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * 基准测试使用的数据
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Workloads 从input.txt读取基准测试的输入. 词语按词语对文件中出现的顺序和次数排列, 高频词出现得更多, 比均匀抽取
+ * 全部词语更接近实际的访问分布. 基准测试必须在数据文件所在的工程根目录运行.
+ *
+ * @author neo
+ * @version 2013-05-06
+ */
+final class Workloads {
+
+	static final String PAIRS_FILE = System.getProperty("hownet.pairs",
+			"input.txt");
+
+	private Workloads() {
+	}
+
+	/**
+	 * @return 词语对文件中的全部词语对
+	 */
+	static List<WordPair> pairs() throws IOException {
+		List<WordPair> pairs = new ArrayList<WordPair>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(PAIRS_FILE), "UTF-8"));
+		try {
+			for (WordPair pair : WordPair.lines(reader)) {
+				pairs.add(pair);
+			}
+		} finally {
+			reader.close();
+		}
+		return pairs;
+	}
+
+	/**
+	 * @return 词语对文件中依次出现的全部词语, 重复的词语保留
+	 */
+	static String[] words() throws IOException {
+		List<WordPair> pairs = pairs();
+		String[] words = new String[pairs.size() * 2];
+		for (int i = 0; i < pairs.size(); i++) {
+			words[2 * i] = pairs.get(i).getFirst();
+			words[2 * i + 1] = pairs.get(i).getSecond();
+		}
+		return words;
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * 神经元的激活函数
+ */
+package org.neofung.hownet;
+
+/**
+ * Activation 是神经网络各层使用的激活函数. derivative由激活后的输出计算导数, 训练时不必保存激活前的值.
+ *
+ * @author neo
+ * @version 2013-04-18
+ */
+public enum Activation {
+	/** 双曲正切, 对应MATLAB的tansig */
+	TANH {
+		@Override
+		public float apply(float x) {
+			return (float) Math.tanh(x);
+		}
+
+		@Override
+		public float derivative(float y) {
+			return 1.0f - y * y;
+		}
+	},
+	/** 对数S形函数, 对应MATLAB的logsig */
+	SIGMOID {
+		@Override
+		public float apply(float x) {
+			return (float) (1.0 / (1.0 + Math.exp(-x)));
+		}
+
+		@Override
+		public float derivative(float y) {
+			return y * (1.0f - y);
+		}
+	},
+	/** 线性整流 */
+	RELU {
+		@Override
+		public float apply(float x) {
+			return x > 0.0f ? x : 0.0f;
+		}
+
+		@Override
+		public float derivative(float y) {
+			return y > 0.0f ? 1.0f : 0.0f;
+		}
+	},
+	/** 线性, 对应MATLAB的purelin */
+	LINEAR {
+		@Override
+		public float apply(float x) {
+			return x;
+		}
+
+		@Override
+		public float derivative(float y) {
+			return 1.0f;
+		}
+	};
+
+	/**
+	 * @param x
+	 *            激活前的值
+	 * @return 激活后的值
+	 */
+	public abstract float apply(float x);
+
+	/**
+	 * @param y
+	 *            激活后的值
+	 * @return 激活函数在该点的导数
+	 */
+	public abstract float derivative(float y);
+
+	/**
+	 * 对数组的一段原地激活
+	 */
+	public void apply(float[] values, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			values[i] = apply(values[i]);
+		}
+	}
+}
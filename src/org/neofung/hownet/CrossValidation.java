@@ -0,0 +1,370 @@
+/**
+ * 交叉验证
+ */
+package org.neofung.hownet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * CrossValidation 代替原来的devideInputData, translate和外部的MATLAB循环: 用固定的随机种子构造k折划分或者
+ * 多次随机划分, 在有界的线程池中并发训练和测试全部分组, 输出每一组和总体的Pearson, Spearman相关系数和均方误差.
+ * 全部分组共享同一个只读的数据集, 每一组只保存自己的样本序号.
+ *
+ * @author neo
+ * @version 2013-04-20
+ */
+public class CrossValidation {
+
+	private final Dataset mData;
+	private final MlpTrainer mTrainer;
+	private final int mThreads;
+
+	/**
+	 * @param data
+	 *            全部样本
+	 * @param trainer
+	 *            训练参数, 每一组都使用相同的参数
+	 * @param threads
+	 *            同时训练的分组数
+	 */
+	public CrossValidation(Dataset data, MlpTrainer trainer, int threads) {
+		mData = data;
+		mTrainer = trainer;
+		mThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * k折划分: 打乱后轮流分到k组中, 每一组轮流作为测试集
+	 *
+	 * @param size
+	 *            样本数
+	 * @param k
+	 *            组数
+	 * @param seed
+	 *            随机种子
+	 * @return 每一组的测试样本序号
+	 * @throws IllegalArgumentException
+	 *             k不在(1, size]之间, 此时会有空的测试集或者训练集
+	 */
+	public static int[][] kFold(int size, int k, long seed) {
+		if (k <= 1 || k > size) {
+			throw new IllegalArgumentException("k must be in (1, " + size
+					+ "], got " + k);
+		}
+		int[] order = permutation(size, new Random(seed));
+		int[][] folds = new int[k][];
+		for (int f = 0; f < k; f++) {
+			folds[f] = new int[(size - f + k - 1) / k];
+		}
+		for (int i = 0; i < size; i++) {
+			folds[i % k][i / k] = order[i];
+		}
+		return folds;
+	}
+
+	/**
+	 * 多次随机划分, 每次随机选取rate比例的样本作为测试集, 与原来的devideInputData相同但可以重现
+	 *
+	 * @param size
+	 *            样本数
+	 * @param count
+	 *            划分的次数
+	 * @param rate
+	 *            测试样本的比例
+	 * @param seed
+	 *            随机种子
+	 * @return 每一组的测试样本序号
+	 */
+	public static int[][] randomSplits(int size, int count, double rate,
+			long seed) {
+		Random random = new Random(seed);
+		int testSize = Math.max(1, (int) (size * rate));
+		int[][] splits = new int[count][];
+		for (int s = 0; s < count; s++) {
+			int[] order = permutation(size, random);
+			splits[s] = new int[testSize];
+			System.arraycopy(order, 0, splits[s], 0, testSize);
+			Arrays.sort(splits[s]);
+		}
+		return splits;
+	}
+
+	/**
+	 * 并发地训练和测试全部分组
+	 *
+	 * @param tests
+	 *            每一组的测试样本序号, 其余样本用于训练
+	 * @return 每一组的结果, 与tests的顺序相同
+	 */
+	public List<FoldResult> run(int[][] tests) throws InterruptedException,
+			ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				mThreads, tests.length));
+		try {
+			List<Future<FoldResult>> futures = new ArrayList<Future<FoldResult>>();
+			for (int f = 0; f < tests.length; f++) {
+				final int fold = f;
+				final int[] test = tests[f];
+				futures.add(executor.submit(new Callable<FoldResult>() {
+					@Override
+					public FoldResult call() {
+						return runFold(fold, test);
+					}
+				}));
+			}
+			List<FoldResult> results = new ArrayList<FoldResult>();
+			for (Future<FoldResult> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private FoldResult runFold(int fold, int[] test) {
+		boolean[] isTest = new boolean[mData.size()];
+		for (int row : test) {
+			isTest[row] = true;
+		}
+		int[] train = new int[mData.size() - test.length];
+		int n = 0;
+		for (int row = 0; row < isTest.length; row++) {
+			if (!isTest[row]) {
+				train[n++] = row;
+			}
+		}
+
+		long start = System.nanoTime();
+		MultiLayerPerceptron network = mTrainer.train(mData, train);
+		long trainNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		float[] predictions = MlpTrainer.predict(network, mData, test);
+		long testNanos = System.nanoTime() - start;
+
+		float[] targets = new float[test.length];
+		for (int i = 0; i < test.length; i++) {
+			targets[i] = mData.getTarget(test[i]);
+		}
+		return new FoldResult(fold, train.length, test.length,
+				Statistics.pearson(predictions, targets),
+				Statistics.spearman(predictions, targets), Statistics.mse(
+						predictions, targets), trainNanos, testNanos);
+	}
+
+	private static int[] permutation(int size, Random random) {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		return order;
+	}
+
+	/**
+	 * 一组的测试结果
+	 */
+	public static final class FoldResult {
+		private final int mFold;
+		private final int mTrainSize;
+		private final int mTestSize;
+		private final double mPearson;
+		private final double mSpearman;
+		private final double mMse;
+		private final long mTrainNanos;
+		private final long mTestNanos;
+
+		FoldResult(int fold, int trainSize, int testSize, double pearson,
+				double spearman, double mse, long trainNanos, long testNanos) {
+			mFold = fold;
+			mTrainSize = trainSize;
+			mTestSize = testSize;
+			mPearson = pearson;
+			mSpearman = spearman;
+			mMse = mse;
+			mTrainNanos = trainNanos;
+			mTestNanos = testNanos;
+		}
+
+		public int getFold() {
+			return mFold;
+		}
+
+		public double getPearson() {
+			return mPearson;
+		}
+
+		public double getSpearman() {
+			return mSpearman;
+		}
+
+		public double getMse() {
+			return mMse;
+		}
+
+		public long getTrainNanos() {
+			return mTrainNanos;
+		}
+
+		public long getTestNanos() {
+			return mTestNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"fold %d train %d test %d pearson %.4f spearman %.4f "
+							+ "mse %.4f train %d ms test %d ms", mFold,
+					mTrainSize, mTestSize, mPearson, mSpearman, mMse,
+					mTrainNanos / 1000000, mTestNanos / 1000000);
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("usage: CrossValidation [options] [pairs]");
+		System.out.println("  -k n         k-fold cross validation (default 10)");
+		System.out.println("  -repeat n    n random splits instead of k-fold");
+		System.out.println("  -rate r      test rate of random splits (default 0.2)");
+		System.out.println("  -seed s      random seed (default 1)");
+		System.out.println("  -threads n   folds trained at the same time");
+		System.out.println("  -hidden a,b  hidden layer sizes (default 10)");
+		System.out.println("  -epochs n    training epochs (default 200)");
+		System.out.println("  -lr r        learning rate (default 0.01)");
+		System.out.println("  -sgd         use SGD instead of Adam");
+		System.out.println("  -features    compact pair features instead of the");
+		System.out.println("               concatenated sememe vectors, not with -project");
+		System.out.println("  -project d   project the sememe vectors to d dimensions");
+		System.out.println("  -density n   buckets per sememe of -project (default 1)");
+		System.out.println("  pairs        word pair file (default input.txt)");
+	}
+
+	/**
+	 * @param args
+	 *            见printUsage
+	 */
+	public static void main(String[] args) throws Exception {
+		int k = 10;
+		int repeat = 0;
+		double rate = 0.2;
+		long seed = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String path = "input.txt";
+		boolean features = false;
+		int projection = 0;
+		// 0表示没有指定
+		int density = 0;
+		MlpTrainer trainer = new MlpTrainer();
+		// 分组之间已经并行, 每一组内部使用单线程
+		trainer.setParallelism(1);
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-k".equals(arg)) {
+				k = Integer.parseInt(args[++i]);
+			} else if ("-repeat".equals(arg)) {
+				repeat = Integer.parseInt(args[++i]);
+			} else if ("-rate".equals(arg)) {
+				rate = Double.parseDouble(args[++i]);
+			} else if ("-seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+				trainer.setSeed(seed);
+			} else if ("-threads".equals(arg)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-hidden".equals(arg)) {
+				String[] sizes = args[++i].split(",");
+				int[] hidden = new int[sizes.length];
+				for (int j = 0; j < sizes.length; j++) {
+					hidden[j] = Integer.parseInt(sizes[j]);
+				}
+				trainer.setHiddenLayers(hidden);
+			} else if ("-epochs".equals(arg)) {
+				trainer.setEpochs(Integer.parseInt(args[++i]));
+			} else if ("-lr".equals(arg)) {
+				trainer.setLearningRate(Float.parseFloat(args[++i]));
+			} else if ("-sgd".equals(arg)) {
+				trainer.setOptimizer(MlpTrainer.Optimizer.SGD);
+			} else if ("-features".equals(arg)) {
+				features = true;
+			} else if ("-project".equals(arg)) {
+				projection = Integer.parseInt(args[++i]);
+			} else if ("-density".equals(arg)) {
+				density = Integer.parseInt(args[++i]);
+			} else if (arg.startsWith("-")) {
+				printUsage();
+				return;
+			} else {
+				path = arg;
+			}
+		}
+		if (features && projection > 0) {
+			System.out.println("-features and -project can not be combined");
+			printUsage();
+			return;
+		}
+		if (density > 0 && 0 == projection) {
+			System.out.println("-density needs -project");
+			printUsage();
+			return;
+		}
+
+		long start = System.nanoTime();
+		NeuralNetwork neuralNetwork = new NeuralNetwork();
+		Dataset data;
+		if (features) {
+			data = Dataset.fromPairs(new PairFeatureEncoder(neuralNetwork),
+					path);
+		} else if (projection > 0) {
+			data = Dataset.fromPairs(new ProjectedVectorEncoder(neuralNetwork,
+					new SememeProjection(neuralNetwork.getHowNet(),
+							projection, density > 0 ? density : 1, seed)), path);
+		} else {
+			data = Dataset.fromPairs(neuralNetwork, path);
+		}
+		long prepare = System.nanoTime() - start;
+
+		int[][] tests = repeat > 0 ? randomSplits(data.size(), repeat, rate,
+				seed) : kFold(data.size(), k, seed);
+		start = System.nanoTime();
+		List<FoldResult> results = new CrossValidation(data, trainer, threads)
+				.run(tests);
+		long wall = System.nanoTime() - start;
+
+		double[] pearson = new double[results.size()];
+		double[] spearman = new double[results.size()];
+		double[] mse = new double[results.size()];
+		long cpu = 0;
+		for (int i = 0; i < results.size(); i++) {
+			FoldResult result = results.get(i);
+			System.out.println(result);
+			pearson[i] = result.getPearson();
+			spearman[i] = result.getSpearman();
+			mse[i] = result.getMse();
+			cpu += result.getTrainNanos() + result.getTestNanos();
+		}
+		double[] p = Statistics.meanAndDeviation(pearson);
+		double[] s = Statistics.meanAndDeviation(spearman);
+		double[] m = Statistics.meanAndDeviation(mse);
+		System.out.println(String.format("samples %d folds %d", data.size(),
+				results.size()));
+		System.out.println(String.format("pearson  %.4f +- %.4f", p[0], p[1]));
+		System.out.println(String.format("spearman %.4f +- %.4f", s[0], s[1]));
+		System.out.println(String.format("mse      %.4f +- %.4f", m[0], m[1]));
+		System.out.println(String.format(
+				"prepare %d ms, wall %d ms, sum of folds %d ms",
+				prepare / 1000000, wall / 1000000, cpu / 1000000));
+	}
+}
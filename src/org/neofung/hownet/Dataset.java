@@ -0,0 +1,326 @@
+/**
+ * 神经网络的训练和测试数据
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Dataset 保存一组样本. 输入几乎全是0, 因此以CSR的形式保存: 第r个样本的非零元素位于mIndices和mValues的
+ * [mRowStart[r], mRowStart[r + 1])之间, 下标升序. 每个样本一个目标值.
+ *
+ * @author neo
+ * @version 2013-04-18
+ */
+public class Dataset implements SampleSource {
+
+	private final int mInputSize;
+	private final int mSize;
+	private final int[] mRowStart;
+	private final int[] mIndices;
+	private final float[] mValues;
+	private final float[] mTargets;
+
+	/**
+	 * @param inputSize
+	 *            每个样本的输入维数
+	 * @param rowStart
+	 *            每个样本的第一个非零元素的位置, 长度为样本数加1
+	 * @param indices
+	 *            非零元素的下标
+	 * @param values
+	 *            非零元素的值
+	 * @param targets
+	 *            目标值
+	 */
+	public Dataset(int inputSize, int[] rowStart, int[] indices,
+			float[] values, float[] targets) {
+		if (rowStart.length != targets.length + 1) {
+			throw new IllegalArgumentException("rowStart.length "
+					+ rowStart.length + " != " + (targets.length + 1));
+		}
+		mInputSize = inputSize;
+		mSize = targets.length;
+		mRowStart = rowStart;
+		mIndices = indices;
+		mValues = values;
+		mTargets = targets;
+	}
+
+	/**
+	 * 由行优先的稠密输入构造
+	 *
+	 * @param inputSize
+	 *            每个样本的输入维数
+	 * @param inputs
+	 *            行优先的输入
+	 * @param targets
+	 *            目标值
+	 */
+	public static Dataset fromDense(int inputSize, float[] inputs,
+			float[] targets) {
+		if ((long) inputSize * targets.length != inputs.length) {
+			throw new IllegalArgumentException("inputs.length "
+					+ inputs.length + " != " + inputSize + " * "
+					+ targets.length);
+		}
+		int count = 0;
+		for (float v : inputs) {
+			if (0.0f != v) {
+				count++;
+			}
+		}
+		int[] rowStart = new int[targets.length + 1];
+		int[] indices = new int[count];
+		float[] values = new float[count];
+		int n = 0;
+		for (int r = 0; r < targets.length; r++) {
+			rowStart[r] = n;
+			for (int i = 0; i < inputSize; i++) {
+				float v = inputs[r * inputSize + i];
+				if (0.0f != v) {
+					indices[n] = i;
+					values[n] = v;
+					n++;
+				}
+			}
+		}
+		rowStart[targets.length] = n;
+		return new Dataset(inputSize, rowStart, indices, values,
+				targets.clone());
+	}
+
+	/**
+	 * 读取词语对文件, 每行是"词语 词语 相似度", 输入是两个词语的归一化向量首尾相接. 没有收录的词语所在的行被跳过.
+	 *
+	 * @param network
+	 *            用于计算词语向量
+	 * @param path
+	 *            UTF-8编码的词语对文件
+	 * @return 数据集
+	 * @throws IOException
+	 */
+	public static Dataset fromPairs(NeuralNetwork network, String path)
+			throws IOException {
+		int dimensionality = network.getDimensionality();
+		Builder builder = new Builder(2 * dimensionality);
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(path), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] words = line.trim().split("\\s+");
+				if (words.length < 3) {
+					continue;
+				}
+				SparseVector a = network.getNormalizedVector(words[0]);
+				SparseVector b = network.getNormalizedVector(words[1]);
+				if (null == a || null == b) {
+					continue;
+				}
+				builder.addPair(a, b, dimensionality,
+						Float.parseFloat(words[2]));
+			}
+		} finally {
+			reader.close();
+		}
+		return builder.build();
+	}
+
+	/**
+	 * 读取词语对文件, 每行是"词语 词语 相似度", 输入由encoder计算. 没有收录的词语所在的行被跳过.
+	 *
+	 * @param encoder
+	 *            输入的编码
+	 * @param path
+	 *            UTF-8编码的词语对文件
+	 * @return 数据集
+	 * @throws IOException
+	 */
+	public static Dataset fromPairs(PairEncoder encoder, String path)
+			throws IOException {
+		Builder builder = new Builder(encoder.getInputSize());
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(path), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] words = line.trim().split("\\s+");
+				if (words.length < 3) {
+					continue;
+				}
+				SparseVector input = encoder.encode(words[0], words[1]);
+				if (null == input) {
+					continue;
+				}
+				builder.addVector(input, Float.parseFloat(words[2]));
+			}
+		} finally {
+			reader.close();
+		}
+		return builder.build();
+	}
+
+	@Override
+	public int size() {
+		return mSize;
+	}
+
+	@Override
+	public int getInputSize() {
+		return mInputSize;
+	}
+
+	/**
+	 * @return 非零元素的总数
+	 */
+	public int getNonZeroCount() {
+		return mRowStart[mSize];
+	}
+
+	int[] getRowStart() {
+		return mRowStart;
+	}
+
+	int[] getIndices() {
+		return mIndices;
+	}
+
+	float[] getValues() {
+		return mValues;
+	}
+
+	@Override
+	public float getTarget(int row) {
+		return mTargets[row];
+	}
+
+	@Override
+	public int getRowLength(int row) {
+		return mRowStart[row + 1] - mRowStart[row];
+	}
+
+	@Override
+	public void copyRow(int row, int[] indices, float[] values, int offset) {
+		int from = mRowStart[row];
+		int length = mRowStart[row + 1] - from;
+		System.arraycopy(mIndices, from, indices, offset, length);
+		System.arraycopy(mValues, from, values, offset, length);
+	}
+
+	/**
+	 * @return 目标值, 直接返回内部数组
+	 */
+	float[] getTargets() {
+		return mTargets;
+	}
+
+	/**
+	 * 把第row个样本的输入展开到稠密数组dest中
+	 */
+	public void copyInput(int row, float[] dest, int offset) {
+		Arrays.fill(dest, offset, offset + mInputSize, 0.0f);
+		for (int i = mRowStart[row]; i < mRowStart[row + 1]; i++) {
+			dest[offset + mIndices[i]] = mValues[i];
+		}
+	}
+
+	/**
+	 * @param rows
+	 *            样本的序号
+	 * @return 由这些样本组成的新数据集
+	 */
+	public Dataset subset(int[] rows) {
+		Builder builder = new Builder(mInputSize);
+		for (int row : rows) {
+			builder.addRow(mIndices, mValues, mRowStart[row],
+					mRowStart[row + 1], mTargets[row]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * 逐行构造CSR形式的数据集
+	 */
+	static final class Builder {
+		private final int mInputSize;
+		private int[] mRowStart = new int[65];
+		private int[] mIndices = new int[1024];
+		private float[] mValues = new float[1024];
+		private float[] mTargets = new float[64];
+		private int mRows;
+		private int mCount;
+
+		Builder(int inputSize) {
+			mInputSize = inputSize;
+		}
+
+		/**
+		 * 添加一行, 非零元素取自indices和values的[from, to)
+		 */
+		void addRow(int[] indices, float[] values, int from, int to,
+				float target) {
+			ensure(to - from);
+			System.arraycopy(indices, from, mIndices, mCount, to - from);
+			System.arraycopy(values, from, mValues, mCount, to - from);
+			mCount += to - from;
+			finishRow(target);
+		}
+
+		/**
+		 * 添加一行, 输入是一个稀疏向量
+		 */
+		void addVector(SparseVector input, float target) {
+			ensure(input.size());
+			for (int i = 0; i < input.size(); i++) {
+				mIndices[mCount] = input.indexAt(i);
+				mValues[mCount++] = input.valueAt(i);
+			}
+			finishRow(target);
+		}
+
+		/**
+		 * 添加一行, 输入是a和b首尾相接, b的下标偏移offset
+		 */
+		void addPair(SparseVector a, SparseVector b, int offset, float target) {
+			ensure(a.size() + b.size());
+			for (int i = 0; i < a.size(); i++) {
+				mIndices[mCount] = a.indexAt(i);
+				mValues[mCount++] = a.valueAt(i);
+			}
+			for (int i = 0; i < b.size(); i++) {
+				mIndices[mCount] = offset + b.indexAt(i);
+				mValues[mCount++] = b.valueAt(i);
+			}
+			finishRow(target);
+		}
+
+		private void ensure(int count) {
+			if (mCount + count > mIndices.length) {
+				int length = Math.max(mIndices.length * 2, mCount + count);
+				mIndices = Arrays.copyOf(mIndices, length);
+				mValues = Arrays.copyOf(mValues, length);
+			}
+		}
+
+		private void finishRow(float target) {
+			if (mRows == mTargets.length) {
+				mTargets = Arrays.copyOf(mTargets, mRows * 2);
+				mRowStart = Arrays.copyOf(mRowStart, mRows * 2 + 1);
+			}
+			mTargets[mRows++] = target;
+			mRowStart[mRows] = mCount;
+		}
+
+		Dataset build() {
+			return new Dataset(mInputSize, Arrays.copyOf(mRowStart, mRows + 1),
+					Arrays.copyOf(mIndices, mCount), Arrays.copyOf(mValues,
+							mCount), Arrays.copyOf(mTargets, mRows));
+		}
+	}
+}
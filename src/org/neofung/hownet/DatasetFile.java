@@ -0,0 +1,256 @@
+/**
+ * 数据集的二进制文件和libsvm文本文件
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * DatasetFile 读写CSR形式的二进制数据集, 代替原来每个元素写成"0.0 "的文本文件. 文件格式(大端序):
+ *
+ * <pre>
+ * header:   magic, version, rows, inputSize, nonZeroCount
+ * rowStart: int[rows + 1]
+ * indices:  int[nonZeroCount]
+ * values:   float[nonZeroCount]
+ * targets:  float[rows]
+ * </pre>
+ *
+ * 读取时通过FileChannel.map映射整个文件. DatasetFile本身是SampleSource, MlpTrainer直接在映射上按行读取,
+ * 每个mini-batch只复制用到的行, 数据集不进入堆; 只用绝对位置读取, 多个线程可以同时训练.
+ *
+ * @author neo
+ * @version 2013-04-22
+ */
+public final class DatasetFile implements SampleSource {
+
+	public static final int MAGIC = 0x4E454F44; // "NEOD"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 5 * 4;
+
+	private final int mRows;
+	private final int mInputSize;
+	private final IntBuffer mRowStart;
+	private final IntBuffer mIndices;
+	private final FloatBuffer mValues;
+	private final FloatBuffer mTargets;
+
+	private DatasetFile(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("not a dataset file");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("unsupported dataset version "
+					+ buffer.getInt(4));
+		}
+		mRows = buffer.getInt(8);
+		mInputSize = buffer.getInt(12);
+		int count = buffer.getInt(16);
+		long expected = HEADER_SIZE + 4L * (mRows + 1) + 8L * count + 4L
+				* mRows;
+		if (expected != buffer.capacity()) {
+			throw new IOException("truncated dataset file");
+		}
+		int offset = HEADER_SIZE;
+		mRowStart = slice(buffer, offset, mRows + 1).asIntBuffer();
+		offset += 4 * (mRows + 1);
+		mIndices = slice(buffer, offset, count).asIntBuffer();
+		offset += 4 * count;
+		mValues = slice(buffer, offset, count).asFloatBuffer();
+		offset += 4 * count;
+		mTargets = slice(buffer, offset, mRows).asFloatBuffer();
+	}
+
+	/**
+	 * 以只读方式映射数据集文件
+	 */
+	public static DatasetFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new DatasetFile(channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * 把数据集写成二进制文件
+	 */
+	public static void write(Dataset data, File file) throws IOException {
+		long start = System.nanoTime();
+		int rows = data.size();
+		int count = data.getNonZeroCount();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(rows);
+			buffer.putInt(data.getInputSize());
+			buffer.putInt(count);
+			int[] rowStart = data.getRowStart();
+			for (int i = 0; i <= rows; i++) {
+				buffer = ensure(channel, buffer);
+				buffer.putInt(rowStart[i]);
+			}
+			int[] indices = data.getIndices();
+			for (int i = 0; i < count; i++) {
+				buffer = ensure(channel, buffer);
+				buffer.putInt(indices[i]);
+			}
+			float[] values = data.getValues();
+			for (int i = 0; i < count; i++) {
+				buffer = ensure(channel, buffer);
+				buffer.putFloat(values[i]);
+			}
+			float[] targets = data.getTargets();
+			for (int i = 0; i < rows; i++) {
+				buffer = ensure(channel, buffer);
+				buffer.putFloat(targets[i]);
+			}
+			flush(channel, buffer);
+		} finally {
+			raf.close();
+		}
+		Metrics.IO_DATASET_WRITE.recordSince(start);
+	}
+
+	/**
+	 * 把数据集写成libsvm格式的文本, 每行是"目标值 下标:值 ...", 下标从1开始
+	 */
+	public static void writeLibsvm(Dataset data, File file) throws IOException {
+		long start = System.nanoTime();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"), 64 * 1024);
+		try {
+			int[] rowStart = data.getRowStart();
+			int[] indices = data.getIndices();
+			float[] values = data.getValues();
+			StringBuilder line = new StringBuilder();
+			for (int r = 0; r < data.size(); r++) {
+				line.setLength(0);
+				line.append(data.getTarget(r));
+				for (int p = rowStart[r]; p < rowStart[r + 1]; p++) {
+					line.append(' ').append(indices[p] + 1).append(':')
+							.append(values[p]);
+				}
+				line.append('\n');
+				writer.write(line.toString());
+			}
+		} finally {
+			writer.close();
+		}
+		Metrics.IO_DATASET_WRITE.recordSince(start);
+	}
+
+	@Override
+	public int size() {
+		return mRows;
+	}
+
+	@Override
+	public int getInputSize() {
+		return mInputSize;
+	}
+
+	@Override
+	public float getTarget(int row) {
+		return mTargets.get(row);
+	}
+
+	@Override
+	public int getRowLength(int row) {
+		return mRowStart.get(row + 1) - mRowStart.get(row);
+	}
+
+	@Override
+	public void copyRow(int row, int[] indices, float[] values, int offset) {
+		int from = mRowStart.get(row);
+		int length = mRowStart.get(row + 1) - from;
+		for (int i = 0; i < length; i++) {
+			indices[offset + i] = mIndices.get(from + i);
+			values[offset + i] = mValues.get(from + i);
+		}
+	}
+
+	/**
+	 * 把整个文件批量复制到堆中, 用于需要Dataset的地方, 例如MlpTrainer.predict和CrossValidation; 训练时直接传入
+	 * DatasetFile即可
+	 */
+	public Dataset toDataset() {
+		int[] rowStart = new int[mRows + 1];
+		mRowStart.duplicate().get(rowStart);
+		int count = rowStart[mRows];
+		int[] indices = new int[count];
+		mIndices.duplicate().get(indices);
+		float[] values = new float[count];
+		mValues.duplicate().get(values);
+		float[] targets = new float[mRows];
+		mTargets.duplicate().get(targets);
+		return new Dataset(mInputSize, rowStart, indices, values, targets);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int count) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + 4 * count);
+		return duplicate.slice();
+	}
+
+	private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		if (buffer.remaining() < 4) {
+			flush(channel, buffer);
+			buffer.clear();
+		}
+		return buffer;
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * 把词语对文件转换成数据集文件, 代替NeuralNetwork.translate
+	 *
+	 * @param args
+	 *            词语对文件 输出文件 [-libsvm]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("usage: DatasetFile pairs output [-libsvm]");
+			return;
+		}
+		NeuralNetwork neuralNetwork = new NeuralNetwork();
+		long start = System.nanoTime();
+		Dataset data = Dataset.fromPairs(neuralNetwork, args[0]);
+		File output = new File(args[1]);
+		if (args.length > 2 && "-libsvm".equals(args[2])) {
+			writeLibsvm(data, output);
+		} else {
+			write(data, output);
+		}
+		System.out.println(data.size() + " rows, " + data.getNonZeroCount()
+				+ " non-zeros, " + output.length() + " bytes, "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
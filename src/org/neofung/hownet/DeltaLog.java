@@ -0,0 +1,424 @@
+/**
+ * 词典的增量日志
+ */
+package org.neofung.hownet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * DeltaLog 是只追加的词典增量日志, 记录在glossary.dat和WHOLE.DAT之外新增的义原和义项. HowNet打开快照后按顺序
+ * 重放快照还没有包含的记录, 新义原的ID号从快照的义原数开始按日志中的顺序分配, 因此每次打开得到的ID号相同,
+ * 已经训练好的模型的输入排列仍然有效.
+ * <p>
+ * 压缩时全部记录被写入新的快照, 义原ID号不变, header改为基于新的快照, 并记下快照已经包含的记录数; 记录本身保留,
+ * 因为重新读取原始数据时要重放全部记录, 否则压缩过的新词会丢失.
+ *
+ * 文件格式(大端序):
+ *
+ * <pre>
+ * header:  magic, version, 所基于的快照的crc32, 快照已经包含的记录数
+ * record:  body的长度, crc32(body), body
+ * body:    类型, 然后是各字段(DataOutput.writeUTF的字符串)
+ *          SEMEME: 义原, 上位义(没有则为空串)
+ *          SENSE:  词语, 词性, 义原数, 各个义原
+ * </pre>
+ *
+ * 追加时写到一半的最后一条记录在打开时被丢弃, 下次追加时被截掉. 只允许一个进程写日志; 进程内同一个文件只有一个
+ * DeltaLog对象, 由open返回, 所有HowNet共用它, 因此旧的HowNet追加或者压缩时不会按过时的长度和记录改写文件.
+ * 需要和追加互斥的操作(读取记录后写快照再调用compacted)在这个对象上同步.
+ *
+ * @author neo
+ * @version 2013-05-17
+ */
+public final class DeltaLog {
+
+	public static final int MAGIC = 0x4E454F4C; // "NEOL"
+	public static final int VERSION = 1;
+
+	static final byte TYPE_SEMEME = 1;
+	static final byte TYPE_SENSE = 2;
+
+	// magic, version, crc32(long), 已压缩的记录数
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+	// 已经打开的日志, 键是文件的规范路径
+	private static final Map<String, DeltaLog> LOGS = new HashMap<String, DeltaLog>();
+
+	private final File mFile;
+	private final List<Record> mRecords;
+	private long mBase;
+	private int mCompacted;
+	// 有效内容的字节数, 0表示需要重写header
+	private long mLength;
+
+	private DeltaLog(File file, long base, int compacted,
+			List<Record> records, long length) {
+		mFile = file;
+		mBase = base;
+		mCompacted = compacted;
+		mRecords = records;
+		mLength = length;
+	}
+
+	/**
+	 * 打开日志, 同一个文件总是返回同一个对象, 只在第一次打开时读取文件. 没有记录时返回基于base的空日志, 第一次追加时
+	 * 写入header; 否则返回文件中的日志, 它可能基于其它快照, 由调用者检查getBase().
+	 *
+	 * @param file
+	 *            日志文件
+	 * @param base
+	 *            当前快照的crc32, 即HowNetSnapshot.getChecksum()
+	 * @return 日志
+	 * @throws IOException
+	 *             文件格式错误
+	 */
+	public static DeltaLog open(File file, long base) throws IOException {
+		String key = file.getCanonicalPath();
+		DeltaLog log;
+		synchronized (LOGS) {
+			log = LOGS.get(key);
+			if (null == log) {
+				log = read(file, base);
+				LOGS.put(key, log);
+				return log;
+			}
+		}
+		synchronized (log) {
+			if (log.mRecords.isEmpty()) {
+				log.mBase = base;
+				log.mCompacted = 0;
+				log.mLength = 0;
+			}
+		}
+		return log;
+	}
+
+	private static DeltaLog read(File file, long base) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		if (!file.exists()) {
+			return new DeltaLog(file, base, 0, records, 0);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ByteBuffer buffer;
+		try {
+			FileChannel channel = raf.getChannel();
+			buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+		} finally {
+			raf.close();
+		}
+		if (buffer.remaining() < HEADER_SIZE) {
+			return new DeltaLog(file, base, 0, records, 0);
+		}
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("not a delta log");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported delta log version " + version);
+		}
+		long logBase = buffer.getLong();
+		int compacted = buffer.getInt();
+		long valid = buffer.position();
+		while (buffer.remaining() >= 8) {
+			int size = buffer.getInt();
+			long crc = buffer.getInt() & 0xFFFFFFFFL;
+			if (size < 0 || size > buffer.remaining()) {
+				// 写到一半的记录
+				break;
+			}
+			byte[] body = new byte[size];
+			buffer.get(body);
+			if (crc != checksum(body)) {
+				break;
+			}
+			records.add(Record.decode(body));
+			valid = buffer.position();
+		}
+		if (records.isEmpty()) {
+			return new DeltaLog(file, base, 0, records, 0);
+		}
+		if (compacted < 0 || compacted > records.size()) {
+			throw new IOException("bad compacted count " + compacted);
+		}
+		return new DeltaLog(file, logBase, compacted, records, valid);
+	}
+
+	/**
+	 * @return 所基于的快照的crc32
+	 */
+	public synchronized long getBase() {
+		return mBase;
+	}
+
+	/**
+	 * @return 按追加顺序排列的全部记录, 只读
+	 */
+	public synchronized List<Record> getRecords() {
+		return Collections.unmodifiableList(new ArrayList<Record>(mRecords));
+	}
+
+	/**
+	 * @return 全部记录数
+	 */
+	public synchronized int getRecordCount() {
+		return mRecords.size();
+	}
+
+	/**
+	 * @return 所基于的快照还没有包含的记录, 只读
+	 */
+	public synchronized List<Record> getPendingRecords() {
+		return Collections.unmodifiableList(new ArrayList<Record>(mRecords
+				.subList(mCompacted, mRecords.size())));
+	}
+
+	/**
+	 * @return 所基于的快照还没有包含的记录数
+	 */
+	public synchronized int getPendingCount() {
+		return mRecords.size() - mCompacted;
+	}
+
+	/**
+	 * 追加一条新义原的记录
+	 *
+	 * @param sememe
+	 *            义原
+	 * @param father
+	 *            上位义, 没有则为null
+	 */
+	public void appendSememe(String sememe, String father) throws IOException {
+		append(new Record(TYPE_SEMEME, sememe, null == father ? "" : father,
+				null));
+	}
+
+	/**
+	 * 追加一条新义项的记录, 词语不存在时即是新词
+	 *
+	 * @param word
+	 *            词语
+	 * @param pos
+	 *            词性
+	 * @param sememes
+	 *            义项的义原
+	 */
+	public void appendSense(String word, String pos, List<String> sememes)
+			throws IOException {
+		append(new Record(TYPE_SENSE, word, pos, new ArrayList<String>(
+				sememes)));
+	}
+
+	private synchronized void append(Record record) throws IOException {
+		ByteBuffer buffer = frame(record);
+
+		RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (0 == mLength) {
+				// 文件不存在或者基于旧的快照, 重写header
+				channel.truncate(0);
+				ByteBuffer header = header(mBase, mCompacted);
+				while (header.hasRemaining()) {
+					mLength += channel.write(header, mLength);
+				}
+			} else {
+				// 截掉写到一半的记录
+				channel.truncate(mLength);
+			}
+			long position = mLength;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			channel.force(false);
+			mLength = position;
+		} finally {
+			raf.close();
+		}
+		mRecords.add(record);
+	}
+
+	/**
+	 * 全部记录已经写入新的快照后调用, 使日志基于新的快照. 记录被保留, 整个文件先写到临时文件再改名.
+	 *
+	 * @param base
+	 *            新快照的crc32
+	 */
+	public synchronized void compacted(long base) throws IOException {
+		File tmp = new File(mFile.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		long length;
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = header(base, mRecords.size());
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			for (Record record : mRecords) {
+				ByteBuffer buffer = frame(record);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			channel.force(true);
+			length = channel.position();
+		} finally {
+			raf.close();
+		}
+		if (!tmp.renameTo(mFile)) {
+			mFile.delete();
+			if (!tmp.renameTo(mFile)) {
+				throw new IOException("can not rename " + tmp + " to " + mFile);
+			}
+		}
+		mBase = base;
+		mCompacted = mRecords.size();
+		mLength = length;
+	}
+
+	private static ByteBuffer header(long base, int compacted) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(base);
+		header.putInt(compacted);
+		header.flip();
+		return header;
+	}
+
+	private static ByteBuffer frame(Record record) throws IOException {
+		byte[] body = record.encode();
+		ByteBuffer buffer = ByteBuffer.allocate(8 + body.length);
+		buffer.putInt(body.length);
+		buffer.putInt((int) checksum(body));
+		buffer.put(body);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return crc.getValue();
+	}
+
+	/**
+	 * 日志中的一条记录
+	 */
+	public static final class Record {
+		private final byte mType;
+		private final String mFirst;
+		private final String mSecond;
+		private final List<String> mSememes;
+
+		Record(byte type, String first, String second, List<String> sememes) {
+			mType = type;
+			mFirst = first;
+			mSecond = second;
+			mSememes = null == sememes ? null : Collections
+					.unmodifiableList(sememes);
+		}
+
+		public boolean isSememe() {
+			return TYPE_SEMEME == mType;
+		}
+
+		public boolean isSense() {
+			return TYPE_SENSE == mType;
+		}
+
+		/**
+		 * @return SEMEME记录的义原
+		 */
+		public String getSememe() {
+			return mFirst;
+		}
+
+		/**
+		 * @return SEMEME记录的上位义, 没有则为null
+		 */
+		public String getFather() {
+			return mSecond.length() == 0 ? null : mSecond;
+		}
+
+		/**
+		 * @return SENSE记录的词语
+		 */
+		public String getWord() {
+			return mFirst;
+		}
+
+		/**
+		 * @return SENSE记录的词性
+		 */
+		public String getPos() {
+			return mSecond;
+		}
+
+		/**
+		 * @return SENSE记录的义原, 只读
+		 */
+		public List<String> getSememes() {
+			return mSememes;
+		}
+
+		byte[] encode() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(mType);
+			out.writeUTF(mFirst);
+			out.writeUTF(mSecond);
+			if (TYPE_SENSE == mType) {
+				out.writeInt(mSememes.size());
+				for (String sememe : mSememes) {
+					out.writeUTF(sememe);
+				}
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		static Record decode(byte[] body) throws IOException {
+			DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(body));
+			byte type = in.readByte();
+			String first = in.readUTF();
+			String second = in.readUTF();
+			if (TYPE_SEMEME == type) {
+				return new Record(type, first, second, null);
+			}
+			if (TYPE_SENSE != type) {
+				throw new IOException("unknown delta record type " + type);
+			}
+			int count = in.readInt();
+			List<String> sememes = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				sememes.add(in.readUTF());
+			}
+			return new Record(type, first, second, sememes);
+		}
+
+		@Override
+		public String toString() {
+			return isSememe() ? "sememe " + mFirst + " < " + mSecond
+					: "sense " + mFirst + " " + mSecond + " " + mSememes;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * 可以原子替换的词典
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * DictionaryHolder 保存当前使用的词典. 词典是一个NeuralNetwork, 即不可变的HowNet和由它计算的词语向量缓存,
+ * 两者总是一起替换, 因此不会出现新词典配上旧向量的情况.
+ * <p>
+ * 读取时只是一次volatile读, 不加锁. 每个请求应该在开始时调用一次get(), 整个请求都使用这个对象, 这样即使中途
+ * 词典被替换, 同一个请求看到的也是同一份词典. 被替换的词典在最后一个请求结束后由垃圾回收释放.
+ *
+ * @author neo
+ * @version 2013-05-02
+ */
+public final class DictionaryHolder {
+
+	private final AtomicReference<NeuralNetwork> mCurrent;
+
+	/**
+	 * @param network
+	 *            初始的词典
+	 */
+	public DictionaryHolder(NeuralNetwork network) {
+		if (null == network) {
+			throw new NullPointerException("network");
+		}
+		mCurrent = new AtomicReference<NeuralNetwork>(network);
+	}
+
+	/**
+	 * @return 当前的词典
+	 */
+	public NeuralNetwork get() {
+		return mCurrent.get();
+	}
+
+	/**
+	 * 用新的词典替换当前的词典
+	 *
+	 * @return 被替换的词典
+	 */
+	public NeuralNetwork swap(NeuralNetwork network) {
+		if (null == network) {
+			throw new NullPointerException("network");
+		}
+		return mCurrent.getAndSet(network);
+	}
+
+	/**
+	 * 重新读取glossary.dat和WHOLE.DAT, 重写快照, 然后替换当前的词典. 读取在调用者的线程中进行, 期间读取者继续使用
+	 * 旧的词典.
+	 *
+	 * @return 被替换的词典
+	 */
+	public synchronized NeuralNetwork reload() {
+		return swap(new NeuralNetwork(new HowNet(true)));
+	}
+
+	/**
+	 * 增加一个义原, 然后替换当前的词典. 更新之间互斥, 读取者不受影响.
+	 *
+	 * @return 被替换的词典
+	 * @see HowNet#addSememe(String, String)
+	 */
+	public synchronized NeuralNetwork addSememe(String sememe, String father)
+			throws IOException {
+		return swap(new NeuralNetwork(get().getHowNet().addSememe(sememe,
+				father)));
+	}
+
+	/**
+	 * 给词语增加一个义项, 然后替换当前的词典. 更新之间互斥, 读取者不受影响.
+	 *
+	 * @return 被替换的词典
+	 * @see HowNet#addSense(String, String, List)
+	 */
+	public synchronized NeuralNetwork addSense(String word, String pos,
+			List<String> sememes) throws IOException {
+		return swap(new NeuralNetwork(get().getHowNet().addSense(word, pos,
+				sememes)));
+	}
+
+	/**
+	 * 把增量日志写入新的快照, 然后替换当前的词典
+	 *
+	 * @return 被替换的词典
+	 * @see HowNet#compact()
+	 */
+	public synchronized NeuralNetwork compact() throws IOException {
+		return swap(new NeuralNetwork(get().getHowNet().compact()));
+	}
+
+	/**
+	 * 在几个线程不断计算词语对相似度的同时重新读取词典, 检查读取者不受影响
+	 *
+	 * @param args
+	 *            [线程数] [词语对文件]
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		String path = args.length > 1 ? args[1] : "input.txt";
+		final DictionaryHolder holder = new DictionaryHolder(
+				new NeuralNetwork());
+		final List<WordPair> pairs = new ArrayList<WordPair>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(path), "UTF-8"));
+		try {
+			for (WordPair pair : WordPair.lines(reader)) {
+				pairs.add(pair);
+			}
+		} finally {
+			reader.close();
+		}
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong scored = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+
+		Thread[] readers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			readers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running.get()) {
+						NeuralNetwork network = holder.get();
+						for (WordPair pair : pairs) {
+							SparseVector a = network.getNormalizedVector(pair
+									.getFirst());
+							SparseVector b = network.getNormalizedVector(pair
+									.getSecond());
+							if (null != a && null != b
+									&& Double.isNaN(a.cosine(b))) {
+								failed.incrementAndGet();
+							}
+						}
+						scored.addAndGet(pairs.size());
+					}
+				}
+			});
+			readers[t].start();
+		}
+
+		long start = System.nanoTime();
+		Thread.sleep(1000);
+		long before = scored.get();
+		NeuralNetwork old = holder.reload();
+		long reload = System.nanoTime() - start;
+		Thread.sleep(1000);
+		running.set(false);
+		for (Thread thread : readers) {
+			thread.join();
+		}
+		System.out.println(String.format(
+				"%d threads, %d pairs before reload, %d in total, "
+						+ "%d failures, reload finished after %d ms, "
+						+ "replaced %s", threads, before, scored.get(),
+				failed.get(), reload / 1000000, old != holder.get()));
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * 由词语直接计算相似度
+ */
+package org.neofung.hownet;
+
+/**
+ * EncodedScorer 先用PairEncoder把一对词语编码为输入, 再用训练好的网络计算相似度. 线程安全.
+ *
+ * @author neo
+ * @version 2013-05-14
+ */
+public final class EncodedScorer implements WordScorer {
+
+	private final PairEncoder mEncoder;
+	private final MultiLayerPerceptron mNetwork;
+
+	/**
+	 * @param encoder
+	 *            训练时使用的编码
+	 * @param network
+	 *            训练好的网络, 输入维数与encoder相同
+	 */
+	public EncodedScorer(PairEncoder encoder, MultiLayerPerceptron network) {
+		if (encoder.getInputSize() != network.getInputSize()) {
+			throw new IllegalArgumentException("encoder input size "
+					+ encoder.getInputSize() + " != network input size "
+					+ network.getInputSize());
+		}
+		mEncoder = encoder;
+		mNetwork = network;
+	}
+
+	public PairEncoder getEncoder() {
+		return mEncoder;
+	}
+
+	@Override
+	public float score(String first, String second) {
+		SparseVector input = mEncoder.encode(first, second);
+		return null == input ? Float.NaN : mNetwork.predict(input);
+	}
+}
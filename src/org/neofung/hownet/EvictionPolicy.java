@@ -0,0 +1,64 @@
+/**
+ * 缓存的淘汰策略
+ */
+package org.neofung.hownet;
+
+/**
+ * EvictionPolicy 是VectorCache中每个分段所使用的淘汰策略. 实现类不需要是线程安全的, VectorCache会在分段的锁内调用它.
+ *
+ * @author neo
+ * @version 2013-04-15
+ *
+ * @param <K>
+ *            Key
+ * @param <V>
+ *            Value
+ */
+public interface EvictionPolicy<K, V> {
+
+	/**
+	 * 查询并记录一次访问
+	 *
+	 * @param key
+	 * @return 缓存的值, 没有则返回null
+	 */
+	V get(K key);
+
+	/**
+	 * 插入新的值, 必要时淘汰旧的值
+	 *
+	 * @param key
+	 * @param value
+	 * @param weight
+	 *            值的权重, 按条目计数时为1, 按内存计数时为字节数
+	 * @return 这次插入淘汰的条目数, 如果新的值没有被接纳也计为一次淘汰
+	 */
+	int put(K key, V value, int weight);
+
+	/**
+	 * @return 当前的条目数
+	 */
+	int size();
+
+	/**
+	 * @return 当前的总权重
+	 */
+	long weight();
+
+	/**
+	 * 清空全部条目
+	 */
+	void clear();
+
+	/**
+	 * 创建淘汰策略的工厂
+	 */
+	interface Factory {
+		/**
+		 * @param capacity
+		 *            一个分段的权重上限
+		 * @return 新的淘汰策略
+		 */
+		<K, V> EvictionPolicy<K, V> create(long capacity);
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * 两个词语的义原向量首尾相接
+ */
+package org.neofung.hownet;
+
+/**
+ * FullVectorEncoder 是原来的输入: 两个词语的归一化义原向量首尾相接, 第二个词语的下标偏移义原数. 与
+ * Dataset.fromPairs(NeuralNetwork, String)和MultiLayerPerceptron.score的输入相同.
+ *
+ * @author neo
+ * @version 2013-05-14
+ */
+public final class FullVectorEncoder implements PairEncoder {
+
+	private final NeuralNetwork mNetwork;
+
+	public FullVectorEncoder(NeuralNetwork network) {
+		mNetwork = network;
+	}
+
+	@Override
+	public int getInputSize() {
+		return 2 * mNetwork.getDimensionality();
+	}
+
+	@Override
+	public SparseVector encode(String first, String second) {
+		SparseVector a = mNetwork.getNormalizedVector(first);
+		SparseVector b = mNetwork.getNormalizedVector(second);
+		if (null == a || null == b) {
+			return null;
+		}
+		int offset = mNetwork.getDimensionality();
+		int[] indices = new int[a.size() + b.size()];
+		float[] values = new float[indices.length];
+		for (int i = 0; i < a.size(); i++) {
+			indices[i] = a.indexAt(i);
+			values[i] = a.valueAt(i);
+		}
+		for (int i = 0; i < b.size(); i++) {
+			indices[a.size() + i] = offset + b.indexAt(i);
+			values[a.size() + i] = b.valueAt(i);
+		}
+		return new SparseVector(indices, values);
+	}
+}
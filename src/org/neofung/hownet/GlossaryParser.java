@@ -0,0 +1,677 @@
+/**
+ * 并行读取glossary.dat和WHOLE.DAT
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * GlossaryParser 直接在字节上解析知网的数据文件, 代替FileReader加正则表达式split的做法. 文件通过FileChannel.map
+ * 映射后按行边界切成若干块, 在线程池中并行解析, 每一块内相同的义原和词性只解码一次并编号, 最后按块的顺序合并,
+ * 义原的ID号按在文件中第一次出现的顺序分配, 因此结果与线程数无关.
+ * <p>
+ * 分隔符(制表符, 空格, 逗号, 换行)都是ASCII字符, 在UTF-8和GBK中都不会出现在多字节字符的内部, 因此可以先按字节切分,
+ * 再用指定的字符集解码各个字段. 字符集不再依赖平台的默认编码: 默认是UTF-8, 与随代码发布的数据文件一致, 使用GBK的
+ * 原始知网数据时可以用系统属性hownet.charset=GBK指定.
+ *
+ * @author neo
+ * @version 2013-04-30
+ */
+final class GlossaryParser {
+
+	/**
+	 * 数据文件的字符集, 可以用系统属性hownet.charset指定
+	 */
+	static final Charset CHARSET = Charset.forName(System.getProperty(
+			"hownet.charset", "UTF-8"));
+
+	// 每一块的最小字节数, 太小的块不值得交给另一个线程
+	private static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+	private final Charset mCharset;
+	private final int mThreads;
+
+	/**
+	 * @param charset
+	 *            数据文件的字符集
+	 * @param threads
+	 *            解析的线程数
+	 */
+	GlossaryParser(Charset charset, int threads) {
+		mCharset = charset;
+		mThreads = Math.max(1, threads);
+	}
+
+	GlossaryParser() {
+		this(CHARSET, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * glossary.dat的解析结果, 每一行是一个义项
+	 */
+	static final class Glossary {
+		// 每一行的词语
+		final String[] words;
+		// 每一行的词性, 相同的词性是同一个String对象
+		final String[] pos;
+		// 第i行的义原是sememes[sememeStart[i]]到sememes[sememeStart[i + 1] - 1]
+		final int[] sememeStart;
+		final int[] sememes;
+		// 义原的名字, 按第一次出现的顺序排列, 下标就是sememes中的值
+		final String[] sememeNames;
+
+		Glossary(String[] words, String[] pos, int[] sememeStart,
+				int[] sememes, String[] sememeNames) {
+			this.words = words;
+			this.pos = pos;
+			this.sememeStart = sememeStart;
+			this.sememes = sememes;
+			this.sememeNames = sememeNames;
+		}
+
+		int size() {
+			return words.length;
+		}
+	}
+
+	/**
+	 * WHOLE.DAT的解析结果
+	 */
+	static final class Whole {
+		// 每一行的义原
+		final String[] sememes;
+		// 每一行的上位义所在的行号
+		final int[] parents;
+
+		Whole(String[] sememes, int[] parents) {
+			this.sememes = sememes;
+			this.parents = parents;
+		}
+	}
+
+	/**
+	 * 解析glossary.dat, 每行是"词语 \t 词性 \t 义原,义原,..."
+	 */
+	Glossary parseGlossary(File file) throws IOException {
+		final ByteBuffer buffer = map(file);
+		int[] bounds = split(buffer);
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		if (bounds.length == 2) {
+			chunks.add(parseChunk(buffer, bounds[0], bounds[1]));
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+					mThreads, bounds.length - 1));
+			try {
+				List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+				for (int i = 0; i + 1 < bounds.length; i++) {
+					final int start = bounds[i];
+					final int end = bounds[i + 1];
+					futures.add(executor.submit(new Callable<Chunk>() {
+						@Override
+						public Chunk call() throws IOException {
+							return parseChunk(buffer, start, end);
+						}
+					}));
+				}
+				for (Future<Chunk> future : futures) {
+					chunks.add(future.get());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while parsing " + file);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+		}
+		return merge(chunks);
+	}
+
+	/**
+	 * 解析WHOLE.DAT, 每行是"行号 义原 上位义的行号", 以空白分隔
+	 */
+	Whole parseWhole(File file) throws IOException {
+		ByteBuffer buffer = map(file);
+		byte[] bytes = new byte[buffer.capacity()];
+		buffer.get(bytes);
+		List<String> sememes = new ArrayList<String>();
+		int[] parents = new int[1024];
+		int[] tokens = new int[8];
+		int start = 0;
+		int line = 0;
+		while (start < bytes.length) {
+			int end = lineEnd(bytes, start, bytes.length);
+			int count = 0;
+			int i = start;
+			// 与line.split("\\s+")一致: 行首有空白时第0个字段是空字符串
+			if (i < end && isSpace(bytes[i])) {
+				tokens[count++] = i;
+				tokens[count++] = i;
+			}
+			while (i < end && count < tokens.length) {
+				while (i < end && isSpace(bytes[i])) {
+					i++;
+				}
+				if (i == end) {
+					break;
+				}
+				tokens[count++] = i;
+				while (i < end && !isSpace(bytes[i])) {
+					i++;
+				}
+				tokens[count++] = i;
+			}
+			line++;
+			if (count > 0) {
+				if (count < 8) {
+					throw new IOException(file + ":" + line
+							+ ": malformed line");
+				}
+				if (sememes.size() == parents.length) {
+					parents = Arrays.copyOf(parents, parents.length * 2);
+				}
+				parents[sememes.size()] = parseInt(bytes, tokens[6],
+						tokens[7], file, line);
+				sememes.add(new String(bytes, tokens[4],
+						tokens[5] - tokens[4], mCharset));
+			}
+			start = nextLine(bytes, end, bytes.length);
+		}
+		return new Whole(sememes.toArray(new String[sememes.size()]),
+				Arrays.copyOf(parents, sememes.size()));
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * 按行边界把文件切成若干块
+	 *
+	 * @return 各块的边界, 第i块是[bounds[i], bounds[i + 1])
+	 */
+	private int[] split(ByteBuffer buffer) {
+		int size = buffer.capacity();
+		int chunks = Math.max(1,
+				Math.min(4 * mThreads, size / MIN_CHUNK_SIZE));
+		int[] bounds = new int[chunks + 1];
+		int n = 1;
+		for (int c = 1; c < chunks; c++) {
+			int position = Math.max((int) ((long) size * c / chunks),
+					bounds[n - 1]);
+			while (position < size && !isLineBreak(buffer.get(position))) {
+				position++;
+			}
+			if (position < size) {
+				if (buffer.get(position) == '\r' && position + 1 < size
+						&& buffer.get(position + 1) == '\n') {
+					position++;
+				}
+				bounds[n++] = position + 1;
+			}
+		}
+		bounds[n++] = size;
+		return Arrays.copyOf(bounds, n);
+	}
+
+	/**
+	 * 一块的解析结果, 义原和词性的编号只在这一块内有效
+	 */
+	private static final class Chunk {
+		String[] words;
+		int[] pos;
+		int[] sememeStart;
+		int[] sememes;
+		String[] posNames;
+		String[] sememeNames;
+	}
+
+	private Chunk parseChunk(ByteBuffer buffer, int from, int to)
+			throws IOException {
+		byte[] bytes = new byte[to - from];
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(from);
+		duplicate.get(bytes);
+
+		ByteTable posTable = new ByteTable(bytes, mCharset);
+		ByteTable sememeTable = new ByteTable(bytes, mCharset);
+		List<String> words = new ArrayList<String>();
+		int[] pos = new int[1024];
+		int[] sememeStart = new int[1025];
+		int[] sememes = new int[4096];
+		int lines = 0;
+		int count = 0;
+		int[] fields = new int[6];
+		int start = 0;
+		while (start < bytes.length) {
+			int end = lineEnd(bytes, start, bytes.length);
+			if (end > start && splitFields(bytes, start, end, fields) < 3) {
+				throw new IOException("malformed glossary line: "
+						+ new String(bytes, start, end - start, mCharset));
+			}
+			if (end > start) {
+				if (lines == pos.length) {
+					pos = Arrays.copyOf(pos, lines * 2);
+					sememeStart = Arrays.copyOf(sememeStart, lines * 2 + 1);
+				}
+				words.add(new String(bytes, fields[0], fields[1] - fields[0],
+						mCharset));
+				pos[lines] = posTable.intern(fields[2], fields[3]);
+
+				// 与split(",")一致: 没有逗号时是整个字段, 否则去掉末尾的空字段
+				int first = count;
+				int token = fields[4];
+				for (int i = fields[4]; i <= fields[5]; i++) {
+					if (i == fields[5] || bytes[i] == ',') {
+						if (count == sememes.length) {
+							sememes = Arrays.copyOf(sememes, count * 2);
+						}
+						sememes[count++] = sememeTable.intern(token, i);
+						token = i + 1;
+					}
+				}
+				if (count - first > 1) {
+					while (count > first
+							&& sememeTable.length(sememes[count - 1]) == 0) {
+						count--;
+					}
+				}
+				sememeStart[++lines] = count;
+			}
+			start = nextLine(bytes, end, bytes.length);
+		}
+
+		Chunk chunk = new Chunk();
+		chunk.words = words.toArray(new String[lines]);
+		chunk.pos = pos;
+		chunk.sememeStart = sememeStart;
+		chunk.sememes = sememes;
+		chunk.posNames = posTable.names();
+		chunk.sememeNames = sememeTable.names();
+		return chunk;
+	}
+
+	/**
+	 * 按line.split("\\s*\\t")的规则切分一行的前三个字段: 以制表符结尾的最长空白是分隔符, 末尾的空字段被去掉
+	 *
+	 * @param fields
+	 *            输出每个字段的开始和结束位置
+	 * @return 字段数, 最多3个
+	 */
+	private static int splitFields(byte[] bytes, int start, int end,
+			int[] fields) {
+		int count = 0;
+		int field = start;
+		int i = start;
+		while (i < end && count < 2) {
+			if (!isSpace(bytes[i])) {
+				i++;
+				continue;
+			}
+			int run = i;
+			int tab = -1;
+			while (i < end && isSpace(bytes[i])) {
+				if (bytes[i] == '\t') {
+					tab = i;
+				}
+				i++;
+			}
+			if (tab >= 0) {
+				fields[2 * count] = field;
+				fields[2 * count + 1] = run;
+				count++;
+				field = tab + 1;
+				i = field;
+			}
+		}
+		// 第三个字段到下一个分隔符为止
+		int fieldEnd = end;
+		for (int j = field; j < end; j++) {
+			if (bytes[j] == '\t') {
+				fieldEnd = j;
+				while (fieldEnd > field && isSpace(bytes[fieldEnd - 1])) {
+					fieldEnd--;
+				}
+				break;
+			}
+		}
+		if (fieldEnd > field || fieldEnd < end) {
+			fields[2 * count] = field;
+			fields[2 * count + 1] = fieldEnd;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * 按块的顺序合并, 把每一块内的编号换成全局的编号
+	 */
+	private static Glossary merge(List<Chunk> chunks) {
+		int lines = 0;
+		int count = 0;
+		for (Chunk chunk : chunks) {
+			lines += chunk.words.length;
+			count += chunk.sememeStart[chunk.words.length];
+		}
+		String[] words = new String[lines];
+		String[] pos = new String[lines];
+		int[] sememeStart = new int[lines + 1];
+		int[] sememes = new int[count];
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> names = new ArrayList<String>();
+		Map<String, String> posNames = new HashMap<String, String>();
+
+		int line = 0;
+		int n = 0;
+		for (Chunk chunk : chunks) {
+			int[] local = new int[chunk.sememeNames.length];
+			for (int i = 0; i < local.length; i++) {
+				local[i] = -1;
+			}
+			String[] localPos = new String[chunk.posNames.length];
+			for (int i = 0; i < localPos.length; i++) {
+				String name = posNames.get(chunk.posNames[i]);
+				if (null == name) {
+					name = chunk.posNames[i];
+					posNames.put(name, name);
+				}
+				localPos[i] = name;
+			}
+			for (int l = 0; l < chunk.words.length; l++) {
+				words[line] = chunk.words[l];
+				pos[line] = localPos[chunk.pos[l]];
+				for (int p = chunk.sememeStart[l]; p < chunk.sememeStart[l + 1]; p++) {
+					int id = local[chunk.sememes[p]];
+					if (id < 0) {
+						// 第一次在合并的顺序中出现时分配全局编号
+						String name = chunk.sememeNames[chunk.sememes[p]];
+						Integer known = ids.get(name);
+						if (null == known) {
+							id = names.size();
+							ids.put(name, Integer.valueOf(id));
+							names.add(name);
+						} else {
+							id = known.intValue();
+						}
+						local[chunk.sememes[p]] = id;
+					}
+					sememes[n++] = id;
+				}
+				sememeStart[++line] = n;
+			}
+		}
+		return new Glossary(words, pos, sememeStart, sememes,
+				names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * 与BufferedReader.readLine一致, 一行以\n, \r或者\r\n结束, 原始的知网数据是\r\n
+	 *
+	 * @return 行尾的换行符的位置, 没有换行符时是end
+	 */
+	private static int lineEnd(byte[] bytes, int start, int end) {
+		int i = start;
+		while (i < end && !isLineBreak(bytes[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return 行尾end之后下一行的开始位置
+	 */
+	private static int nextLine(byte[] bytes, int end, int limit) {
+		if (end + 1 < limit && bytes[end] == '\r' && bytes[end + 1] == '\n') {
+			return end + 2;
+		}
+		return end + 1;
+	}
+
+	private static boolean isLineBreak(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	/**
+	 * 与正则表达式中的\s相同
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f'
+				|| b == '\r';
+	}
+
+	private static int parseInt(byte[] bytes, int start, int end, File file,
+			int line) throws IOException {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IOException(file + ":" + line + ": not a number");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * ByteTable 在一块的字节上对字符串编号, 开放寻址的散列表直接比较字节, 每个不同的字符串只解码一次
+	 */
+	private static final class ByteTable {
+		private final byte[] mBytes;
+		private final Charset mCharset;
+		private int[] mSlots = new int[256];
+		private int[] mStart = new int[64];
+		private int[] mEnd = new int[64];
+		private int[] mHash = new int[64];
+		private int mSize;
+
+		ByteTable(byte[] bytes, Charset charset) {
+			mBytes = bytes;
+			mCharset = charset;
+			Arrays.fill(mSlots, -1);
+		}
+
+		/**
+		 * @return bytes[start, end)的编号
+		 */
+		int intern(int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + mBytes[i];
+			}
+			int mask = mSlots.length - 1;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (true) {
+				int id = mSlots[slot];
+				if (id < 0) {
+					break;
+				}
+				if (mHash[id] == hash && equals(id, start, end)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (mSize == mStart.length) {
+				mStart = Arrays.copyOf(mStart, mSize * 2);
+				mEnd = Arrays.copyOf(mEnd, mSize * 2);
+				mHash = Arrays.copyOf(mHash, mSize * 2);
+			}
+			int id = mSize++;
+			mStart[id] = start;
+			mEnd[id] = end;
+			mHash[id] = hash;
+			mSlots[slot] = id;
+			if (2 * mSize > mSlots.length) {
+				rehash();
+			}
+			return id;
+		}
+
+		int length(int id) {
+			return mEnd[id] - mStart[id];
+		}
+
+		private boolean equals(int id, int start, int end) {
+			int length = mEnd[id] - mStart[id];
+			if (length != end - start) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (mBytes[mStart[id] + i] != mBytes[start + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void rehash() {
+			mSlots = new int[mSlots.length * 2];
+			Arrays.fill(mSlots, -1);
+			int mask = mSlots.length - 1;
+			for (int id = 0; id < mSize; id++) {
+				int slot = (mHash[id] ^ (mHash[id] >>> 16)) & mask;
+				while (mSlots[slot] >= 0) {
+					slot = (slot + 1) & mask;
+				}
+				mSlots[slot] = id;
+			}
+		}
+
+		/**
+		 * @return 按编号排列的解码后的字符串
+		 */
+		String[] names() {
+			String[] names = new String[mSize];
+			for (int id = 0; id < mSize; id++) {
+				names[id] = new String(mBytes, mStart[id], mEnd[id]
+						- mStart[id], mCharset);
+			}
+			return names;
+		}
+	}
+
+	/**
+	 * 比较原来逐行split的读法与GlossaryParser的耗时, 然后检查换成\r\n的文件得到相同的结果
+	 *
+	 * @param args
+	 *            [重复次数]
+	 */
+	public static void main(String[] args) throws IOException {
+		int repeat = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		File glossary = new File("glossary.dat");
+		File whole = new File("WHOLE.DAT");
+		for (int r = 0; r < repeat; r++) {
+			long start = System.nanoTime();
+			int lines = 0;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(glossary), CHARSET));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] subs = line.split("\\s*\\t");
+					lines += subs[2].split(",").length > 0 ? 1 : 0;
+				}
+			} finally {
+				reader.close();
+			}
+			long legacy = System.nanoTime() - start;
+
+			StringBuilder times = new StringBuilder();
+			for (int threads = 1; threads <= Runtime.getRuntime()
+					.availableProcessors(); threads *= 2) {
+				GlossaryParser parser = new GlossaryParser(CHARSET, threads);
+				start = System.nanoTime();
+				Glossary result = parser.parseGlossary(glossary);
+				parser.parseWhole(whole);
+				times.append(String.format(", %d threads %d ms (%d lines)",
+						threads, (System.nanoTime() - start) / 1000000,
+						result.size()));
+			}
+			System.out.println(String.format("split %d ms (%d lines)%s",
+					legacy / 1000000, lines, times));
+		}
+
+		GlossaryParser parser = new GlossaryParser();
+		Glossary lf = parser.parseGlossary(glossary);
+		Whole lfWhole = parser.parseWhole(whole);
+		File crlfGlossary = toCrlf(glossary);
+		File crlfWhole = toCrlf(whole);
+		try {
+			Glossary crlf = parser.parseGlossary(crlfGlossary);
+			Whole crlfWholeResult = parser.parseWhole(crlfWhole);
+			boolean same = Arrays.equals(lf.words, crlf.words)
+					&& Arrays.equals(lf.pos, crlf.pos)
+					&& Arrays.equals(lf.sememeStart, crlf.sememeStart)
+					&& Arrays.equals(lf.sememes, crlf.sememes)
+					&& Arrays.equals(lf.sememeNames, crlf.sememeNames)
+					&& Arrays.equals(lfWhole.sememes, crlfWholeResult.sememes)
+					&& Arrays.equals(lfWhole.parents, crlfWholeResult.parents);
+			System.out.println(String.format(
+					"CRLF %s (%d sememes, %d with CRLF)", same ? "same"
+							: "DIFFERENT", lf.sememeNames.length,
+					crlf.sememeNames.length));
+		} finally {
+			crlfGlossary.delete();
+			crlfWhole.delete();
+		}
+	}
+
+	/**
+	 * @return 把file的换行换成\r\n的临时文件
+	 */
+	private static File toCrlf(File file) throws IOException {
+		File crlf = File.createTempFile(file.getName(), ".crlf");
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					crlf));
+			try {
+				int b;
+				while ((b = in.read()) >= 0) {
+					if (b == '\n') {
+						out.write('\r');
+					}
+					out.write(b);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return crlf;
+	}
+}
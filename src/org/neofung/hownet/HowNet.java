@@ -3,18 +3,16 @@
  */
 package org.neofung.hownet;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -29,29 +27,86 @@ import java.util.Set;
 public class HowNet {
 
 	// mSememesMap保存的是每个义原的ID号
-	private HashMap<String, Integer> mSememesMap;
+	private final Map<String, Integer> mSememesMap;
 
 	/**
-	 * @return the mWhole
+	 * @return WHOLE.DAT中的全部义原, 每次调用返回新的副本, 修改它不影响词典
 	 */
-	public ArrayList<Pair<String, Integer>> getSememes() {
-		return mWhole;
+	public List<Pair<String, Integer>> getSememes() {
+		List<Pair<String, Integer>> sememes = new ArrayList<Pair<String, Integer>>(
+				mWhole.size());
+		for (Pair<String, Integer> line : mWhole) {
+			Pair<String, Integer> pair = new Pair<String, Integer>();
+			pair.setFirst(line.getFirst());
+			pair.setSecond(line.getSecond());
+			sememes.add(pair);
+		}
+		return sememes;
 	}
 
 	// mSememesFather保存的是每个义原的上位义是谁
-	private HashMap<String, String> mSememesFather;
-
-	// mGlossary保存的是glossary.dat的数据. MultiHashMap
-	// 运行一个key值保存多个value. mGlossary中的key记录的是词语, 而value是个List记录的是这个词语的全部义项.
-	// 在List中Pair的First保存的是词语这个义项的词性, second保存的是这个义项的义原集合
-	private MultiHashMap<String, List<Pair<String, List<String>>>> mGlossary;
+	private final Map<String, String> mSememesFather;
 
 	// mWhole是从WHOLD.DAT中获取的数据, 是一个单纯的数组.
 	// 数组的元素是Pair, Pair中的first是义原, 而second是这个义原的上位义在数组中的位置
-	private ArrayList<Pair<String, Integer>> mWhole;
+	private final List<Pair<String, Integer>> mWhole;
+
+	// 以义原ID号为下标的义原层次树
+	private final SememeTree mTree;
+
+	// 义原层次树上的最近公共祖先
+	private final SememeLca mLca;
+
+	// 全部词语和义项, 在堆外的快照中, 查询时才解码. 重新读取原始数据后也转换成快照, 原始数据不留在堆上.
+	// 每个义项是一个Pair, first是词性, second是这个义项的义原集合
+	private final HowNetSnapshot mSnapshot;
+
+	// 增量日志中新增或者增加了义项的词语, 优先于快照
+	private final Map<String, List<Pair<String, List<String>>>> mDelta;
+
+	// 快照之后的增量日志, 快照没有写成功时为null
+	private final DeltaLog mDeltaLog;
+
+	// 构造时日志中的记录数, 日志更长说明之后其它HowNet追加过记录, 这个对象已经过时
+	private final int mDeltaRecords;
+
+	// 快照文件的名字
+	static final String SNAPSHOT_FILE = "neo_snapshot";
+
+	// 增量日志文件的名字
+	static final String DELTA_FILE = "neo_delta";
+
+	// 增量日志达到这么多条记录时自动压缩
+	static final int COMPACT_THRESHOLD = 1000;
 
 	public HowNet() {
-		init(false);
+		this(false);
+	}
+
+	/**
+	 * 读取全部数据. 构造完成后所有的状态都不再改变, 返回的集合是只读的或者是副本, 内部的Pair不会交给调用者,
+	 * 因此一个HowNet对象可以被任意多个线程共享; 需要重新读取词典时构造一个新的对象, 再通过DictionaryHolder替换.
+	 * <p>
+	 * 读取快照后再重放增量日志中快照还没有包含的记录. 重新读取原始数据时重放日志的全部记录, 然后写入新的快照.
+	 * 
+	 * @param rebuild
+	 *            是否重新读取原始数据并重新构造快照
+	 */
+	HowNet(boolean rebuild) {
+		long start = System.nanoTime();
+		Loader loader = new Loader();
+		loader.load(rebuild);
+		mSememesMap = Collections.unmodifiableMap(loader.mSememesMap);
+		mSememesFather = Collections.unmodifiableMap(loader.mSememesFather);
+		mWhole = Collections.unmodifiableList(loader.mWhole);
+		mSnapshot = loader.mSnapshot;
+		mDelta = freeze(loader.mDelta);
+		mDeltaLog = loader.mLog;
+		mDeltaRecords = loader.mLogRecords;
+		mTree = buildTree();
+		mLca = new SememeLca(mTree);
+		(loader.mRebuilt ? Metrics.DICTIONARY_LOAD
+				: Metrics.DICTIONARY_LOAD_SNAPSHOT).recordSince(start);
 	}
 
 	/**
@@ -61,13 +116,19 @@ public class HowNet {
 	 * @return
 	 */
 	public boolean isLeaf(String sememe) {
-		if (!mSememesMap.containsKey(sememe)) {
-			return false;
-		}
-		if (mSememesFather.containsValue(sememe)) {
-			return false;
-		}
-		return true;
+		int id = getSememeId(sememe);
+		return id >= 0 && mTree.isLeaf(id);
+	}
+
+	/**
+	 * 义原是否叶子
+	 * 
+	 * @param id
+	 *            义原ID号
+	 * @return
+	 */
+	public boolean isLeaf(int id) {
+		return mTree.isLeaf(id);
 	}
 
 	/**
@@ -87,82 +148,100 @@ public class HowNet {
 	}
 
 	/**
-	 * 初始化
-	 * 
-	 * @param rebuild
-	 *            是否重新读取原始数据并重新构造过去保存的内部数据
+	 * 由mWhole构造以义原ID号为下标的义原层次树
 	 */
-	private void init(boolean rebuild) {
-		if (rebuild) {
-			readWHOLE();
-			readGlossary();
-			getSememesCount();
-			sortFather();
-			saveData();
-		} else {
-			try {
-				loadData();
-			} catch (Exception e) {
-				// 假如序列化读入异常, 则重新读取
-				readWHOLE();
-				readGlossary();
-				getSememesCount();
-				sortFather();
-			}
+	private SememeTree buildTree() {
+		int[] sememes = new int[mWhole.size()];
+		int[] parents = new int[mWhole.size()];
+		for (int i = 0; i < sememes.length; i++) {
+			Pair<String, Integer> pair = mWhole.get(i);
+			sememes[i] = getSememeId(pair.getFirst());
+			parents[i] = pair.getSecond().intValue();
 		}
+		return new SememeTree(mSememesMap.size(), sememes, parents);
 	}
 
 	/**
-	 * 整理全部义原的上位义
+	 * 把读入的词典复制成只读的映射, 每个词语的义项列表和每个义项的义原列表也是只读的
 	 */
-	private void sortFather() {
-		mSememesFather = new HashMap<String, String>();
-		for (int i = 0; i < mWhole.size(); i++) {
-			Pair<String, Integer> pair = mWhole.get(i);
-			int fatherIdx = pair.getSecond().intValue();
-			if (fatherIdx == i) {
-				mSememesFather.put(pair.getFirst(), null);
-			} else {
-				Pair<String, Integer> father = mWhole.get(fatherIdx);
-				mSememesFather.put(pair.getFirst(), father.getFirst());
+	private static Map<String, List<Pair<String, List<String>>>> freeze(
+			Map<String, List<Pair<String, List<String>>>> glossary) {
+		Map<String, List<Pair<String, List<String>>>> frozen = new HashMap<String, List<Pair<String, List<String>>>>(
+				glossary.size() * 2);
+		for (Entry<String, List<Pair<String, List<String>>>> entry : glossary
+				.entrySet()) {
+			for (Pair<String, List<String>> pair : entry.getValue()) {
+				pair.setSecond(Collections.unmodifiableList(pair.getSecond()));
 			}
+			frozen.put(entry.getKey(),
+					Collections.unmodifiableList(entry.getValue()));
 		}
+		return Collections.unmodifiableMap(frozen);
 	}
 
 	/**
-	 * 整理带符号的义原, 如果某个义原带有符号, 则它的上位义也带有符号
+	 * @return 义原层次树
 	 */
-	private void sortSememes() {
-		System.out.println(mSememesMap.size());
-		System.out.println(mGlossary.size());
-		System.out.println(mSememesFather.size());
-		System.out.println(mWhole.size());
+	public SememeTree getSememeTree() {
+		return mTree;
+	}
 
-		for (Entry<String, List<Pair<String, List<String>>>> entry : mGlossary
-				.entrySet()) {
-			List<Pair<String, List<String>>> list = entry.getValue();
-			for (Pair<String, List<String>> pair : list) {
-				List<String> semantic = pair.getSecond();
-				for (String sememe : semantic) {
-					if (!Character.isLetter(sememe.charAt(0))) {
-						if (!sememe.matches("[\\(\\{].*")) {
-							char sign = sememe.charAt(0);
-							sememe = sememe.substring(1);
-							while ((sememe = getFather(sememe)) != null) {
-								// System.out.println(sign + sememe);
-								putSememe(sign + sememe);
-							}
-						}
-					}
+	/**
+	 * @return 义原层次树上的最近公共祖先
+	 */
+	public SememeLca getSememeLca() {
+		return mLca;
+	}
+
+	/**
+	 * 获取词语每个义项的义原ID号
+	 * 
+	 * @param word
+	 *            词语
+	 * @return 每个义项一个数组, 不认识的义原被忽略; 如果没有这个词则返回null
+	 */
+	public int[][] getSenseSememes(String word) {
+		List<Pair<String, List<String>>> semantics = getSemantics(word);
+		if (null == semantics) {
+			return null;
+		}
+		return getSenseSememes(semantics);
+	}
+
+	/**
+	 * @param semantics
+	 *            getSemantics的结果
+	 * @return 每个义项的义原ID号, 不认识的义原被忽略
+	 */
+	int[][] getSenseSememes(List<Pair<String, List<String>>> semantics) {
+		int[][] senses = new int[semantics.size()][];
+		for (int s = 0; s < senses.length; s++) {
+			List<String> sememes = semantics.get(s).getSecond();
+			int[] ids = new int[sememes.size()];
+			int n = 0;
+			for (String sememe : sememes) {
+				int id = getSememeId(sememe);
+				if (id >= 0) {
+					ids[n++] = id;
 				}
 			}
+			senses[s] = n == ids.length ? ids : Arrays.copyOf(ids, n);
 		}
+		return senses;
+	}
 
-		saveData();
-		System.out.println(mSememesMap.size());
-		System.out.println(mGlossary.size());
-		System.out.println(mSememesFather.size());
-		System.out.println(mWhole.size());
+	/**
+	 * 计算两个词语全部义项之间义原组合的最近公共祖先和距离
+	 * 
+	 * @return 如果任一词语不存在则返回null
+	 */
+	public SememeLca.Table compareSememes(String first, String second) {
+		int[][] a = getSenseSememes(first);
+		int[][] b = getSenseSememes(second);
+		if (null == a || null == b) {
+			return null;
+		}
+		return mLca.table(a, b);
 	}
 
 	/**
@@ -177,122 +256,20 @@ public class HowNet {
 	}
 
 	/**
-	 * 读取WHOLE.DAT的数据, WHOLE.DAT中保存的是全部基本义原
-	 * 
-	 * @return 全部基本义原的数量
-	 */
-	private int readWHOLE() {
-		if (null != mWhole)
-			return mWhole.size();
-
-		mWhole = new ArrayList<Pair<String, Integer>>();
-
-		File file = new File("WHOLE.DAT");
-		BufferedReader reader = null;
-
-		try {
-			reader = new BufferedReader(new FileReader(file));
-			String line = null;
-			while ((line = reader.readLine()) != null) {
-				Pair<String, Integer> pair = new Pair<String, Integer>();
-
-				String subs[] = line.split("\\s+");
-				pair.setFirst(subs[2]);
-				pair.setSecond(Integer.valueOf(subs[3]));
-
-				mWhole.add(pair);
-			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return mWhole.size();
-	}
-
-	/**
-	 * 读取glossary.dat的数据, glossary.dat的每一条记录保存的是一个义项, 义项的词性和义项所对应的义原
+	 * 获取义原的上位义
 	 * 
-	 * @return glossary.dat中全部不同的词语
+	 * @param id
+	 *            义原ID号
+	 * @return 上位义的ID号, 如果没有则返回-1
 	 */
-	private int readGlossary() {
-		if (null != mGlossary)
-			return mGlossary.size();
-
-		mGlossary = new MultiHashMap<String, List<Pair<String, List<String>>>>();
-
-		File file = new File("glossary.dat");
-		BufferedReader reader = null;
-
-		try {
-			reader = new BufferedReader(new FileReader(file));
-			String line = null;
-			while ((line = reader.readLine()) != null) {
-				String subs[] = line.split("\\s*\\t");
-				Pair<String, List<String>> pair = new Pair<String, List<String>>();
-				pair.setFirst(subs[1]); // 词性
-
-				String[] semantic = subs[2].split(",");
-				ArrayList<String> sememeList = new ArrayList<String>();
-				for (String string : semantic) {
-					sememeList.add(string);
-				}
-				pair.setSecond(sememeList); // 义项
-
-				@SuppressWarnings("unchecked")
-				ArrayList<Pair<String, List<String>>> arrayList = (ArrayList<Pair<String, List<String>>>) mGlossary
-						.get(subs[0]);
-				if (null == arrayList) {
-					arrayList = new ArrayList<Pair<String, List<String>>>();
-				}
-				arrayList.add(pair);
-				mGlossary.put(subs[0], arrayList);
-			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return mGlossary.size();
+	public int getFather(int id) {
+		return mTree.getParent(id);
 	}
 
 	/**
-	 * 计算总共有多少种不同的义原, 并将它们全部加入mSememesMap中, 其中mSememesMap的value是一个数值,
-	 * 指示义原在向量中的位置.
-	 * 
 	 * @return 全部义原的数目, 包括基本义原和关系义原
 	 */
 	public int getSememesCount() {
-		if (null == mSememesMap) {
-			mSememesMap = new HashMap<String, Integer>();
-			readGlossary();
-			readWHOLE();
-		} else {
-			return mSememesMap.size();
-		}
-
-		// 处理glossary中的不同义原
-		if (null != mGlossary) {
-			for (Entry<String, List<Pair<String, List<String>>>> entry : mGlossary
-					.entrySet()) {
-				List<Pair<String, List<String>>> semantics = entry.getValue();
-				for (Pair<String, List<String>> pair : semantics) {
-					List<String> semantic = pair.getSecond();
-					for (String seme : semantic) {
-						putSememe(seme);
-					}
-				}
-			}
-		}
-		// 处理WHOLE.DAT中的不同的义原
-		for (Iterator<Pair<String, Integer>> iterator = mWhole.iterator(); iterator
-				.hasNext();) {
-			Pair<String, Integer> pair = iterator.next();
-			putSememe(pair.getFirst());
-
-		}
 		return mSememesMap.size();
 	}
 
@@ -301,14 +278,23 @@ public class HowNet {
 	 * 
 	 * @param word
 	 *            词语
-	 * @return 一个保护这个词语全部义项的列表, 如果没有则返回null
+	 * @return 一个保护这个词语全部义项的列表, 每次调用从快照中重新解码或者复制, 修改它不影响词典; 如果没有则返回null
 	 */
-	@SuppressWarnings("unchecked")
 	public List<Pair<String, List<String>>> getSemantics(String word) {
-		if (null == mGlossary || !mGlossary.containsKey(word)) {
-			return null;
+		List<Pair<String, List<String>>> delta = mDelta.get(word);
+		if (null != delta) {
+			List<Pair<String, List<String>>> copy = new ArrayList<Pair<String, List<String>>>(
+					delta.size());
+			for (Pair<String, List<String>> sense : delta) {
+				Pair<String, List<String>> pair = new Pair<String, List<String>>();
+				pair.setFirst(sense.getFirst());
+				pair.setSecond(new ArrayList<String>(sense.getSecond()));
+				copy.add(pair);
+			}
+			return copy;
 		}
-		return (List<Pair<String, List<String>>>) mGlossary.get(word);
+		int index = mSnapshot.findWord(word);
+		return index < 0 ? null : mSnapshot.getSemantics(index);
 	}
 
 	/**
@@ -319,7 +305,38 @@ public class HowNet {
 	 * @return 数据中包含, 则返回true, 否则返回false
 	 */
 	public boolean containsWord(String word) {
-		return mGlossary.containsKey(word);
+		return mDelta.containsKey(word) || mSnapshot.findWord(word) >= 0;
+	}
+
+	/**
+	 * @return 全部词语, 按UTF-8字节序排列
+	 */
+	public List<String> getWords() {
+		List<String> words = new ArrayList<String>(mSnapshot.getWordCount());
+		for (int i = 0; i < mSnapshot.getWordCount(); i++) {
+			words.add(mSnapshot.getWord(i));
+		}
+		boolean added = false;
+		for (String word : mDelta.keySet()) {
+			if (mSnapshot.findWord(word) < 0) {
+				words.add(word);
+				added = true;
+			}
+		}
+		if (added) {
+			sortWords(words);
+		}
+		return words;
+	}
+
+	private static void sortWords(List<String> words) {
+		Collections.sort(words, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return StringTable.compareBytes(a.getBytes(StringTable.UTF8),
+						b.getBytes(StringTable.UTF8));
+			}
+		});
 	}
 
 	/**
@@ -339,74 +356,567 @@ public class HowNet {
 	}
 
 	/**
-	 * 往mSememesMap中插入义原
+	 * 增加一个义原. 义原被追加到增量日志中, 然后返回包含新义原的HowNet, 当前对象不变. 新义原的ID号排在已有义原之后,
+	 * 已有义原的ID号不变.
 	 * 
 	 * @param sememe
 	 *            义原
-	 * @return 插入后的义原的ID号, 如果本身就已经存在则不插入切返回已有的ID号
+	 * @param father
+	 *            上位义, 必须已经在WHOLE.DAT中; 为null时新义原不在义原层次树中
+	 * @return 新的HowNet, 义原已经存在时返回当前对象
+	 * @throws IOException
+	 *             日志写入失败
 	 */
-	private int putSememe(String sememe) {
-		if (!mSememesMap.containsKey(sememe)) {
-			int count = mSememesMap.size();
-			mSememesMap.put(sememe, Integer.valueOf(count));
-			return count;
-		} else {
-			return mSememesMap.get(sememe).intValue();
+	public HowNet addSememe(String sememe, String father) throws IOException {
+		if (null != father && !mSememesFather.containsKey(father)) {
+			throw new IllegalArgumentException("unknown father " + father);
+		}
+		if (mSememesMap.containsKey(sememe)) {
+			return this;
+		}
+		checkDeltaLog();
+		mDeltaLog.appendSememe(sememe, father);
+		return update();
+	}
+
+	/**
+	 * 给词语增加一个义项, 词语不存在时即是增加新词. 义项被追加到增量日志中, 然后返回包含新义项的HowNet, 当前对象不变.
+	 * 
+	 * @param word
+	 *            词语
+	 * @param pos
+	 *            词性
+	 * @param sememes
+	 *            义项的义原, 必须都已经存在, 新的义原先用addSememe增加
+	 * @return 新的HowNet
+	 * @throws IOException
+	 *             日志写入失败
+	 */
+	public HowNet addSense(String word, String pos, List<String> sememes)
+			throws IOException {
+		for (String sememe : sememes) {
+			if (!mSememesMap.containsKey(sememe)) {
+				throw new IllegalArgumentException("unknown sememe " + sememe);
+			}
 		}
+		checkDeltaLog();
+		mDeltaLog.appendSense(word, pos, sememes);
+		return update();
 	}
 
 	/**
-	 * 保存各个类变量数据
+	 * 把增量日志写入新的快照并清空日志. 义原ID号不变. 当前对象过时的时候先重新读入, 再从最新的数据压缩.
+	 * 
+	 * @return 从新快照读入的HowNet
+	 * @throws IOException
+	 *             快照或者日志写入失败
 	 */
-	private void saveData() {
-		try {
-			ObjectOutputStream outputStream = new ObjectOutputStream(
-					new FileOutputStream("neo_glossary"));
-			outputStream.writeObject(mGlossary);
+	public HowNet compact() throws IOException {
+		checkDeltaLog();
+		synchronized (mDeltaLog) {
+			if (mDeltaLog.getRecordCount() != mDeltaRecords) {
+				return new HowNet(false).compact();
+			}
+			return compactCurrent();
+		}
+	}
+
+	private HowNet compactCurrent() throws IOException {
+		String[] names = new String[mSememesMap.size()];
+		for (Entry<String, Integer> entry : mSememesMap.entrySet()) {
+			names[entry.getValue().intValue()] = entry.getKey();
+		}
+		Map<String, List<Pair<String, List<String>>>> glossary = new HashMap<String, List<Pair<String, List<String>>>>();
+		for (String word : getWords()) {
+			glossary.put(word, getSemantics(word));
+		}
+		long start = System.nanoTime();
+		long checksum = HowNetSnapshot.write(new File(SNAPSHOT_FILE), names,
+				mWhole, glossary);
+		Metrics.IO_SNAPSHOT_WRITE.recordSince(start);
+		mDeltaLog.compacted(checksum);
+		return new HowNet(false);
+	}
 
-			outputStream = new ObjectOutputStream(new FileOutputStream(
-					"neo_whole"));
-			outputStream.writeObject(mWhole);
+	/**
+	 * 词典的指纹, 由快照的crc32, 构造时读入的增量日志记录数和义原数组成. 重新构造快照或者增加义原, 义项后指纹改变,
+	 * 保存了义原ID号的文件(例如SememeIndex)据此判断是否已经过时.
+	 *
+	 * @return 指纹
+	 */
+	public long getFingerprint() {
+		long fingerprint = mSnapshot.getChecksum();
+		fingerprint = 31 * fingerprint + mDeltaRecords;
+		return 31 * fingerprint + mSememesMap.size();
+	}
 
-			outputStream = new ObjectOutputStream(new FileOutputStream(
-					"neo_sememes"));
-			outputStream.writeObject(mSememesMap);
+	/**
+	 * @return 增量日志中还没有压缩的记录数, 没有日志时为0
+	 */
+	public int getPendingDeltaCount() {
+		return null == mDeltaLog ? 0 : mDeltaLog.getPendingCount();
+	}
 
-			outputStream = new ObjectOutputStream(new FileOutputStream(
-					"neo_father"));
-			outputStream.writeObject(mSememesFather);
+	private void checkDeltaLog() {
+		if (null == mDeltaLog) {
+			throw new IllegalStateException("no delta log, snapshot "
+					+ SNAPSHOT_FILE + " was not written");
+		}
+	}
 
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+	private HowNet update() throws IOException {
+		if (mDeltaLog.getPendingCount() >= COMPACT_THRESHOLD) {
+			return compact();
 		}
+		return new HowNet(false);
 	}
 
 	/**
-	 * 读取各个类变量数据
-	 * 
-	 * @throws FileNotFoundException
-	 * @throws IOException
-	 * @throws ClassNotFoundException
+	 * Loader 读取原始数据或者快照, 只在构造HowNet时使用. 读入的数据随后被复制到HowNet的final字段中.
 	 */
-	@SuppressWarnings("unchecked")
-	private void loadData() throws FileNotFoundException, IOException,
-			ClassNotFoundException {
+	private static final class Loader {
+
+		HashMap<String, Integer> mSememesMap;
+		HashMap<String, String> mSememesFather;
+		MultiHashMap<String, List<Pair<String, List<String>>>> mGlossary;
+		// glossary.dat中出现的全部义原, 按第一次出现的顺序排列, 只在重新读取原始数据时使用
+		String[] mGlossarySememes;
+		ArrayList<Pair<String, Integer>> mWhole;
+		HowNetSnapshot mSnapshot;
+		// 从快照读入时增量日志中的词语, 重新读取原始数据时日志直接合并到mGlossary中
+		HashMap<String, List<Pair<String, List<String>>>> mDelta = new HashMap<String, List<Pair<String, List<String>>>>();
+		DeltaLog mLog;
+		// 读入的日志记录数
+		int mLogRecords;
+		// 是否重新读取了原始数据
+		boolean mRebuilt;
+
+		void load(boolean rebuild) {
+			if (rebuild) {
+				rebuild();
+			} else {
+				try {
+					loadData();
+				} catch (Exception e) {
+					// 假如快照读入异常, 则重新读取, 并保存新的快照
+					mSnapshot = null;
+					mSememesMap = null;
+					mWhole = null;
+					rebuild();
+					return;
+				}
+				DeltaLog log;
+				try {
+					log = DeltaLog.open(new File(DELTA_FILE),
+							mSnapshot.getChecksum());
+				} catch (IOException e) {
+					// 日志损坏时不重放, 也不能追加
+					e.printStackTrace();
+					return;
+				}
+				synchronized (log) {
+					if (log.getBase() != mSnapshot.getChecksum()) {
+						// 快照不是由这个日志压缩得到的, 不知道它包含了哪些记录, 重新读取原始数据并重放全部记录
+						mSnapshot = null;
+						mSememesMap = null;
+						mWhole = null;
+						rebuild();
+						return;
+					}
+					mLog = log;
+					mLogRecords = log.getRecordCount();
+					replay(log.getPendingRecords());
+				}
+			}
+		}
+
+		/**
+		 * 重新读取原始数据, 重放增量日志的全部记录, 然后写入新的快照, 日志改为基于新的快照. 之后和从快照读入一样
+		 * 使用映射的快照, 快照写入失败时使用内存中的快照; mGlossary被丢弃. 整个过程在日志上同步, 期间追加的记录不会
+		 * 被当作已经压缩.
+		 */
+		private void rebuild() {
+			mRebuilt = true;
+			DeltaLog log;
+			try {
+				log = DeltaLog.open(new File(DELTA_FILE), 0);
+			} catch (IOException e) {
+				// 日志损坏时不覆盖它, 此时不能增量更新
+				e.printStackTrace();
+				rebuild(null);
+				return;
+			}
+			synchronized (log) {
+				rebuild(log);
+			}
+		}
+
+		private void rebuild(DeltaLog log) {
+			readWHOLE();
+			readGlossary();
+			countSememes();
+			sortFather();
+			if (null != log) {
+				replay(log.getRecords());
+			}
+			ByteBuffer encoded;
+			try {
+				encoded = HowNetSnapshot.encode(sememeNames(), mWhole,
+						glossary());
+				mSnapshot = HowNetSnapshot.wrap(encoded);
+			} catch (IOException e) {
+				// 义项中的义原都已经由countSememes和replay加入mSememesMap
+				throw new IllegalStateException(e);
+			}
+			mGlossary = null;
+			mGlossarySememes = null;
+
+			long checksum = saveData(encoded);
+			if (0 == checksum) {
+				return;
+			}
+			try {
+				// 映射文件, 多个进程可以共享同一份页缓存
+				mSnapshot = HowNetSnapshot.open(new File(SNAPSHOT_FILE));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (null != log) {
+				try {
+					log.compacted(checksum);
+					mLog = log;
+					mLogRecords = log.getRecordCount();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * 按顺序重放增量日志. 新义原的ID号依次分配在已有义原之后; 有上位义的新义原加在mWhole的最后.
+		 */
+		private void replay(List<DeltaLog.Record> records) {
+			Map<String, Integer> lines = null;
+			for (DeltaLog.Record record : records) {
+				if (record.isSememe()) {
+					String sememe = record.getSememe();
+					if (mSememesMap.containsKey(sememe)) {
+						continue;
+					}
+					putSememe(sememe);
+					String father = record.getFather();
+					if (null == father) {
+						continue;
+					}
+					if (null == lines) {
+						lines = new HashMap<String, Integer>(mWhole.size() * 2);
+						for (int i = 0; i < mWhole.size(); i++) {
+							lines.put(mWhole.get(i).getFirst(), Integer.valueOf(i));
+						}
+					}
+					Integer parent = lines.get(father);
+					if (null == parent) {
+						continue;
+					}
+					Pair<String, Integer> pair = new Pair<String, Integer>();
+					pair.setFirst(sememe);
+					pair.setSecond(parent);
+					lines.put(sememe, Integer.valueOf(mWhole.size()));
+					mWhole.add(pair);
+					mSememesFather.put(sememe, father);
+				} else {
+					for (String sememe : record.getSememes()) {
+						putSememe(sememe);
+					}
+					Pair<String, List<String>> pair = new Pair<String, List<String>>();
+					pair.setFirst(record.getPos());
+					pair.setSecond(new ArrayList<String>(record.getSememes()));
+					senses(record.getWord()).add(pair);
+				}
+			}
+		}
+
+		/**
+		 * @return 词语可以追加义项的义项列表
+		 */
+		@SuppressWarnings("unchecked")
+		private List<Pair<String, List<String>>> senses(String word) {
+			if (null != mGlossary) {
+				List<Pair<String, List<String>>> list = (List<Pair<String, List<String>>>) mGlossary
+						.get(word);
+				if (null == list) {
+					list = new ArrayList<Pair<String, List<String>>>();
+					mGlossary.put(word, list);
+				}
+				return list;
+			}
+			List<Pair<String, List<String>>> list = mDelta.get(word);
+			if (null == list) {
+				int index = mSnapshot.findWord(word);
+				list = index < 0 ? new ArrayList<Pair<String, List<String>>>()
+						: new ArrayList<Pair<String, List<String>>>(
+								mSnapshot.getSemantics(index));
+				mDelta.put(word, list);
+			}
+			return list;
+		}
+
+		@SuppressWarnings("unchecked")
+		Map<String, List<Pair<String, List<String>>>> glossary() {
+			return (Map<String, List<Pair<String, List<String>>>>) (Map<?, ?>) mGlossary;
+		}
+
+		/**
+		 * 整理全部义原的上位义
+		 */
+		private void sortFather() {
+			mSememesFather = new HashMap<String, String>();
+			for (int i = 0; i < mWhole.size(); i++) {
+				Pair<String, Integer> pair = mWhole.get(i);
+				int fatherIdx = pair.getSecond().intValue();
+				if (fatherIdx == i) {
+					mSememesFather.put(pair.getFirst(), null);
+				} else {
+					Pair<String, Integer> father = mWhole.get(fatherIdx);
+					mSememesFather.put(pair.getFirst(), father.getFirst());
+				}
+			}
+		}
+
+		/**
+		 * 整理带符号的义原, 如果某个义原带有符号, 则它的上位义也带有符号
+		 */
+		private void sortSememes() {
+			for (Entry<String, List<Pair<String, List<String>>>> entry : mGlossary
+					.entrySet()) {
+				List<Pair<String, List<String>>> list = entry.getValue();
+				for (Pair<String, List<String>> pair : list) {
+					List<String> semantic = pair.getSecond();
+					for (String sememe : semantic) {
+						if (!Character.isLetter(sememe.charAt(0))) {
+							if (!sememe.matches("[\\(\\{].*")) {
+								char sign = sememe.charAt(0);
+								sememe = sememe.substring(1);
+								while ((sememe = mSememesFather.get(sememe)) != null) {
+									// System.out.println(sign + sememe);
+									putSememe(sign + sememe);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * 读取WHOLE.DAT的数据, WHOLE.DAT中保存的是全部基本义原
+		 * 
+		 * @return 全部基本义原的数量
+		 */
+		private int readWHOLE() {
+			if (null != mWhole)
+				return mWhole.size();
+
+			mWhole = new ArrayList<Pair<String, Integer>>();
+
+			try {
+				long start = System.nanoTime();
+				GlossaryParser.Whole whole = new GlossaryParser()
+						.parseWhole(new File("WHOLE.DAT"));
+				Metrics.IO_GLOSSARY.recordSince(start);
+				for (int i = 0; i < whole.sememes.length; i++) {
+					Pair<String, Integer> pair = new Pair<String, Integer>();
+					pair.setFirst(whole.sememes[i]);
+					pair.setSecond(Integer.valueOf(whole.parents[i]));
+					mWhole.add(pair);
+				}
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			return mWhole.size();
+		}
+
+		/**
+		 * 读取glossary.dat的数据, glossary.dat的每一条记录保存的是一个义项, 义项的词性和义项所对应的义原
+		 * 
+		 * @return glossary.dat中全部不同的词语
+		 */
+		private int readGlossary() {
+			if (null != mGlossary)
+				return mGlossary.size();
+
+			mGlossary = new MultiHashMap<String, List<Pair<String, List<String>>>>();
+
+			try {
+				long start = System.nanoTime();
+				GlossaryParser.Glossary glossary = new GlossaryParser()
+						.parseGlossary(new File("glossary.dat"));
+				Metrics.IO_GLOSSARY.recordSince(start);
+				mGlossarySememes = glossary.sememeNames;
+				for (int i = 0; i < glossary.size(); i++) {
+					Pair<String, List<String>> pair = new Pair<String, List<String>>();
+					pair.setFirst(glossary.pos[i]); // 词性
+
+					ArrayList<String> sememeList = new ArrayList<String>(
+							glossary.sememeStart[i + 1] - glossary.sememeStart[i]);
+					for (int p = glossary.sememeStart[i]; p < glossary.sememeStart[i + 1]; p++) {
+						sememeList.add(glossary.sememeNames[glossary.sememes[p]]);
+					}
+					pair.setSecond(sememeList); // 义项
+
+					@SuppressWarnings("unchecked")
+					ArrayList<Pair<String, List<String>>> arrayList = (ArrayList<Pair<String, List<String>>>) mGlossary
+							.get(glossary.words[i]);
+					if (null == arrayList) {
+						arrayList = new ArrayList<Pair<String, List<String>>>();
+						mGlossary.put(glossary.words[i], arrayList);
+					}
+					arrayList.add(pair);
+				}
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			return mGlossary.size();
+		}
+
+		/**
+		 * 计算总共有多少种不同的义原, 并将它们全部加入mSememesMap中, 其中mSememesMap的value是一个数值,
+		 * 指示义原在向量中的位置.
+		 * 
+		 * @return 全部义原的数目, 包括基本义原和关系义原
+		 */
+		private int countSememes() {
+			if (null == mSememesMap) {
+				mSememesMap = new HashMap<String, Integer>();
+				readGlossary();
+				readWHOLE();
+			} else {
+				return mSememesMap.size();
+			}
 
-		ObjectInputStream inputStream = new ObjectInputStream(
-				new FileInputStream("neo_glossary"));
-		mGlossary = (MultiHashMap<String, List<Pair<String, List<String>>>>) inputStream
-				.readObject();
+			// 处理glossary中的不同义原, 按在glossary.dat中第一次出现的顺序编号
+			if (null != mGlossarySememes) {
+				for (String seme : mGlossarySememes) {
+					putSememe(seme);
+				}
+			}
+			// 处理WHOLE.DAT中的不同的义原
+			for (Iterator<Pair<String, Integer>> iterator = mWhole.iterator(); iterator
+					.hasNext();) {
+				Pair<String, Integer> pair = iterator.next();
+				putSememe(pair.getFirst());
+
+			}
+			return mSememesMap.size();
+		}
+
+		/**
+		 * 往mSememesMap中插入义原
+		 * 
+		 * @param sememe
+		 *            义原
+		 * @return 插入后的义原的ID号, 如果本身就已经存在则不插入切返回已有的ID号
+		 */
+		private int putSememe(String sememe) {
+			if (!mSememesMap.containsKey(sememe)) {
+				int count = mSememesMap.size();
+				mSememesMap.put(sememe, Integer.valueOf(count));
+				return count;
+			} else {
+				return mSememesMap.get(sememe).intValue();
+			}
+		}
+
+		/**
+		 * @return 按ID号排列的义原名字
+		 */
+		private String[] sememeNames() {
+			String[] names = new String[mSememesMap.size()];
+			for (Entry<String, Integer> entry : mSememesMap.entrySet()) {
+				names[entry.getValue().intValue()] = entry.getKey();
+			}
+			return names;
+		}
+
+		/**
+		 * 将编码好的快照保存为文件
+		 * 
+		 * @return 快照的crc32, 写入失败则为0
+		 */
+		private long saveData(ByteBuffer encoded) {
+			long start = System.nanoTime();
+			try {
+				long checksum = HowNetSnapshot.write(new File(SNAPSHOT_FILE),
+						encoded);
+				Metrics.IO_SNAPSHOT_WRITE.recordSince(start);
+				return checksum;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * 从二进制快照中读取各个类变量数据. 义原表和上位义只有几千项, 直接还原; 词语的义项在查询时才从快照中读取.
+		 * 
+		 * @throws IOException
+		 *             快照不存在或者已经损坏
+		 */
+		private void loadData() throws IOException {
+			long start = System.nanoTime();
+			HowNetSnapshot snapshot = HowNetSnapshot.open(new File(SNAPSHOT_FILE));
+			Metrics.IO_SNAPSHOT_OPEN.recordSince(start);
+
+			mSememesMap = new HashMap<String, Integer>(
+					snapshot.getSememeCount() * 2);
+			for (int i = 0; i < snapshot.getSememeCount(); i++) {
+				mSememesMap.put(snapshot.getSememeName(i), Integer.valueOf(i));
+			}
+
+			mWhole = new ArrayList<Pair<String, Integer>>(snapshot.getWholeCount());
+			for (int i = 0; i < snapshot.getWholeCount(); i++) {
+				Pair<String, Integer> pair = new Pair<String, Integer>();
+				pair.setFirst(snapshot.getSememeName(snapshot.getWholeSememe(i)));
+				pair.setSecond(Integer.valueOf(snapshot.getWholeParent(i)));
+				mWhole.add(pair);
+			}
+			sortFather();
+
+			mGlossary = null;
+			mSnapshot = snapshot;
+		}
+	}
 
-		inputStream = new ObjectInputStream(new FileInputStream("neo_whole"));
-		mWhole = (ArrayList<Pair<String, Integer>>) inputStream.readObject();
+	/**
+	 * @return 词语到义项列表的映射, 每次调用都从快照中全部解码到堆上, 只用于比较
+	 */
+	Map<String, List<Pair<String, List<String>>>> getGlossaryMap() {
+		Map<String, List<Pair<String, List<String>>>> glossary = new HashMap<String, List<Pair<String, List<String>>>>(
+				mSnapshot.getWordCount() * 2);
+		for (String word : getWords()) {
+			glossary.put(word, getSemantics(word));
+		}
+		return glossary;
+	}
 
-		inputStream = new ObjectInputStream(new FileInputStream("neo_sememes"));
-		mSememesMap = (HashMap<String, Integer>) inputStream.readObject();
+	/**
+	 * @return 义原到ID号的映射
+	 */
+	Map<String, Integer> getSememesMap() {
+		return mSememesMap;
+	}
 
-		inputStream = new ObjectInputStream(new FileInputStream("neo_father"));
-		mSememesFather = (HashMap<String, String>) inputStream.readObject();
+	/**
+	 * @return 义原到上位义的映射
+	 */
+	Map<String, String> getSememesFatherMap() {
+		return mSememesFather;
 	}
 
 	/**
@@ -414,11 +924,11 @@ public class HowNet {
 	 */
 	public static void main(String[] args) {
 		HowNet data = new HowNet();
-		ArrayList<Pair<String, Integer>> list = data.getSememes();
-		for (int i = 955; i < list.size(); i++) {
-			Pair<String, Integer> pair = list.get(i);
-			if (data.isLeaf(pair.getFirst())) {
-				System.out.println(pair);
+		List<Pair<String, Integer>> list = data.getSememes();
+		SememeTree tree = data.getSememeTree();
+		for (int i = 955; i < tree.getWholeCount(); i++) {
+			if (tree.isLeaf(tree.getWholeSememe(i))) {
+				System.out.println(list.get(i));
 			}
 		}
 	}
@@ -461,6 +971,22 @@ class MultiHashMap<K extends Object, V extends List> extends AbstractMap
 		return iMap.put(k, v);
 	}
 
+	// AbstractMap的get和containsKey会顺序扫描entrySet, 这里直接交给iMap
+	@Override
+	public Object get(Object k) {
+		return iMap.get(k);
+	}
+
+	@Override
+	public boolean containsKey(Object k) {
+		return iMap.containsKey(k);
+	}
+
+	@Override
+	public int size() {
+		return iMap.size();
+	}
+
 	@Override
 	public void putAll(Map m) {
 
@@ -483,61 +1009,3 @@ class MultiHashMap<K extends Object, V extends List> extends AbstractMap
 	}
 
 }
-
-/**
- * Pair 类用于表示一个first和second的对组合, 是一个可序列化的类
- * 
- * @author neo
- * @version 2012-12-15
- * 
- * @param <K>
- *            First
- * @param <V>
- *            Second
- */
-class Pair<K, V> implements Serializable {
-	private static final long serialVersionUID = 1041712221752728541L;
-	private K first;
-	private V second;
-
-	/**
-	 * 获取first
-	 * 
-	 * @return
-	 */
-	public K getFirst() {
-		return first;
-	}
-
-	/**
-	 * 设置second
-	 * 
-	 * @param val
-	 */
-	public void setFirst(K val) {
-		first = val;
-	}
-
-	/**
-	 * 获取second
-	 * 
-	 * @return
-	 */
-	public V getSecond() {
-		return second;
-	}
-
-	/**
-	 * 设置second
-	 * 
-	 * @param val
-	 */
-	public void setSecond(V val) {
-		second = val;
-	}
-
-	@Override
-	public String toString() {
-		return first + ", " + second;
-	}
-}
@@ -0,0 +1,547 @@
+/**
+ * 知网数据的二进制快照
+ */
+package org.neofung.hownet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+/**
+ * HowNetSnapshot 是HowNet数据的只读二进制快照, 通过FileChannel.map映射到内存, 打开时不需要反序列化.
+ * 全部词语和义项都在堆外, 以序号访问, 查询时才解码成字符串; 堆上只有几千个义原名字和词性.
+ *
+ * 文件格式(大端序):
+ *
+ * <pre>
+ * header:  magic, version, payloadLength, crc32(payload), 各段的偏移量
+ * sememes: 义原名字的字符串表, 下标就是义原的ID号
+ * whole:   WHOLE.DAT的每一行对应的义原ID号和上位义所在的行号
+ * pos:     词性的字符串表
+ * words:   按UTF-8字节序排列的词语字符串表, 以及每个词语的义项范围(CSR)
+ * senses:  每个义项的词性ID号, 义原范围(CSR), 以及全部义原ID号
+ * </pre>
+ *
+ * 字符串表的格式是: 数量n, n+1个字节偏移量, 然后是全部UTF-8字节.
+ *
+ * @author neo
+ * @version 2013-04-10
+ */
+public final class HowNetSnapshot {
+
+	public static final int MAGIC = 0x4E454F48; // "NEOH"
+	public static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int SECTION_SEMEMES = 0;
+	private static final int SECTION_WHOLE = 1;
+	private static final int SECTION_POS = 2;
+	private static final int SECTION_WORDS = 3;
+	private static final int SECTION_SENSES = 4;
+	private static final int SECTION_COUNT = 5;
+
+	// magic, version, payloadLength, crc32(long), 各段偏移量
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4 * SECTION_COUNT;
+
+	private final ByteBuffer mBuffer;
+
+	// 义原名字在打开时一次性解码, 数量只有几千个
+	private final String[] mSememeNames;
+	private final String[] mPos;
+
+	private final IntBuffer mWholeSememes;
+	private final IntBuffer mWholeParents;
+
+	private final StringTable mWords;
+	private final IntBuffer mWordSenseStart;
+
+	private final IntBuffer mSensePos;
+	private final IntBuffer mSenseSememeStart;
+	private final IntBuffer mSenseSememes;
+
+	private HowNetSnapshot(ByteBuffer buffer) throws IOException {
+		mBuffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("not a HowNet snapshot");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("unsupported snapshot version " + version);
+		}
+		int payloadLength = buffer.getInt(8);
+		if (HEADER_SIZE + payloadLength != buffer.capacity()) {
+			throw new IOException("truncated snapshot");
+		}
+		long crc = buffer.getLong(12);
+		if (crc != checksum(buffer, HEADER_SIZE, payloadLength)) {
+			throw new IOException("snapshot checksum mismatch");
+		}
+
+		mSememeNames = new StringTable(section(SECTION_SEMEMES)).decodeAll();
+
+		ByteBuffer whole = section(SECTION_WHOLE);
+		int wholeCount = whole.getInt(0);
+		mWholeSememes = ints(whole, 4, wholeCount);
+		mWholeParents = ints(whole, 4 + 4 * wholeCount, wholeCount);
+
+		mPos = new StringTable(section(SECTION_POS)).decodeAll();
+
+		ByteBuffer words = section(SECTION_WORDS);
+		mWords = new StringTable(words);
+		mWordSenseStart = ints(words, mWords.byteSize(), mWords.size() + 1);
+
+		ByteBuffer senses = section(SECTION_SENSES);
+		int senseCount = senses.getInt(0);
+		int offset = 4;
+		mSensePos = ints(senses, offset, senseCount);
+		offset += 4 * senseCount;
+		mSenseSememeStart = ints(senses, offset, senseCount + 1);
+		int sememeCount = mSenseSememeStart.get(senseCount);
+		offset += 4 * (senseCount + 1);
+		mSenseSememes = ints(senses, offset, sememeCount);
+	}
+
+	/**
+	 * 以只读方式映射快照文件
+	 *
+	 * @param file
+	 *            快照文件
+	 * @return 快照
+	 * @throws IOException
+	 *             文件不存在, 格式或者校验和错误
+	 */
+	public static HowNetSnapshot open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// 映射在channel关闭之后仍然有效
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			return new HowNetSnapshot(buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * 使用内存中的快照, 例如encode的结果, 不对应任何文件
+	 *
+	 * @param buffer
+	 *            完整的快照, 从位置0开始
+	 * @return 快照
+	 * @throws IOException
+	 *             格式或者校验和错误
+	 */
+	public static HowNetSnapshot wrap(ByteBuffer buffer) throws IOException {
+		return new HowNetSnapshot(buffer.duplicate());
+	}
+
+	/**
+	 * 将HowNet的数据写成快照文件
+	 *
+	 * @param file
+	 *            快照文件
+	 * @param sememeNames
+	 *            按ID号排列的义原名字
+	 * @param whole
+	 *            WHOLE.DAT的数据
+	 * @param glossary
+	 *            词语到义项列表的映射
+	 * @return 快照的crc32, 与getChecksum()相同
+	 * @throws IOException
+	 */
+	public static long write(File file, String[] sememeNames,
+			List<Pair<String, Integer>> whole,
+			Map<String, List<Pair<String, List<String>>>> glossary)
+			throws IOException {
+		return write(file, encode(sememeNames, whole, glossary));
+	}
+
+	/**
+	 * 将HowNet的数据编码成快照, 放在堆外的direct ByteBuffer中
+	 *
+	 * @param sememeNames
+	 *            按ID号排列的义原名字
+	 * @param whole
+	 *            WHOLE.DAT的数据
+	 * @param glossary
+	 *            词语到义项列表的映射
+	 * @return 完整的快照, 可以交给wrap或者write
+	 * @throws IOException
+	 *             义项中有不在sememeNames中的义原
+	 */
+	public static ByteBuffer encode(String[] sememeNames,
+			List<Pair<String, Integer>> whole,
+			Map<String, List<Pair<String, List<String>>>> glossary)
+			throws IOException {
+		Map<String, Integer> sememeIds = new HashMap<String, Integer>();
+		for (int i = 0; i < sememeNames.length; i++) {
+			sememeIds.put(sememeNames[i], Integer.valueOf(i));
+		}
+
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(1 << 20);
+		DataOutputStream out = new DataOutputStream(payload);
+		int[] offsets = new int[SECTION_COUNT];
+
+		// sememes
+		offsets[SECTION_SEMEMES] = out.size();
+		StringTable.write(out, sememeNames);
+
+		// whole
+		offsets[SECTION_WHOLE] = out.size();
+		out.writeInt(whole.size());
+		for (Pair<String, Integer> pair : whole) {
+			out.writeInt(sememeIds.get(pair.getFirst()).intValue());
+		}
+		for (Pair<String, Integer> pair : whole) {
+			out.writeInt(pair.getSecond().intValue());
+		}
+
+		// 词语按UTF-8字节序排列, 以便打开后直接二分查找
+		byte[][] words = new byte[glossary.size()][];
+		List<List<Pair<String, List<String>>>> senses = new ArrayList<List<Pair<String, List<String>>>>(
+				glossary.size());
+		Integer[] order = new Integer[glossary.size()];
+		int n = 0;
+		for (Entry<String, List<Pair<String, List<String>>>> entry : glossary
+				.entrySet()) {
+			words[n] = entry.getKey().getBytes(UTF8);
+			senses.add(entry.getValue());
+			order[n] = Integer.valueOf(n);
+			n++;
+		}
+		final byte[][] keys = words;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return StringTable.compareBytes(keys[a.intValue()],
+						keys[b.intValue()]);
+			}
+		});
+
+		List<String> posNames = new ArrayList<String>();
+		Map<String, Integer> posIds = new HashMap<String, Integer>();
+		List<Integer> sensePos = new ArrayList<Integer>();
+		List<int[]> senseSememes = new ArrayList<int[]>();
+		int[] wordSenseStart = new int[n + 1];
+		byte[][] sortedWords = new byte[n][];
+		for (int i = 0; i < n; i++) {
+			int word = order[i].intValue();
+			sortedWords[i] = words[word];
+			wordSenseStart[i] = sensePos.size();
+			for (Pair<String, List<String>> sense : senses.get(word)) {
+				Integer pos = posIds.get(sense.getFirst());
+				if (null == pos) {
+					pos = Integer.valueOf(posNames.size());
+					posIds.put(sense.getFirst(), pos);
+					posNames.add(sense.getFirst());
+				}
+				sensePos.add(pos);
+				List<String> semantic = sense.getSecond();
+				int[] ids = new int[semantic.size()];
+				for (int k = 0; k < ids.length; k++) {
+					Integer id = sememeIds.get(semantic.get(k));
+					if (null == id) {
+						throw new IOException("unknown sememe "
+								+ semantic.get(k));
+					}
+					ids[k] = id.intValue();
+				}
+				senseSememes.add(ids);
+			}
+		}
+		wordSenseStart[n] = sensePos.size();
+
+		// pos
+		offsets[SECTION_POS] = out.size();
+		StringTable.write(out, posNames.toArray(new String[posNames.size()]));
+
+		// words
+		offsets[SECTION_WORDS] = out.size();
+		StringTable.write(out, sortedWords);
+		for (int start : wordSenseStart) {
+			out.writeInt(start);
+		}
+
+		// senses
+		offsets[SECTION_SENSES] = out.size();
+		out.writeInt(sensePos.size());
+		for (Integer pos : sensePos) {
+			out.writeInt(pos.intValue());
+		}
+		int start = 0;
+		for (int[] ids : senseSememes) {
+			out.writeInt(start);
+			start += ids.length;
+		}
+		out.writeInt(start);
+		for (int[] ids : senseSememes) {
+			for (int id : ids) {
+				out.writeInt(id);
+			}
+		}
+		out.flush();
+
+		byte[] bytes = payload.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(bytes.length);
+		header.putLong(crc.getValue());
+		for (int offset : offsets) {
+			header.putInt(offset);
+		}
+		header.flip();
+
+		ByteBuffer snapshot = ByteBuffer.allocateDirect(HEADER_SIZE
+				+ bytes.length);
+		snapshot.put(header);
+		snapshot.put(bytes);
+		snapshot.flip();
+		return snapshot;
+	}
+
+	/**
+	 * 将encode得到的快照写成文件
+	 *
+	 * @param file
+	 *            快照文件
+	 * @param snapshot
+	 *            完整的快照, 从位置0开始
+	 * @return 快照的crc32, 与getChecksum()相同
+	 * @throws IOException
+	 */
+	public static long write(File file, ByteBuffer snapshot) throws IOException {
+		// 先写临时文件再改名, 避免其它进程读到写了一半的快照
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer body = snapshot.duplicate();
+			body.position(0);
+			while (body.hasRemaining()) {
+				channel.write(body);
+			}
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("can not rename " + tmp + " to " + file);
+			}
+		}
+		return snapshot.getLong(12);
+	}
+
+	/**
+	 * @return 数据部分的crc32, 用于识别快照, 例如DeltaLog记录它所基于的快照
+	 */
+	public long getChecksum() {
+		return mBuffer.getLong(12);
+	}
+
+	/**
+	 * @return 义原的数量
+	 */
+	public int getSememeCount() {
+		return mSememeNames.length;
+	}
+
+	/**
+	 * @param id
+	 *            义原ID号
+	 * @return 义原的名字
+	 */
+	public String getSememeName(int id) {
+		return mSememeNames[id];
+	}
+
+	/**
+	 * @return WHOLE.DAT的行数
+	 */
+	public int getWholeCount() {
+		return mWholeSememes.limit();
+	}
+
+	/**
+	 * @param line
+	 *            WHOLE.DAT的行号
+	 * @return 这一行的义原ID号
+	 */
+	public int getWholeSememe(int line) {
+		return mWholeSememes.get(line);
+	}
+
+	/**
+	 * @param line
+	 *            WHOLE.DAT的行号
+	 * @return 这一行的义原的上位义所在的行号, 根节点指向自身
+	 */
+	public int getWholeParent(int line) {
+		return mWholeParents.get(line);
+	}
+
+	/**
+	 * @return 词语的数量
+	 */
+	public int getWordCount() {
+		return mWords.size();
+	}
+
+	/**
+	 * @param index
+	 *            词语的序号
+	 * @return 词语
+	 */
+	public String getWord(int index) {
+		return mWords.decode(index);
+	}
+
+	/**
+	 * 在词语表中二分查找
+	 *
+	 * @param word
+	 *            词语
+	 * @return 词语的序号, 没有则返回-1
+	 */
+	public int findWord(String word) {
+		return mWords.find(word.getBytes(UTF8));
+	}
+
+	/**
+	 * @param index
+	 *            词语的序号
+	 * @return 第一个义项的序号
+	 */
+	public int getSenseStart(int index) {
+		return mWordSenseStart.get(index);
+	}
+
+	/**
+	 * @param index
+	 *            词语的序号
+	 * @return 最后一个义项的序号加1
+	 */
+	public int getSenseEnd(int index) {
+		return mWordSenseStart.get(index + 1);
+	}
+
+	/**
+	 * @return 义项的总数
+	 */
+	public int getSenseCount() {
+		return mSensePos.limit();
+	}
+
+	/**
+	 * @param sense
+	 *            义项的序号
+	 * @return 义项的词性
+	 */
+	public String getPos(int sense) {
+		return mPos[mSensePos.get(sense)];
+	}
+
+	/**
+	 * @param sense
+	 *            义项的序号
+	 * @return 义项的第一个义原在义原数组中的位置
+	 */
+	public int getSememeStart(int sense) {
+		return mSenseSememeStart.get(sense);
+	}
+
+	/**
+	 * @param sense
+	 *            义项的序号
+	 * @return 义项的最后一个义原在义原数组中的位置加1
+	 */
+	public int getSememeEnd(int sense) {
+		return mSenseSememeStart.get(sense + 1);
+	}
+
+	/**
+	 * @param position
+	 *            义原数组中的位置
+	 * @return 义原ID号
+	 */
+	public int getSememeAt(int position) {
+		return mSenseSememes.get(position);
+	}
+
+	/**
+	 * 把词语的全部义项还原成HowNet.getSemantics的格式
+	 *
+	 * @param index
+	 *            词语的序号
+	 * @return 义项列表
+	 */
+	public List<Pair<String, List<String>>> getSemantics(int index) {
+		int start = getSenseStart(index);
+		int end = getSenseEnd(index);
+		List<Pair<String, List<String>>> list = new ArrayList<Pair<String, List<String>>>(
+				end - start);
+		for (int sense = start; sense < end; sense++) {
+			Pair<String, List<String>> pair = new Pair<String, List<String>>();
+			pair.setFirst(getPos(sense));
+			int from = getSememeStart(sense);
+			int to = getSememeEnd(sense);
+			List<String> semantic = new ArrayList<String>(to - from);
+			for (int k = from; k < to; k++) {
+				semantic.add(mSememeNames[getSememeAt(k)]);
+			}
+			pair.setSecond(semantic);
+			list.add(pair);
+		}
+		return list;
+	}
+
+	private ByteBuffer section(int section) {
+		int start = HEADER_SIZE + mBuffer.getInt(20 + 4 * section);
+		ByteBuffer duplicate = mBuffer.duplicate();
+		duplicate.position(start);
+		return duplicate.slice();
+	}
+
+	private static IntBuffer ints(ByteBuffer buffer, int offset, int count) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + 4 * count);
+		return duplicate.slice().asIntBuffer();
+	}
+
+	private static long checksum(ByteBuffer buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		byte[] chunk = new byte[64 * 1024];
+		while (duplicate.hasRemaining()) {
+			int count = Math.min(chunk.length, duplicate.remaining());
+			duplicate.get(chunk, 0, count);
+			crc.update(chunk, 0, count);
+		}
+		return crc.getValue();
+	}
+}
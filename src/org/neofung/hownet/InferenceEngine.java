@@ -0,0 +1,232 @@
+/**
+ * 使用模型文件计算相似度
+ */
+package org.neofung.hownet;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * InferenceEngine 直接在映射的ModelFile上做前向计算, 权值不复制到堆上. 模型保存的是训练时的义原ID号, 构造时按
+ * 义原名字映射到当前词典的ID号, 因此词典重新构造后义原ID号改变了也能使用; 训练时没有的义原被忽略.
+ * <p>
+ * int8编码的层先用int8权值累加, 最后每个输出乘一次缩放系数再加上偏置. 批量打分时稠密的各层按输入逐行累加到整批的
+ * 输出上, 每一行权值只从映射中读取一次.
+ * <p>
+ * 只读, 可以被多个线程共享, 每个线程使用自己的中间结果数组.
+ *
+ * @author neo
+ * @version 2013-05-10
+ */
+public final class InferenceEngine implements PairScorer {
+
+	private final ModelFile mModel;
+	// 当前词典的义原ID号在模型中的ID号, 没有则为-1
+	private final int[] mModelIds;
+	private final int mUnmapped;
+	private final FloatBuffer[] mWeights;
+	private final FloatBuffer[] mScales;
+	private final ByteBuffer[] mQuantized;
+	private final FloatBuffer[] mBiases;
+	private final int[] mSizes;
+	private final ThreadLocal<float[][]> mActivations;
+
+	/**
+	 * @param model
+	 *            映射的模型文件
+	 * @param hownet
+	 *            当前的词典, 计算相似度时的向量由它构造
+	 */
+	public InferenceEngine(ModelFile model, HowNet hownet) {
+		mModel = model;
+		mModelIds = new int[hownet.getSememesCount()];
+		Arrays.fill(mModelIds, -1);
+		int mapped = 0;
+		for (int i = 0; i < model.getSememeCount(); i++) {
+			int id = hownet.getSememeId(model.getSememeName(i));
+			if (id >= 0) {
+				mModelIds[id] = i;
+				mapped++;
+			}
+		}
+		mUnmapped = mModelIds.length - mapped;
+
+		int layers = model.getLayerCount();
+		mSizes = new int[layers + 1];
+		for (int l = 0; l <= layers; l++) {
+			mSizes[l] = model.getSize(l);
+		}
+		mWeights = new FloatBuffer[layers];
+		mScales = new FloatBuffer[layers];
+		mQuantized = new ByteBuffer[layers];
+		mBiases = new FloatBuffer[layers];
+		for (int l = 0; l < layers; l++) {
+			mWeights[l] = model.getWeights(l);
+			mScales[l] = model.getScales(l);
+			mQuantized[l] = model.getQuantizedWeights(l);
+			mBiases[l] = model.getBiases(l);
+		}
+		mActivations = new ThreadLocal<float[][]>() {
+			@Override
+			protected float[][] initialValue() {
+				float[][] activations = new float[mSizes.length - 1][];
+				for (int l = 0; l < activations.length; l++) {
+					activations[l] = new float[mSizes[l + 1]];
+				}
+				return activations;
+			}
+		};
+	}
+
+	/**
+	 * @return 使用的模型
+	 */
+	public ModelFile getModel() {
+		return mModel;
+	}
+
+	/**
+	 * @return 当前词典中训练时没有的义原数
+	 */
+	public int getUnmappedSememeCount() {
+		return mUnmapped;
+	}
+
+	/**
+	 * 计算一对词语的相似度, 第一层只访问非零分量对应的权值行
+	 *
+	 * @param a
+	 *            第一个词语的归一化向量
+	 * @param b
+	 *            第二个词语的归一化向量
+	 * @return 网络的输出
+	 */
+	@Override
+	public float score(SparseVector a, SparseVector b) {
+		float[][] activations = mActivations.get();
+		float[] output = activations[0];
+		begin(0, output, 0);
+		accumulate(a, 0, output, 0);
+		accumulate(b, mSizes[0] / 2, output, 0);
+		end(0, output, 0);
+
+		for (int l = 1; l < mSizes.length - 1; l++) {
+			float[] input = activations[l - 1];
+			output = activations[l];
+			begin(l, output, 0);
+			for (int i = 0; i < mSizes[l]; i++) {
+				row(l, i, input[i], output, 0);
+			}
+			end(l, output, 0);
+		}
+		return output[0];
+	}
+
+	/**
+	 * 每次计算MultiLayerPerceptron.BATCH_ROWS对, 结果与逐对调用score相同
+	 */
+	@Override
+	public void score(SparseVector[] a, SparseVector[] b, int count,
+			float[] scores) {
+		int rows = Math.min(MultiLayerPerceptron.BATCH_ROWS, count);
+		float[][] activations = new float[mSizes.length - 1][];
+		for (int l = 0; l < activations.length; l++) {
+			activations[l] = new float[rows * mSizes[l + 1]];
+		}
+		for (int start = 0; start < count; start += rows) {
+			int n = Math.min(rows, count - start);
+			int out = mSizes[1];
+			float[] output = activations[0];
+			for (int r = 0; r < n; r++) {
+				begin(0, output, r * out);
+				accumulate(a[start + r], 0, output, r * out);
+				accumulate(b[start + r], mSizes[0] / 2, output, r * out);
+				end(0, output, r * out);
+			}
+
+			for (int l = 1; l < mSizes.length - 1; l++) {
+				int in = mSizes[l];
+				out = mSizes[l + 1];
+				float[] input = activations[l - 1];
+				output = activations[l];
+				for (int r = 0; r < n; r++) {
+					begin(l, output, r * out);
+				}
+				for (int i = 0; i < in; i++) {
+					for (int r = 0; r < n; r++) {
+						row(l, i, input[r * in + i], output, r * out);
+					}
+				}
+				for (int r = 0; r < n; r++) {
+					end(l, output, r * out);
+				}
+			}
+			for (int r = 0; r < n; r++) {
+				scores[start + r] = output[r * out];
+			}
+		}
+	}
+
+	/**
+	 * float32编码的层从偏置开始累加, int8编码的层从0开始
+	 */
+	private void begin(int layer, float[] output, int offset) {
+		int out = mSizes[layer + 1];
+		if (null == mQuantized[layer]) {
+			FloatBuffer biases = mBiases[layer];
+			for (int k = 0; k < out; k++) {
+				output[offset + k] = biases.get(k);
+			}
+		} else {
+			Arrays.fill(output, offset, offset + out, 0.0f);
+		}
+	}
+
+	/**
+	 * int8编码的层乘缩放系数再加上偏置, 然后激活
+	 */
+	private void end(int layer, float[] output, int offset) {
+		int out = mSizes[layer + 1];
+		ByteBuffer quantized = mQuantized[layer];
+		if (null != quantized) {
+			FloatBuffer scales = mScales[layer];
+			FloatBuffer biases = mBiases[layer];
+			for (int k = 0; k < out; k++) {
+				output[offset + k] = biases.get(k) + scales.get(k)
+						* output[offset + k];
+			}
+		}
+		mModel.getActivation(layer).apply(output, offset, out);
+	}
+
+	/**
+	 * 累加第i个输入与第i行权值的乘积, 输出从offset开始
+	 */
+	private void row(int layer, int i, float x, float[] output, int offset) {
+		int out = mSizes[layer + 1];
+		int row = i * out;
+		ByteBuffer quantized = mQuantized[layer];
+		if (null == quantized) {
+			FloatBuffer weights = mWeights[layer];
+			for (int k = 0; k < out; k++) {
+				output[offset + k] += x * weights.get(row + k);
+			}
+		} else {
+			for (int k = 0; k < out; k++) {
+				output[offset + k] += x * quantized.get(row + k);
+			}
+		}
+	}
+
+	private void accumulate(SparseVector vector, int offset, float[] output,
+			int outputOffset) {
+		for (int p = 0; p < vector.size(); p++) {
+			int id = vector.indexAt(p);
+			int m = id < mModelIds.length ? mModelIds[id] : -1;
+			if (m >= 0) {
+				row(0, offset + m, vector.valueAt(p), output, outputOffset);
+			}
+		}
+	}
+}
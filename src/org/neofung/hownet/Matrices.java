@@ -0,0 +1,94 @@
+/**
+ * 行优先一维float数组上的矩阵运算
+ */
+package org.neofung.hownet;
+
+/**
+ * Matrices 提供分块的矩阵乘法, 矩阵都以行优先的方式保存在一维float数组中. 分块使B的一块在内层循环中留在缓存里,
+ * A中为0的元素直接跳过.
+ *
+ * @author neo
+ * @version 2013-04-18
+ */
+final class Matrices {
+
+	// 行和内维的分块大小
+	private static final int ROW_BLOCK = 64;
+	private static final int INNER_BLOCK = 256;
+
+	private Matrices() {
+	}
+
+	/**
+	 * C[rows x cols] += A[rows x inner] * B[inner x cols]
+	 */
+	static void multiply(float[] a, int aOffset, int rows, int inner,
+			float[] b, int cols, float[] c, int cOffset) {
+		for (int r0 = 0; r0 < rows; r0 += ROW_BLOCK) {
+			int r1 = Math.min(rows, r0 + ROW_BLOCK);
+			for (int k0 = 0; k0 < inner; k0 += INNER_BLOCK) {
+				int k1 = Math.min(inner, k0 + INNER_BLOCK);
+				for (int r = r0; r < r1; r++) {
+					int aRow = aOffset + r * inner;
+					int cRow = cOffset + r * cols;
+					for (int k = k0; k < k1; k++) {
+						float aik = a[aRow + k];
+						if (0.0f == aik) {
+							continue;
+						}
+						int bRow = k * cols;
+						for (int j = 0; j < cols; j++) {
+							c[cRow + j] += aik * b[bRow + j];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C[rows x inner] = D[rows x cols] * B[inner x cols]的转置
+	 */
+	static void multiplyTransposedB(float[] d, int rows, int cols, float[] b,
+			int inner, float[] c) {
+		for (int k0 = 0; k0 < inner; k0 += INNER_BLOCK) {
+			int k1 = Math.min(inner, k0 + INNER_BLOCK);
+			for (int r = 0; r < rows; r++) {
+				int dRow = r * cols;
+				int cRow = r * inner;
+				for (int k = k0; k < k1; k++) {
+					int bRow = k * cols;
+					float sum = 0.0f;
+					for (int j = 0; j < cols; j++) {
+						sum += d[dRow + j] * b[bRow + j];
+					}
+					c[cRow + k] = sum;
+				}
+			}
+		}
+	}
+
+	/**
+	 * G[inner x cols] += A[rows x inner]的转置 * D[rows x cols]
+	 */
+	static void multiplyTransposedA(float[] a, int aOffset, int rows,
+			int inner, float[] d, int cols, float[] g) {
+		for (int k0 = 0; k0 < inner; k0 += INNER_BLOCK) {
+			int k1 = Math.min(inner, k0 + INNER_BLOCK);
+			for (int r = 0; r < rows; r++) {
+				int aRow = aOffset + r * inner;
+				int dRow = r * cols;
+				for (int k = k0; k < k1; k++) {
+					float ark = a[aRow + k];
+					if (0.0f == ark) {
+						continue;
+					}
+					int gRow = k * cols;
+					for (int j = 0; j < cols; j++) {
+						g[gRow + j] += ark * d[dRow + j];
+					}
+				}
+			}
+		}
+	}
+}
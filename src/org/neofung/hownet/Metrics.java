@@ -0,0 +1,384 @@
+/**
+ * 运行时的计数和耗时统计
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics 保存全局的计数器和耗时直方图, 可以按Prometheus的文本格式导出到文件或SimilarityServer的/metrics.
+ * 记录时只有几次原子加法, 不分配对象, 可以放在热路径上.
+ * <p>
+ * 启动时指定-Dhownet.metrics=文件, 则在进程退出时写出一次.
+ *
+ * @author neo
+ * @version 2013-05-08
+ */
+public final class Metrics {
+
+	private static final List<Object> sRegistry = new ArrayList<Object>();
+	private static final long sStartNanos = System.nanoTime();
+
+	public static final Histogram DICTIONARY_LOAD = histogram(
+			"hownet_dictionary_load_seconds", "time to construct a HowNet",
+			"source=\"rebuild\"");
+	public static final Histogram DICTIONARY_LOAD_SNAPSHOT = histogram(
+			"hownet_dictionary_load_seconds", "time to construct a HowNet",
+			"source=\"snapshot\"");
+	public static final Histogram VECTOR_BUILD = histogram(
+			"hownet_vector_build_seconds",
+			"time to build a sememe vector from the senses of a word", null);
+	public static final Histogram VECTOR_NORMALIZE = histogram(
+			"hownet_vector_normalize_seconds",
+			"time to normalize a sememe vector", null);
+	public static final Histogram INFERENCE = histogram(
+			"hownet_inference_seconds", "time to score one chunk of pairs",
+			null);
+	public static final Histogram IO_GLOSSARY = histogram(
+			"hownet_io_seconds", "time spent reading or writing data files",
+			"op=\"glossary_parse\"");
+	public static final Histogram IO_SNAPSHOT_WRITE = histogram(
+			"hownet_io_seconds", "time spent reading or writing data files",
+			"op=\"snapshot_write\"");
+	public static final Histogram IO_SNAPSHOT_OPEN = histogram(
+			"hownet_io_seconds", "time spent reading or writing data files",
+			"op=\"snapshot_open\"");
+	public static final Histogram IO_DATASET_WRITE = histogram(
+			"hownet_io_seconds", "time spent reading or writing data files",
+			"op=\"dataset_write\"");
+
+	public static final Counter OOV_WORDS = counter(
+			"hownet_oov_lookups_total",
+			"vector lookups of words that are not in the dictionary");
+	public static final Counter CACHE_HITS = counter(
+			"hownet_vector_cache_hits_total", "vector cache hits");
+	public static final Counter CACHE_MISSES = counter(
+			"hownet_vector_cache_misses_total", "vector cache misses");
+	public static final Counter PAIRS_SCORED = counter(
+			"hownet_pairs_scored_total", "word pairs scored");
+	public static final Counter SENTENCES_SCORED = counter(
+			"hownet_sentences_scored_total",
+			"sentences or sentence pairs processed by SentenceSimilarity");
+	public static final Counter SENSE_PAIRS_SCORED = counter(
+			"hownet_sense_pairs_scored_total",
+			"sense pairs whose cosine was computed by SenseScorer");
+	public static final Counter SENSE_PAIRS_PRUNED = counter(
+			"hownet_sense_pairs_pruned_total",
+			"sense pairs skipped by the SenseScorer upper bound");
+
+	static {
+		String path = System.getProperty("hownet.metrics");
+		if (null != path && path.length() > 0) {
+			final File file = new File(path);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						writeTo(file);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+	}
+
+	private Metrics() {
+	}
+
+	private static Histogram histogram(String name, String help, String labels) {
+		Histogram histogram = new Histogram(name, help, labels);
+		sRegistry.add(histogram);
+		return histogram;
+	}
+
+	private static Counter counter(String name, String help) {
+		Counter counter = new Counter(name, help);
+		sRegistry.add(counter);
+		return counter;
+	}
+
+	/**
+	 * 按Prometheus的文本格式写出全部数据, 同名的直方图以标签区分
+	 */
+	public static void write(Writer writer) throws IOException {
+		String previous = null;
+		for (Object metric : sRegistry) {
+			if (metric instanceof Histogram) {
+				Histogram histogram = (Histogram) metric;
+				if (!histogram.mName.equals(previous)) {
+					header(writer, histogram.mName, histogram.mHelp, "histogram");
+					previous = histogram.mName;
+				}
+				histogram.write(writer);
+			} else {
+				Counter counter = (Counter) metric;
+				header(writer, counter.mName, counter.mHelp, "counter");
+				previous = counter.mName;
+				writer.write(counter.mName + " " + counter.get() + "\n");
+			}
+		}
+		header(writer, "hownet_uptime_seconds",
+				"seconds since the metrics were initialized", "gauge");
+		writer.write("hownet_uptime_seconds "
+				+ seconds(System.nanoTime() - sStartNanos) + "\n");
+	}
+
+	private static void header(Writer writer, String name, String help,
+			String type) throws IOException {
+		writer.write("# HELP " + name + " " + help + "\n");
+		writer.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	/**
+	 * @return Prometheus文本格式的全部数据
+	 */
+	public static String toText() {
+		StringWriter writer = new StringWriter();
+		try {
+			write(writer);
+		} catch (IOException e) {
+			// StringWriter不会抛出IOException
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * 写到临时文件后再改名, 读取者不会看到写了一半的文件
+	 */
+	public static void writeTo(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(tmp), "UTF-8"));
+		try {
+			write(writer);
+		} finally {
+			writer.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("cannot rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	/**
+	 * 单调递增的计数器
+	 */
+	public static final class Counter {
+		private final String mName;
+		private final String mHelp;
+		private final AtomicLong mValue = new AtomicLong();
+
+		Counter(String name, String help) {
+			mName = name;
+			mHelp = help;
+		}
+
+		public void increment() {
+			mValue.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			mValue.addAndGet(delta);
+		}
+
+		public long get() {
+			return mValue.get();
+		}
+	}
+
+	/**
+	 * 纳秒耗时的直方图, 与HdrHistogram的做法相同: 按2的幂分段, 每段再等分为16个桶, 相对误差不超过1/16. 记录的
+	 * 范围是0到2^43纳秒(约2.4小时), 超出的记入最后一个桶.
+	 */
+	public static final class Histogram {
+		private static final int SUB_BITS = 4;
+		private static final int SUB_COUNT = 1 << SUB_BITS;
+		private static final int MAX_EXPONENT = 42;
+		private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2)
+				* SUB_COUNT;
+
+		// 导出时使用的桶边界, 秒
+		private static final double[] BOUNDS = { 1e-6, 2.5e-6, 5e-6, 1e-5,
+				2.5e-5, 5e-5, 1e-4, 2.5e-4, 5e-4, 1e-3, 2.5e-3, 5e-3, 1e-2,
+				2.5e-2, 5e-2, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+		private final String mName;
+		private final String mHelp;
+		private final String mLabels;
+		private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong mCount = new AtomicLong();
+		private final AtomicLong mSum = new AtomicLong();
+		private final AtomicLong mMax = new AtomicLong();
+
+		Histogram(String name, String help, String labels) {
+			mName = name;
+			mHelp = help;
+			mLabels = labels;
+		}
+
+		/**
+		 * @param nanos
+		 *            耗时, 纳秒
+		 */
+		public void record(long nanos) {
+			if (nanos < 0) {
+				nanos = 0;
+			}
+			mCounts.incrementAndGet(index(nanos));
+			mCount.incrementAndGet();
+			mSum.addAndGet(nanos);
+			long max;
+			while (nanos > (max = mMax.get())) {
+				if (mMax.compareAndSet(max, nanos)) {
+					break;
+				}
+			}
+		}
+
+		/**
+		 * 记录从start到现在的耗时
+		 *
+		 * @param start
+		 *            开始时的System.nanoTime()
+		 */
+		public void recordSince(long start) {
+			record(System.nanoTime() - start);
+		}
+
+		public long getCount() {
+			return mCount.get();
+		}
+
+		/**
+		 * @return 耗时的总和, 纳秒
+		 */
+		public long getSum() {
+			return mSum.get();
+		}
+
+		/**
+		 * @return 最大的耗时, 纳秒
+		 */
+		public long getMax() {
+			return mMax.get();
+		}
+
+		/**
+		 * @param percentile
+		 *            0到100
+		 * @return 不小于percentile%记录值的最小桶上界, 纳秒; 没有记录时返回0
+		 */
+		public long getValueAtPercentile(double percentile) {
+			long total = 0;
+			long[] counts = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = mCounts.get(i);
+				total += counts[i];
+			}
+			if (0 == total) {
+				return 0;
+			}
+			long rank = Math.max(1,
+					(long) Math.ceil(total * Math.min(100, percentile) / 100));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highest(i), getMax());
+				}
+			}
+			return getMax();
+		}
+
+		static int index(long value) {
+			if (value < SUB_COUNT) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			if (exponent > MAX_EXPONENT) {
+				return BUCKETS - 1;
+			}
+			return ((exponent - SUB_BITS + 1) << SUB_BITS)
+					+ (int) ((value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+		}
+
+		/**
+		 * @return 第index个桶中的最大值
+		 */
+		static long highest(int index) {
+			if (index < SUB_COUNT) {
+				return index;
+			}
+			int exponent = (index >> SUB_BITS) + SUB_BITS - 1;
+			long sub = SUB_COUNT + (index & (SUB_COUNT - 1));
+			return ((sub + 1) << (exponent - SUB_BITS)) - 1;
+		}
+
+		void write(Writer writer) throws IOException {
+			String labels = null == mLabels ? "" : mLabels + ",";
+			long cumulative = 0;
+			int bucket = 0;
+			for (double bound : BOUNDS) {
+				long limit = (long) (bound * 1e9);
+				while (bucket < BUCKETS && highest(bucket) <= limit) {
+					cumulative += mCounts.get(bucket++);
+				}
+				writer.write(mName + "_bucket{" + labels + "le=\"" + bound
+						+ "\"} " + cumulative + "\n");
+			}
+			while (bucket < BUCKETS) {
+				cumulative += mCounts.get(bucket++);
+			}
+			String suffix = null == mLabels ? "" : "{" + mLabels + "}";
+			writer.write(mName + "_bucket{" + labels + "le=\"+Inf\"} "
+					+ cumulative + "\n");
+			writer.write(mName + "_sum" + suffix + " " + seconds(getSum())
+					+ "\n");
+			// _count与+Inf桶一致, 不使用另外计数的mCount
+			writer.write(mName + "_count" + suffix + " " + cumulative + "\n");
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%s%s count=%d p50=%dns p99=%dns p999=%dns max=%dns",
+					mName, null == mLabels ? "" : "{" + mLabels + "}",
+					getCount(), getValueAtPercentile(50),
+					getValueAtPercentile(99), getValueAtPercentile(99.9),
+					getMax());
+		}
+	}
+
+	/**
+	 * 输出当前的全部数据
+	 */
+	public static void main(String[] args) throws Exception {
+		NeuralNetwork network = new NeuralNetwork();
+		for (String word : network.getWords().subList(0, 5000)) {
+			network.getNormalizedVector(word);
+			network.getNormalizedVector(word);
+		}
+		network.getNormalizedVector("not a word");
+		System.out.println(VECTOR_BUILD);
+		System.out.println(VECTOR_NORMALIZE);
+		System.out.print(toText());
+	}
+}
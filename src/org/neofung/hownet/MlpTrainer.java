@@ -0,0 +1,554 @@
+/**
+ * 在JVM中训练前馈神经网络
+ */
+package org.neofung.hownet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * MlpTrainer 用小批量的SGD或者Adam训练MultiLayerPerceptron, 损失函数是相似度的均方误差. 每个小批量被切分成
+ * 若干片, 由ForkJoinPool并行计算梯度, 每个线程使用自己的梯度缓冲区, 最后求和再更新参数.
+ *
+ * 输入是稀疏的, 第一层的前向计算只累加非零输入对应的权值行, 反向计算也只把梯度分散到这些行上, 并只更新这些行.
+ * 因此Adam在第一层上是惰性的: 没有出现在这一批中的权值行, 其一阶和二阶矩也不衰减.
+ *
+ * @author neo
+ * @version 2013-04-18
+ */
+public class MlpTrainer {
+
+	/**
+	 * 参数的更新方法
+	 */
+	public enum Optimizer {
+		SGD, ADAM
+	}
+
+	private static final float BETA1 = 0.9f;
+	private static final float BETA2 = 0.999f;
+	private static final float EPSILON = 1e-8f;
+
+	// 每一片至少包含的样本数, 太少时并行的开销超过收益
+	private static final int MIN_SLICE_ROWS = 4;
+
+	private int[] mHiddenLayers = { 10 };
+	private Activation mActivation = Activation.TANH;
+	private Optimizer mOptimizer = Optimizer.ADAM;
+	private float mLearningRate = 0.01f;
+	private int mBatchSize = 16;
+	private int mEpochs = 200;
+	private long mSeed = 1;
+	private int mParallelism = Runtime.getRuntime().availableProcessors();
+	private boolean mVerbose = false;
+
+	/**
+	 * @param hiddenLayers
+	 *            每个隐层的神经元个数
+	 */
+	public void setHiddenLayers(int... hiddenLayers) {
+		mHiddenLayers = hiddenLayers.clone();
+	}
+
+	public void setActivation(Activation activation) {
+		mActivation = activation;
+	}
+
+	public void setOptimizer(Optimizer optimizer) {
+		mOptimizer = optimizer;
+	}
+
+	public void setLearningRate(float learningRate) {
+		mLearningRate = learningRate;
+	}
+
+	public void setBatchSize(int batchSize) {
+		mBatchSize = batchSize;
+	}
+
+	public void setEpochs(int epochs) {
+		mEpochs = epochs;
+	}
+
+	public void setSeed(long seed) {
+		mSeed = seed;
+	}
+
+	/**
+	 * @param parallelism
+	 *            计算梯度的线程数
+	 */
+	public void setParallelism(int parallelism) {
+		mParallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * @param verbose
+	 *            是否每隔一段时间输出训练误差
+	 */
+	public void setVerbose(boolean verbose) {
+		mVerbose = verbose;
+	}
+
+	/**
+	 * 训练一个新的网络
+	 *
+	 * @param data
+	 *            训练数据, 可以是Dataset, 也可以是直接读取映射文件的DatasetFile
+	 * @return 训练好的网络
+	 */
+	public MultiLayerPerceptron train(SampleSource data) {
+		return train(data, allRows(data));
+	}
+
+	/**
+	 * 只用数据集中的一部分样本训练一个新的网络, 数据集本身不会被复制或修改, 可以被多个线程共享
+	 *
+	 * @param data
+	 *            数据集
+	 * @param rows
+	 *            用于训练的样本序号
+	 * @return 训练好的网络
+	 */
+	public MultiLayerPerceptron train(SampleSource data, int[] rows) {
+		int[] sizes = new int[mHiddenLayers.length + 2];
+		sizes[0] = data.getInputSize();
+		System.arraycopy(mHiddenLayers, 0, sizes, 1, mHiddenLayers.length);
+		sizes[sizes.length - 1] = 1;
+		MultiLayerPerceptron network = new MultiLayerPerceptron(sizes,
+				mActivation, mSeed);
+
+		int batchSize = Math.min(mBatchSize, Math.max(1, rows.length));
+		int slices = Math.max(1,
+				Math.min(mParallelism, batchSize / MIN_SLICE_ROWS));
+		int sliceRows = (batchSize + slices - 1) / slices;
+		Worker[] workers = new Worker[slices];
+		for (int i = 0; i < slices; i++) {
+			workers[i] = new Worker(network, sliceRows);
+		}
+		Update update = new Update(network, mOptimizer);
+
+		Batch batch = new Batch(batchSize);
+		int[] order = rows.clone();
+		Random random = new Random(mSeed);
+
+		// 只有一片时在调用者的线程中计算
+		ForkJoinPool pool = slices > 1 ? new ForkJoinPool(slices) : null;
+		try {
+			for (int epoch = 0; epoch < mEpochs; epoch++) {
+				shuffle(order, random);
+				double loss = 0.0;
+				for (int start = 0; start < order.length; start += batchSize) {
+					int count = Math.min(batchSize, order.length - start);
+					batch.fill(data, order, start, count);
+					loss += computeGradients(pool, workers, batch, count,
+							sliceRows);
+					for (int i = 1; i < workers.length; i++) {
+						workers[0].add(workers[i]);
+					}
+					update.apply(workers[0], mLearningRate);
+				}
+				if (mVerbose && (epoch % 10 == 0 || epoch == mEpochs - 1)) {
+					System.out.println("epoch " + epoch + " mse "
+							+ loss / order.length);
+				}
+			}
+		} finally {
+			if (null != pool) {
+				pool.shutdown();
+			}
+		}
+		return network;
+	}
+
+	/**
+	 * @return 网络在全部样本上的预测值
+	 */
+	public static float[] predict(MultiLayerPerceptron network, Dataset data) {
+		float[] predictions = new float[data.size()];
+		int batch = 64;
+		float[][] activations = new float[network.getLayerCount()][];
+		for (int l = 0; l < activations.length; l++) {
+			activations[l] = new float[batch * network.getSize(l + 1)];
+		}
+		for (int start = 0; start < data.size(); start += batch) {
+			int rows = Math.min(batch, data.size() - start);
+			network.forward(data.getRowStart(), data.getIndices(),
+					data.getValues(), start, rows, activations);
+			System.arraycopy(activations[activations.length - 1], 0,
+					predictions, start, rows);
+		}
+		return predictions;
+	}
+
+	/**
+	 * @return 网络在数据集中指定样本上的预测值
+	 */
+	public static float[] predict(MultiLayerPerceptron network, Dataset data,
+			int[] rows) {
+		float[] predictions = new float[rows.length];
+		float[][] activations = new float[network.getLayerCount()][];
+		for (int l = 0; l < activations.length; l++) {
+			activations[l] = new float[network.getSize(l + 1)];
+		}
+		for (int i = 0; i < rows.length; i++) {
+			network.forward(data.getRowStart(), data.getIndices(),
+					data.getValues(), rows[i], 1, activations);
+			predictions[i] = activations[activations.length - 1][0];
+		}
+		return predictions;
+	}
+
+	private static int[] allRows(SampleSource data) {
+		int[] rows = new int[data.size()];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = i;
+		}
+		return rows;
+	}
+
+	private double computeGradients(ForkJoinPool pool, Worker[] workers,
+			final Batch batch, final int rows, int sliceRows) {
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int i = 0; i < workers.length; i++) {
+			final Worker worker = workers[i];
+			final int from = Math.min(rows, i * sliceRows);
+			final int to = Math.min(rows, from + sliceRows);
+			worker.reset();
+			if (from == to) {
+				continue;
+			}
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					worker.backward(batch, from, to, rows);
+				}
+			});
+		}
+		if (1 == tasks.size()) {
+			tasks.get(0).invoke();
+		} else {
+			for (RecursiveAction task : tasks) {
+				pool.execute(task);
+			}
+			for (RecursiveAction task : tasks) {
+				task.join();
+			}
+		}
+		double loss = 0.0;
+		for (Worker worker : workers) {
+			loss += worker.loss;
+		}
+		return loss;
+	}
+
+	private static void shuffle(int[] order, Random random) {
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+	}
+
+	/**
+	 * 复制到连续缓冲区中的一批样本, CSR形式
+	 */
+	private static final class Batch {
+		final int[] rowStart;
+		final float[] targets;
+		int[] indices = new int[1024];
+		float[] values = new float[1024];
+
+		Batch(int size) {
+			rowStart = new int[size + 1];
+			targets = new float[size];
+		}
+
+		void fill(SampleSource data, int[] order, int start, int rows) {
+			int count = 0;
+			for (int r = 0; r < rows; r++) {
+				int row = order[start + r];
+				int length = data.getRowLength(row);
+				if (count + length > indices.length) {
+					int capacity = Math.max(indices.length * 2, count + length);
+					indices = Arrays.copyOf(indices, capacity);
+					values = Arrays.copyOf(values, capacity);
+				}
+				data.copyRow(row, indices, values, count);
+				rowStart[r] = count;
+				count += length;
+				targets[r] = data.getTarget(row);
+			}
+			rowStart[rows] = count;
+		}
+	}
+
+	/**
+	 * 一个线程计算梯度所用的缓冲区. 第一层的权值梯度只在touched记录的行上非零.
+	 */
+	private static final class Worker {
+		final MultiLayerPerceptron network;
+		final float[][] activations;
+		final float[][] deltas;
+		final float[][] weightGradients;
+		final float[][] biasGradients;
+		final boolean[] marked;
+		final int[] touched;
+		int touchedCount;
+		double loss;
+
+		Worker(MultiLayerPerceptron network, int rows) {
+			this.network = network;
+			int layers = network.getLayerCount();
+			activations = new float[layers][];
+			deltas = new float[layers][];
+			weightGradients = new float[layers][];
+			biasGradients = new float[layers][];
+			for (int l = 0; l < layers; l++) {
+				int out = network.getSize(l + 1);
+				activations[l] = new float[rows * out];
+				deltas[l] = new float[rows * out];
+				weightGradients[l] = new float[network.getSize(l) * out];
+				biasGradients[l] = new float[out];
+			}
+			marked = new boolean[network.getInputSize()];
+			touched = new int[network.getInputSize()];
+		}
+
+		void reset() {
+			int out = network.getSize(1);
+			for (int i = 0; i < touchedCount; i++) {
+				int row = touched[i];
+				Arrays.fill(weightGradients[0], row * out, row * out + out,
+						0.0f);
+				marked[row] = false;
+			}
+			touchedCount = 0;
+			for (int l = 1; l < weightGradients.length; l++) {
+				Arrays.fill(weightGradients[l], 0.0f);
+			}
+			for (int l = 0; l < biasGradients.length; l++) {
+				Arrays.fill(biasGradients[l], 0.0f);
+			}
+			loss = 0.0;
+		}
+
+		private void touch(int row) {
+			if (!marked[row]) {
+				marked[row] = true;
+				touched[touchedCount++] = row;
+			}
+		}
+
+		/**
+		 * 计算样本[from, to)的梯度, 均方误差按整个批量的大小batchRows平均
+		 */
+		void backward(Batch batch, int from, int to, int batchRows) {
+			int rows = to - from;
+			float[] targets = batch.targets;
+			network.forward(batch.rowStart, batch.indices, batch.values, from,
+					rows, activations);
+
+			int last = activations.length - 1;
+			Activation outputActivation = network.getActivation(last);
+			for (int r = 0; r < rows; r++) {
+				float y = activations[last][r];
+				float error = y - targets[from + r];
+				loss += error * error;
+				deltas[last][r] = 2.0f * error / batchRows
+						* outputActivation.derivative(y);
+			}
+
+			for (int l = last; l >= 0; l--) {
+				int in = network.getSize(l);
+				int out = network.getSize(l + 1);
+				if (0 == l) {
+					// 把梯度分散到非零输入对应的权值行
+					float[] gradient = weightGradients[0];
+					for (int r = 0; r < rows; r++) {
+						int d = r * out;
+						for (int p = batch.rowStart[from + r]; p < batch.rowStart[from
+								+ r + 1]; p++) {
+							int row = batch.indices[p];
+							float x = batch.values[p];
+							touch(row);
+							int g = row * out;
+							for (int k = 0; k < out; k++) {
+								gradient[g + k] += x * deltas[0][d + k];
+							}
+						}
+					}
+				} else {
+					Matrices.multiplyTransposedA(activations[l - 1], 0, rows,
+							in, deltas[l], out, weightGradients[l]);
+				}
+				float[] bias = biasGradients[l];
+				for (int r = 0; r < rows; r++) {
+					for (int k = 0; k < out; k++) {
+						bias[k] += deltas[l][r * out + k];
+					}
+				}
+				if (l > 0) {
+					Matrices.multiplyTransposedB(deltas[l], rows, out,
+							network.getWeights(l), in, deltas[l - 1]);
+					Activation activation = network.getActivation(l - 1);
+					float[] previous = activations[l - 1];
+					for (int i = 0; i < rows * in; i++) {
+						deltas[l - 1][i] *= activation.derivative(previous[i]);
+					}
+				}
+			}
+		}
+
+		void add(Worker other) {
+			int out = network.getSize(1);
+			for (int i = 0; i < other.touchedCount; i++) {
+				int row = other.touched[i];
+				touch(row);
+				for (int k = row * out; k < row * out + out; k++) {
+					weightGradients[0][k] += other.weightGradients[0][k];
+				}
+			}
+			for (int l = 0; l < weightGradients.length; l++) {
+				float[] g;
+				float[] o;
+				if (l > 0) {
+					g = weightGradients[l];
+					o = other.weightGradients[l];
+					for (int i = 0; i < g.length; i++) {
+						g[i] += o[i];
+					}
+				}
+				g = biasGradients[l];
+				o = other.biasGradients[l];
+				for (int i = 0; i < g.length; i++) {
+					g[i] += o[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * 按SGD或者Adam更新参数
+	 */
+	private static final class Update {
+		final MultiLayerPerceptron network;
+		final Optimizer optimizer;
+		final float[][] weightMoments;
+		final float[][] weightVelocities;
+		final float[][] biasMoments;
+		final float[][] biasVelocities;
+		int step;
+
+		Update(MultiLayerPerceptron network, Optimizer optimizer) {
+			this.network = network;
+			this.optimizer = optimizer;
+			int layers = network.getLayerCount();
+			weightMoments = new float[layers][];
+			weightVelocities = new float[layers][];
+			biasMoments = new float[layers][];
+			biasVelocities = new float[layers][];
+			if (Optimizer.ADAM == optimizer) {
+				for (int l = 0; l < layers; l++) {
+					int n = network.getWeights(l).length;
+					int out = network.getBiases(l).length;
+					weightMoments[l] = new float[n];
+					weightVelocities[l] = new float[n];
+					biasMoments[l] = new float[out];
+					biasVelocities[l] = new float[out];
+				}
+			}
+		}
+
+		void apply(Worker gradients, float learningRate) {
+			step++;
+			// 第一层只更新这一批中出现过的权值行
+			int out = network.getSize(1);
+			for (int i = 0; i < gradients.touchedCount; i++) {
+				int from = gradients.touched[i] * out;
+				update(network.getWeights(0), gradients.weightGradients[0],
+						weightMoments[0], weightVelocities[0], from, from
+								+ out, learningRate);
+			}
+			for (int l = 0; l < network.getLayerCount(); l++) {
+				if (l > 0) {
+					update(network.getWeights(l), gradients.weightGradients[l],
+							weightMoments[l], weightVelocities[l], 0,
+							network.getWeights(l).length, learningRate);
+				}
+				update(network.getBiases(l), gradients.biasGradients[l],
+						biasMoments[l], biasVelocities[l], 0,
+						network.getBiases(l).length, learningRate);
+			}
+		}
+
+		private void update(float[] parameters, float[] gradients, float[] m,
+				float[] v, int from, int to, float learningRate) {
+			if (Optimizer.ADAM == optimizer) {
+				adam(parameters, gradients, m, v, from, to, learningRate);
+			} else {
+				for (int i = from; i < to; i++) {
+					parameters[i] -= learningRate * gradients[i];
+				}
+			}
+		}
+
+		private void adam(float[] parameters, float[] gradients, float[] m,
+				float[] v, int from, int to, float learningRate) {
+			float correction1 = 1.0f - (float) Math.pow(BETA1, step);
+			float correction2 = 1.0f - (float) Math.pow(BETA2, step);
+			float rate = learningRate * (float) Math.sqrt(correction2)
+					/ correction1;
+			for (int i = from; i < to; i++) {
+				float g = gradients[i];
+				m[i] = BETA1 * m[i] + (1.0f - BETA1) * g;
+				v[i] = BETA2 * v[i] + (1.0f - BETA2) * g * g;
+				parameters[i] -= rate * m[i] / ((float) Math.sqrt(v[i]) + EPSILON);
+			}
+		}
+	}
+
+	/**
+	 * 依次用train/train-i训练, 用test/test-i测试, 输出每一组的相关系数, 代替原来的MATLAB脚本
+	 *
+	 * @param args
+	 *            [训练文件 测试文件], 缺省时使用train和test目录中的10组数据
+	 */
+	public static void main(String[] args) throws IOException {
+		NeuralNetwork neuralNetwork = new NeuralNetwork();
+		MlpTrainer trainer = new MlpTrainer();
+
+		List<String[]> folds = new ArrayList<String[]>();
+		if (args.length >= 2) {
+			folds.add(new String[] { args[0], args[1] });
+		} else {
+			for (int i = 0; i < 10; i++) {
+				folds.add(new String[] { "train/train-" + i, "test/test-" + i });
+			}
+		}
+
+		StringBuilder results = new StringBuilder("results=[");
+		for (String[] fold : folds) {
+			Dataset train = Dataset.fromPairs(neuralNetwork, fold[0]);
+			Dataset test = Dataset.fromPairs(neuralNetwork, fold[1]);
+			long start = System.currentTimeMillis();
+			MultiLayerPerceptron network = trainer.train(train);
+			long elapsed = System.currentTimeMillis() - start;
+			float[] predictions = predict(network, test);
+			double r = Statistics.pearson(predictions, test.getTargets());
+			System.out.println(fold[0] + " " + fold[1] + " pearson " + r
+					+ " mse " + Statistics.mse(predictions, test.getTargets())
+					+ " train " + elapsed + " ms");
+			results.append(String.format("%.4f ", r));
+		}
+		System.out.println(results.toString().trim() + "];");
+	}
+}
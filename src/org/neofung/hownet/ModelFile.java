@@ -0,0 +1,503 @@
+/**
+ * 训练好的神经网络的二进制文件
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+/**
+ * ModelFile 保存一个训练好的MultiLayerPerceptron, 以及训练时使用的义原ID号, 通过FileChannel.map映射到内存,
+ * 权值直接在映射的文件中读取, 打开时不需要解析, 多个进程打开同一个文件时共享页缓存.
+ *
+ * 文件格式(大端序):
+ *
+ * <pre>
+ * header:   magic, version, payloadLength, crc32(payload), 各段的偏移量
+ * topology: 层数L, L+1个神经元个数(第0个是输入的维数), L个权值编码, 每层激活函数名字的字符串表
+ * sememes:  训练时义原名字的字符串表, 下标就是训练时的义原ID号; 输入的前一半是第一个词语, 后一半是第二个词语
+ * weights:  每层依次是权值和out个float32偏置. float32编码的权值是in * out个float32(行优先, 以输入为行);
+ *           int8编码的权值是out个float32缩放系数, 然后是in * out个int8(排列相同, 补齐到4字节), 见Quantization
+ * </pre>
+ *
+ * 版本1没有权值编码, 全部是float32.
+ *
+ * @author neo
+ * @version 2013-05-10
+ */
+public final class ModelFile {
+
+	public static final int MAGIC = 0x4E454F4D; // "NEOM"
+	public static final int VERSION = 2;
+
+	/** 权值是float32 */
+	public static final int ENCODING_FLOAT32 = 0;
+	/** 权值是int8, 每个输出神经元一个float32缩放系数 */
+	public static final int ENCODING_INT8 = 1;
+
+	private static final int SECTION_TOPOLOGY = 0;
+	private static final int SECTION_SEMEMES = 1;
+	private static final int SECTION_WEIGHTS = 2;
+	private static final int SECTION_COUNT = 3;
+
+	// magic, version, payloadLength, crc32(long), 各段偏移量
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4 * SECTION_COUNT;
+
+	private final ByteBuffer mBuffer;
+	private final int[] mSizes;
+	private final int[] mEncodings;
+	private final Activation[] mActivations;
+	private final StringTable mSememes;
+	// float32编码的层
+	private final FloatBuffer[] mWeights;
+	// int8编码的层
+	private final FloatBuffer[] mScales;
+	private final ByteBuffer[] mQuantized;
+	private final FloatBuffer[] mBiases;
+
+	private ModelFile(ByteBuffer buffer) throws IOException {
+		mBuffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("not a model file");
+		}
+		int version = buffer.getInt(4);
+		if (version < 1 || version > VERSION) {
+			throw new IOException("unsupported model version " + version);
+		}
+		int payloadLength = buffer.getInt(8);
+		if (HEADER_SIZE + payloadLength != buffer.capacity()) {
+			throw new IOException("truncated model file");
+		}
+		long crc = buffer.getLong(12);
+		if (crc != checksum(buffer, HEADER_SIZE, payloadLength)) {
+			throw new IOException("model checksum mismatch");
+		}
+
+		ByteBuffer topology = section(SECTION_TOPOLOGY);
+		int layers = topology.getInt(0);
+		mSizes = new int[layers + 1];
+		for (int l = 0; l <= layers; l++) {
+			mSizes[l] = topology.getInt(4 + 4 * l);
+		}
+		mEncodings = new int[layers];
+		int position = 4 + 4 * (layers + 1);
+		if (version >= 2) {
+			for (int l = 0; l < layers; l++) {
+				mEncodings[l] = topology.getInt(position);
+				position += 4;
+				if (mEncodings[l] != ENCODING_FLOAT32
+						&& mEncodings[l] != ENCODING_INT8) {
+					throw new IOException("unknown weight encoding "
+							+ mEncodings[l]);
+				}
+			}
+		}
+		topology.position(position);
+		String[] names = new StringTable(topology.slice()).decodeAll();
+		mActivations = new Activation[layers];
+		for (int l = 0; l < layers; l++) {
+			try {
+				mActivations[l] = Activation.valueOf(names[l]);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("unknown activation " + names[l]);
+			}
+		}
+
+		mSememes = new StringTable(section(SECTION_SEMEMES));
+		if (2 * mSememes.size() != mSizes[0]) {
+			throw new IOException("input size " + mSizes[0] + " does not match "
+					+ mSememes.size() + " sememes");
+		}
+
+		ByteBuffer weights = section(SECTION_WEIGHTS);
+		mWeights = new FloatBuffer[layers];
+		mScales = new FloatBuffer[layers];
+		mQuantized = new ByteBuffer[layers];
+		mBiases = new FloatBuffer[layers];
+		int offset = 0;
+		for (int l = 0; l < layers; l++) {
+			int count = mSizes[l] * mSizes[l + 1];
+			if (ENCODING_INT8 == mEncodings[l]) {
+				mScales[l] = floats(weights, offset, mSizes[l + 1]);
+				offset += 4 * mSizes[l + 1];
+				mQuantized[l] = bytes(weights, offset, count);
+				offset += (count + 3) & ~3;
+			} else {
+				mWeights[l] = floats(weights, offset, count);
+				offset += 4 * count;
+			}
+			mBiases[l] = floats(weights, offset, mSizes[l + 1]);
+			offset += 4 * mSizes[l + 1];
+		}
+	}
+
+	/**
+	 * 以只读方式映射模型文件
+	 *
+	 * @param file
+	 *            模型文件
+	 * @return 模型
+	 * @throws IOException
+	 *             文件不存在, 格式或者校验和错误
+	 */
+	public static ModelFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// 映射在channel关闭之后仍然有效
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			return new ModelFile(buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * 把网络写成模型文件
+	 *
+	 * @param network
+	 *            训练好的网络, 输入是两个词语的义原向量首尾相接
+	 * @param hownet
+	 *            训练时使用的词典, 用于保存义原ID号对应的名字
+	 * @param file
+	 *            模型文件
+	 * @throws IOException
+	 */
+	public static void write(MultiLayerPerceptron network, HowNet hownet,
+			File file) throws IOException {
+		write(network, hownet, file, false);
+	}
+
+	/**
+	 * 把网络写成模型文件
+	 *
+	 * @param network
+	 *            训练好的网络, 输入是两个词语的义原向量首尾相接
+	 * @param hownet
+	 *            训练时使用的词典, 用于保存义原ID号对应的名字
+	 * @param file
+	 *            模型文件
+	 * @param quantize
+	 *            是否把第一层的权值量化为int8, 其它层很小, 总是float32
+	 * @throws IOException
+	 */
+	public static void write(MultiLayerPerceptron network, HowNet hownet,
+			File file, boolean quantize) throws IOException {
+		String[] sememeNames = new String[hownet.getSememesCount()];
+		for (Entry<String, Integer> entry : hownet.getSememesMap().entrySet()) {
+			sememeNames[entry.getValue().intValue()] = entry.getKey();
+		}
+		write(network, sememeNames, file, quantize);
+	}
+
+	/**
+	 * 把网络写成模型文件
+	 *
+	 * @param network
+	 *            训练好的网络
+	 * @param sememeNames
+	 *            按训练时的ID号排列的义原名字, 个数是输入维数的一半
+	 * @param file
+	 *            模型文件
+	 * @param quantize
+	 *            是否把第一层的权值量化为int8
+	 * @throws IOException
+	 */
+	public static void write(MultiLayerPerceptron network,
+			String[] sememeNames, File file, boolean quantize)
+			throws IOException {
+		if (2 * sememeNames.length != network.getInputSize()) {
+			throw new IllegalArgumentException("input size "
+					+ network.getInputSize() + " does not match "
+					+ sememeNames.length + " sememes");
+		}
+		int layers = network.getLayerCount();
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(1 << 16);
+		DataOutputStream out = new DataOutputStream(payload);
+		int[] offsets = new int[SECTION_COUNT];
+
+		offsets[SECTION_TOPOLOGY] = out.size();
+		out.writeInt(layers);
+		for (int l = 0; l <= layers; l++) {
+			out.writeInt(network.getSize(l));
+		}
+		for (int l = 0; l < layers; l++) {
+			out.writeInt(quantize && 0 == l ? ENCODING_INT8 : ENCODING_FLOAT32);
+		}
+		String[] activations = new String[layers];
+		for (int l = 0; l < layers; l++) {
+			activations[l] = network.getActivation(l).name();
+		}
+		StringTable.write(out, activations);
+
+		offsets[SECTION_SEMEMES] = out.size();
+		StringTable.write(out, sememeNames);
+
+		offsets[SECTION_WEIGHTS] = out.size();
+		for (int l = 0; l < layers; l++) {
+			if (quantize && 0 == l) {
+				Quantization quantization = Quantization.quantize(
+						network.getWeights(l), network.getSize(l),
+						network.getSize(l + 1));
+				for (float scale : quantization.getScales()) {
+					out.writeFloat(scale);
+				}
+				byte[] values = quantization.getValues();
+				out.write(values);
+				for (int i = values.length; i % 4 != 0; i++) {
+					out.write(0);
+				}
+			} else {
+				for (float w : network.getWeights(l)) {
+					out.writeFloat(w);
+				}
+			}
+			for (float b : network.getBiases(l)) {
+				out.writeFloat(b);
+			}
+		}
+		out.flush();
+
+		byte[] bytes = payload.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(bytes.length);
+		header.putLong(crc.getValue());
+		for (int offset : offsets) {
+			header.putInt(offset);
+		}
+		header.flip();
+
+		// 先写临时文件再改名, 避免正在服务的进程读到写了一半的模型
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			ByteBuffer body = ByteBuffer.wrap(bytes);
+			while (body.hasRemaining()) {
+				channel.write(body);
+			}
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("can not rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * @return 层数, 不包括输入
+	 */
+	public int getLayerCount() {
+		return mActivations.length;
+	}
+
+	/**
+	 * @param layer
+	 *            第0个是输入
+	 * @return 该层的神经元个数
+	 */
+	public int getSize(int layer) {
+		return mSizes[layer];
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return 该层的激活函数
+	 */
+	public Activation getActivation(int layer) {
+		return mActivations[layer];
+	}
+
+	/**
+	 * @return 训练时的义原数, 即输入维数的一半
+	 */
+	public int getSememeCount() {
+		return mSememes.size();
+	}
+
+	/**
+	 * @param id
+	 *            训练时的义原ID号
+	 * @return 义原的名字
+	 */
+	public String getSememeName(int id) {
+		return mSememes.decode(id);
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return ENCODING_FLOAT32或ENCODING_INT8
+	 */
+	public int getEncoding(int layer) {
+		return mEncodings[layer];
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return 映射的权值, in * out个, 行优先; int8编码的层返回null
+	 */
+	FloatBuffer getWeights(int layer) {
+		return null == mWeights[layer] ? null : mWeights[layer].duplicate();
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return int8编码的层每个输出神经元的缩放系数, float32编码的层返回null
+	 */
+	FloatBuffer getScales(int layer) {
+		return null == mScales[layer] ? null : mScales[layer].duplicate();
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return int8编码的层映射的权值, 排列与float32相同; float32编码的层返回null
+	 */
+	ByteBuffer getQuantizedWeights(int layer) {
+		return null == mQuantized[layer] ? null : mQuantized[layer]
+				.duplicate();
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return 映射的偏置
+	 */
+	FloatBuffer getBiases(int layer) {
+		return mBiases[layer].duplicate();
+	}
+
+	/**
+	 * 把权值复制到堆上, 得到可以继续训练的网络, int8编码的层还原为float
+	 */
+	public MultiLayerPerceptron toPerceptron() {
+		int layers = getLayerCount();
+		float[][] weights = new float[layers][];
+		float[][] biases = new float[layers][];
+		for (int l = 0; l < layers; l++) {
+			int out = mSizes[l + 1];
+			weights[l] = new float[mSizes[l] * out];
+			if (ENCODING_INT8 == mEncodings[l]) {
+				for (int i = 0; i < weights[l].length; i++) {
+					weights[l][i] = mScales[l].get(i % out)
+							* mQuantized[l].get(i);
+				}
+			} else {
+				getWeights(l).get(weights[l]);
+			}
+			biases[l] = new float[mSizes[l + 1]];
+			getBiases(l).get(biases[l]);
+		}
+		return new MultiLayerPerceptron(mSizes.clone(), mActivations.clone(),
+				weights, biases);
+	}
+
+	private ByteBuffer section(int section) {
+		int start = HEADER_SIZE + mBuffer.getInt(20 + 4 * section);
+		ByteBuffer duplicate = mBuffer.duplicate();
+		duplicate.position(start);
+		return duplicate.slice();
+	}
+
+	private static FloatBuffer floats(ByteBuffer buffer, int offset, int count) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + 4 * count);
+		return duplicate.slice().asFloatBuffer();
+	}
+
+	private static ByteBuffer bytes(ByteBuffer buffer, int offset, int count) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + count);
+		return duplicate.slice();
+	}
+
+	private static long checksum(ByteBuffer buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		byte[] chunk = new byte[64 * 1024];
+		while (duplicate.hasRemaining()) {
+			int count = Math.min(chunk.length, duplicate.remaining());
+			duplicate.get(chunk, 0, count);
+			crc.update(chunk, 0, count);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * 用词语对文件训练一个网络并写成模型文件, 再映射回来与堆上的网络比较全部预测值
+	 *
+	 * @param args
+	 *            [词语对文件] [模型文件]
+	 */
+	public static void main(String[] args) throws Exception {
+		String pairs = args.length > 0 ? args[0] : "input.txt";
+		File file = new File(args.length > 1 ? args[1] : "neo_model");
+		NeuralNetwork network = new NeuralNetwork();
+		Dataset data = Dataset.fromPairs(network, pairs);
+		MultiLayerPerceptron perceptron = new MlpTrainer().train(data);
+		write(perceptron, network.getHowNet(), file);
+
+		long start = System.nanoTime();
+		ModelFile model = open(file);
+		InferenceEngine engine = new InferenceEngine(model,
+				network.getHowNet());
+		long load = System.nanoTime() - start;
+
+		// Dataset.fromPairs跳过的行这里也跳过, 因此两者的顺序一致
+		float[] expected = MlpTrainer.predict(perceptron, data);
+		double maxError = 0;
+		int n = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(pairs), "UTF-8"));
+		try {
+			for (WordPair pair : WordPair.lines(reader)) {
+				SparseVector a = network.getNormalizedVector(pair.getFirst());
+				SparseVector b = network.getNormalizedVector(pair.getSecond());
+				if (null == a || null == b || Float.isNaN(pair.getTarget())) {
+					continue;
+				}
+				maxError = Math.max(maxError,
+						Math.abs(engine.score(a, b) - expected[n++]));
+			}
+		} finally {
+			reader.close();
+		}
+		System.out.println(String.format(
+				"%s: %d bytes, %d layers, opened in %d us, %d pairs, "
+						+ "max difference %.3g", file, file.length(),
+				model.getLayerCount(), load / 1000, n, maxError));
+	}
+}
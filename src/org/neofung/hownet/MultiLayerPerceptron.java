@@ -0,0 +1,314 @@
+/**
+ * 前馈神经网络
+ */
+package org.neofung.hownet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * MultiLayerPerceptron 是全连接的前馈神经网络, 输出一个相似度. 第l层的权值以输入为行, 输出为列, 行优先保存在一维
+ * float数组中, 即mWeights[l][i * out + k]是第i个输入到第k个输出的权值.
+ *
+ * @author neo
+ * @version 2013-04-18
+ */
+public class MultiLayerPerceptron implements PairScorer {
+
+	// 批量打分时每次前向计算的词语对数
+	static final int BATCH_ROWS = 256;
+
+	// 各层的神经元个数, 第0个是输入的维数, 最后一个是输出的维数
+	private final int[] mSizes;
+	private final Activation[] mActivations;
+	private final float[][] mWeights;
+	private final float[][] mBiases;
+
+	/**
+	 * 用Xavier均匀分布初始化一个新的网络
+	 *
+	 * @param sizes
+	 *            各层的神经元个数, 包括输入和输出
+	 * @param hidden
+	 *            隐层的激活函数, 输出层为线性
+	 * @param seed
+	 *            随机种子
+	 */
+	public MultiLayerPerceptron(int[] sizes, Activation hidden, long seed) {
+		if (sizes.length < 2) {
+			throw new IllegalArgumentException("at least input and output");
+		}
+		mSizes = sizes.clone();
+		mActivations = new Activation[sizes.length - 1];
+		Arrays.fill(mActivations, hidden);
+		mActivations[mActivations.length - 1] = Activation.LINEAR;
+		mWeights = new float[sizes.length - 1][];
+		mBiases = new float[sizes.length - 1][];
+
+		Random random = new Random(seed);
+		for (int l = 0; l < mWeights.length; l++) {
+			int in = sizes[l];
+			int out = sizes[l + 1];
+			float limit = (float) Math.sqrt(6.0 / (in + out));
+			mWeights[l] = new float[in * out];
+			for (int i = 0; i < mWeights[l].length; i++) {
+				mWeights[l][i] = (2.0f * random.nextFloat() - 1.0f) * limit;
+			}
+			mBiases[l] = new float[out];
+		}
+	}
+
+	/**
+	 * 使用已有的参数构造网络, 数组不会被复制
+	 */
+	MultiLayerPerceptron(int[] sizes, Activation[] activations,
+			float[][] weights, float[][] biases) {
+		mSizes = sizes;
+		mActivations = activations;
+		mWeights = weights;
+		mBiases = biases;
+	}
+
+	/**
+	 * @return 层数, 不包括输入
+	 */
+	public int getLayerCount() {
+		return mWeights.length;
+	}
+
+	/**
+	 * @return 输入的维数
+	 */
+	public int getInputSize() {
+		return mSizes[0];
+	}
+
+	/**
+	 * @param layer
+	 *            第0个是输入
+	 * @return 该层的神经元个数
+	 */
+	public int getSize(int layer) {
+		return mSizes[layer];
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return 该层的激活函数
+	 */
+	public Activation getActivation(int layer) {
+		return mActivations[layer];
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return 该层的权值, 直接返回内部数组
+	 */
+	float[] getWeights(int layer) {
+		return mWeights[layer];
+	}
+
+	/**
+	 * @param layer
+	 *            从0开始的层号, 不包括输入
+	 * @return 该层的偏置, 直接返回内部数组
+	 */
+	float[] getBiases(int layer) {
+		return mBiases[layer];
+	}
+
+	/**
+	 * 批量前向计算, 输入是行优先的稠密数组
+	 *
+	 * @param input
+	 *            行优先的输入, 每行getInputSize()个元素
+	 * @param offset
+	 *            第一行在input中的位置
+	 * @param rows
+	 *            行数
+	 * @param activations
+	 *            每层的输出, activations[l]至少有rows * getSize(l + 1)个元素
+	 */
+	void forward(float[] input, int offset, int rows, float[][] activations) {
+		int out = mSizes[1];
+		float[] output = activations[0];
+		for (int r = 0; r < rows; r++) {
+			System.arraycopy(mBiases[0], 0, output, r * out, out);
+		}
+		Matrices.multiply(input, offset, rows, mSizes[0], mWeights[0], out,
+				output, 0);
+		mActivations[0].apply(output, 0, rows * out);
+		forwardHidden(rows, activations);
+	}
+
+	/**
+	 * 批量前向计算, 输入是CSR形式的稀疏矩阵. 第一层只累加非零输入对应的那些权值行.
+	 *
+	 * @param rowStart
+	 *            每行第一个非零元素的位置
+	 * @param indices
+	 *            非零元素的下标
+	 * @param values
+	 *            非零元素的值
+	 * @param firstRow
+	 *            第一行的行号
+	 * @param rows
+	 *            行数
+	 * @param activations
+	 *            每层的输出, activations[l]至少有rows * getSize(l + 1)个元素
+	 */
+	void forward(int[] rowStart, int[] indices, float[] values, int firstRow,
+			int rows, float[][] activations) {
+		int out = mSizes[1];
+		float[] output = activations[0];
+		float[] weights = mWeights[0];
+		for (int r = 0; r < rows; r++) {
+			int o = r * out;
+			System.arraycopy(mBiases[0], 0, output, o, out);
+			for (int p = rowStart[firstRow + r]; p < rowStart[firstRow + r + 1]; p++) {
+				float x = values[p];
+				int w = indices[p] * out;
+				for (int k = 0; k < out; k++) {
+					output[o + k] += x * weights[w + k];
+				}
+			}
+		}
+		mActivations[0].apply(output, 0, rows * out);
+		forwardHidden(rows, activations);
+	}
+
+	/**
+	 * 第一层之后的各层都是稠密的
+	 */
+	private void forwardHidden(int rows, float[][] activations) {
+		for (int l = 1; l < mWeights.length; l++) {
+			int out = mSizes[l + 1];
+			float[] output = activations[l];
+			for (int r = 0; r < rows; r++) {
+				System.arraycopy(mBiases[l], 0, output, r * out, out);
+			}
+			Matrices.multiply(activations[l - 1], 0, rows, mSizes[l],
+					mWeights[l], out, output, 0);
+			mActivations[l].apply(output, 0, rows * out);
+		}
+	}
+
+	/**
+	 * 计算一对词语的相似度, 输入是a和b首尾相接, 只访问非零分量对应的权值
+	 *
+	 * @param a
+	 *            第一个词语的归一化向量
+	 * @param b
+	 *            第二个词语的归一化向量, 下标偏移getInputSize() / 2
+	 * @return 网络的输出
+	 */
+	public float predict(SparseVector a, SparseVector b) {
+		int size = a.size() + b.size();
+		int offset = mSizes[0] / 2;
+		int[] indices = new int[size];
+		float[] values = new float[size];
+		for (int i = 0; i < a.size(); i++) {
+			indices[i] = a.indexAt(i);
+			values[i] = a.valueAt(i);
+		}
+		for (int i = 0; i < b.size(); i++) {
+			indices[a.size() + i] = offset + b.indexAt(i);
+			values[a.size() + i] = b.valueAt(i);
+		}
+		float[][] activations = new float[mWeights.length][];
+		for (int l = 0; l < activations.length; l++) {
+			activations[l] = new float[mSizes[l + 1]];
+		}
+		forward(new int[] { 0, size }, indices, values, 0, 1, activations);
+		return activations[activations.length - 1][0];
+	}
+
+	@Override
+	public float score(SparseVector a, SparseVector b) {
+		return predict(a, b);
+	}
+
+	/**
+	 * 每次前向计算BATCH_ROWS对, 每对的输入是a[i]和b[i]首尾相接
+	 */
+	@Override
+	public void score(SparseVector[] a, SparseVector[] b, int count,
+			float[] scores) {
+		int rows = Math.min(BATCH_ROWS, count);
+		int offset = mSizes[0] / 2;
+		float[][] activations = new float[mWeights.length][];
+		for (int l = 0; l < activations.length; l++) {
+			activations[l] = new float[rows * mSizes[l + 1]];
+		}
+		int[] rowStart = new int[rows + 1];
+		int[] indices = new int[1024];
+		float[] values = new float[1024];
+		for (int start = 0; start < count; start += rows) {
+			int n = Math.min(rows, count - start);
+			int size = 0;
+			for (int r = 0; r < n; r++) {
+				SparseVector x = a[start + r];
+				SparseVector y = b[start + r];
+				if (size + x.size() + y.size() > indices.length) {
+					int capacity = Math.max(indices.length * 2, size + x.size()
+							+ y.size());
+					indices = Arrays.copyOf(indices, capacity);
+					values = Arrays.copyOf(values, capacity);
+				}
+				for (int i = 0; i < x.size(); i++) {
+					indices[size] = x.indexAt(i);
+					values[size++] = x.valueAt(i);
+				}
+				for (int i = 0; i < y.size(); i++) {
+					indices[size] = offset + y.indexAt(i);
+					values[size++] = y.valueAt(i);
+				}
+				rowStart[r + 1] = size;
+			}
+			forward(rowStart, indices, values, 0, n, activations);
+			System.arraycopy(activations[activations.length - 1], 0, scores,
+					start, n);
+		}
+	}
+
+	/**
+	 * 计算一个稀疏输入的相似度
+	 *
+	 * @param input
+	 *            getInputSize()维的输入, 例如PairEncoder的结果
+	 * @return 网络的输出
+	 */
+	public float predict(SparseVector input) {
+		int size = input.size();
+		int[] indices = new int[size];
+		float[] values = new float[size];
+		for (int i = 0; i < size; i++) {
+			indices[i] = input.indexAt(i);
+			values[i] = input.valueAt(i);
+		}
+		float[][] activations = new float[mWeights.length][];
+		for (int l = 0; l < activations.length; l++) {
+			activations[l] = new float[mSizes[l + 1]];
+		}
+		forward(new int[] { 0, size }, indices, values, 0, 1, activations);
+		return activations[activations.length - 1][0];
+	}
+
+	/**
+	 * 计算一个输入的相似度
+	 *
+	 * @param input
+	 *            getInputSize()维的输入
+	 * @return 网络的输出
+	 */
+	public float predict(float[] input) {
+		float[][] activations = new float[mWeights.length][];
+		for (int l = 0; l < activations.length; l++) {
+			activations[l] = new float[mSizes[l + 1]];
+		}
+		forward(input, 0, 1, activations);
+		return activations[activations.length - 1][0];
+	}
+}
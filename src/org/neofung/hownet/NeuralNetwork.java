@@ -5,12 +5,15 @@ package org.neofung.hownet;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
@@ -22,45 +25,198 @@ import java.util.Set;
  */
 public class NeuralNetwork {
 
-	private static HowNet mHowNet;
-	private static int mDimensionality;
+	private final HowNet mHowNet;
+	private final int mDimensionality;
+
+	// 缓存的默认条目数
+	private static final int CACHE_SIZE = 20000;
+
+	// 归一化词语向量的缓存
+	private final VectorCache mCache;
 
 	public NeuralNetwork() {
-		mHowNet = new HowNet();
-		mDimensionality = mHowNet.getSememesCount();
+		this(new HowNet());
+	}
+
+	/**
+	 * @param hownet
+	 *            使用的词典, 可以与其它NeuralNetwork共享
+	 */
+	public NeuralNetwork(HowNet hownet) {
+		mHowNet = hownet;
+		mDimensionality = hownet.getSememesCount();
+		mCache = new VectorCache(new VectorCache.Loader() {
+			@Override
+			public SparseVector load(String word) {
+				return normalize(getVector(word));
+			}
+		}, CACHE_SIZE, VectorCache.Policy.TINY_LFU);
 		getVector("安");
 	}
 
 	/**
-	 * 获取输入word的义原向量
+	 * @return 使用的词典
+	 */
+	public HowNet getHowNet() {
+		return mHowNet;
+	}
+
+	/**
+	 * @return 义原向量的维数
+	 */
+	public int getDimensionality() {
+		return mDimensionality;
+	}
+
+	/**
+	 * @return 知网中的全部词语, 按UTF-8字节序排列
+	 */
+	public List<String> getWords() {
+		return mHowNet.getWords();
+	}
+
+	/**
+	 * 获取输入word的义原向量, 只保存非零的分量
 	 * 
 	 * @param word
-	 * @return
+	 * @return 稀疏的义原向量, 如果没有这个词则返回null
 	 */
-	public double[] getVector(String word) {
-		double vector[] = new double[mDimensionality];
+	public SparseVector getVector(String word) {
+		long start = System.nanoTime();
 		List<Pair<String, List<String>>> list = mHowNet.getSemantics(word);
 		if (null == list) {
 			return null;
 		}
+		SparseVector vector = toVector(list);
+		Metrics.VECTOR_BUILD.recordSince(start);
+		return vector;
+	}
+
+	/**
+	 * 获取输入word每个义项的归一化义原向量, 与getNormalizedVector相同, 但每个义项单独计算, 不取最大值合并
+	 * 
+	 * @param word
+	 * @return 与getSemantics的顺序相同的归一化向量, 如果没有这个词则返回null
+	 */
+	public SparseVector[] getSenseVectors(String word) {
+		List<Pair<String, List<String>>> list = mHowNet.getSemantics(word);
+		if (null == list) {
+			return null;
+		}
+		SparseVector[] vectors = new SparseVector[list.size()];
+		for (int s = 0; s < vectors.length; s++) {
+			vectors[s] = toVector(list.subList(s, s + 1)).normalize();
+		}
+		return vectors;
+	}
+
+	/**
+	 * 义项中的每个义原及其全部上位义, 相同义原取最大值
+	 */
+	private SparseVector toVector(List<Pair<String, List<String>>> list) {
+		int[] ids = new int[32];
+		float[] weights = new float[32];
+		int count = 0;
 		for (Pair<String, List<String>> pair : list) {
 			List<String> semantic = pair.getSecond();
 			for (String sememe : semantic) {
 				int id = mHowNet.getSememeId(sememe);
-				vector[id] = 1.0;
+				if (id < 0) {
+					continue;
+				}
+				float weight = 1.0f;
+				do {
+					if (count == ids.length) {
+						ids = Arrays.copyOf(ids, count * 2);
+						weights = Arrays.copyOf(weights, count * 2);
+					}
+					ids[count] = id;
+					weights[count] = weight;
+					count++;
+
+					// 上位义的权值是下位义的一半, 相同义原取最大值
+					weight *= 0.5f;
+					id = mHowNet.getFather(id);
+				} while (id >= 0);
+			}
+		}
+		return SparseVector.fromUnsorted(ids, weights, count);
+	}
 
-				String father = mHowNet.getFather(sememe);
-				while (null != father) {
+	/**
+	 * 获取输入word的归一化义原向量, 结果会被缓存, 调用者不能修改
+	 * 
+	 * @param word
+	 * @return 归一化的稀疏义原向量, 如果没有这个词则返回null
+	 */
+	public SparseVector getNormalizedVector(String word) {
+		SparseVector vector = mCache.get(word);
+		if (null == vector) {
+			Metrics.OOV_WORDS.increment();
+		}
+		return vector;
+	}
 
-					int father_id = mHowNet.getSememeId(father);
-					vector[father_id] = (0.5 * vector[id] > vector[father_id]) ? 0.5 * vector[id]
-							: vector[father_id]; // 递归更新权值
-					id = father_id;
-					father = mHowNet.getFather(father);
+	/**
+	 * 预先计算一批高频词语的归一化向量
+	 * 
+	 * @param path
+	 *            每行一个词语的UTF-8文本文件
+	 * @throws IOException
+	 */
+	public void preloadVectors(String path) throws IOException {
+		List<String> words = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(path), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) {
+					words.add(line);
 				}
 			}
+		} finally {
+			reader.close();
 		}
-		return vector;
+		mCache.preload(words);
+	}
+
+	/**
+	 * @return 向量缓存的统计数据
+	 */
+	public VectorCache.Stats getCacheStats() {
+		return mCache.getStats();
+	}
+
+	/**
+	 * 获取输入word的稠密义原向量, 仅用于兼容旧的接口
+	 * 
+	 * @param word
+	 * @return
+	 */
+	public double[] getDenseVector(String word) {
+		SparseVector vector = getVector(word);
+		if (null == vector) {
+			return null;
+		}
+		return vector.toDense(mDimensionality);
+	}
+
+	/**
+	 * 稀疏向量的归一化
+	 * 
+	 * @param vector
+	 * @return
+	 */
+	public SparseVector normalize(SparseVector vector) {
+		if (null == vector) {
+			return null;
+		}
+		long start = System.nanoTime();
+		SparseVector normalized = vector.normalize();
+		Metrics.VECTOR_NORMALIZE.recordSince(start);
+		return normalized;
 	}
 
 	/**
@@ -134,23 +290,18 @@ public class NeuralNetwork {
 
 			while ((line = reader.readLine()) != null && line.length() > 1) {
 				String[] words = line.split("\\s+");
-				double[] vector_a = normalize(getVector(words[0]));
-				double[] vector_b = normalize(getVector(words[1]));
+				SparseVector vector_a = getNormalizedVector(words[0]);
+				SparseVector vector_b = getNormalizedVector(words[1]);
 
+				// 没有收录的词语计入Metrics.OOV_WORDS
 				if (null == vector_a || null == vector_b) {
-					if (null == vector_a) {
-						System.out.println(words[0]);
-					}
-					if (null == vector_b) {
-						System.out.println(words[1]);
-					}
 					continue;
 				}
 
-				System.out.println(vector_a.length + " " + vector_b.length);
-
-				writeVector(inputOutputStreamWriter, vector_a, ' ');
-				writeVector(inputOutputStreamWriter, vector_b, ' ');
+				writeVector(inputOutputStreamWriter,
+						vector_a.toDense(mDimensionality), ' ');
+				writeVector(inputOutputStreamWriter,
+						vector_b.toDense(mDimensionality), ' ');
 				inputOutputStreamWriter.write('\n');
 
 				targetOutputStreamWriter.write(words[2]);
@@ -201,6 +352,12 @@ public class NeuralNetwork {
 
 	}
 
+	/**
+	 * 依次转换dataname0到dataname(count-1)
+	 * 
+	 * @deprecated 交叉验证不再需要写出文本文件, 请使用CrossValidation; 需要导出数据时请使用DatasetFile
+	 */
+	@Deprecated
 	public void translate(String dataname, String split, int count) {
 		for (int i = 0; i < count; i++) {
 			String dataPath = dataname + i;
@@ -241,7 +398,9 @@ public class NeuralNetwork {
 	 *            输出文件中前缀和组数之间的符号
 	 * @param rate
 	 *            测试数据占输入数据的比率
+	 * @deprecated 随机划分不可重现, 请使用CrossValidation.randomSplits或者CrossValidation.kFold
 	 */
+	@Deprecated
 	public void devideInputData(String inputPath, String trainDataName,
 			String testDataName, String flag, double rate, int outputFileCount) {
 		File file = new File(inputPath);
@@ -302,12 +461,9 @@ public class NeuralNetwork {
 	/**
 	 * @param args
 	 */
-	public static void main(String[] args) {
-		NeuralNetwork neuralNetwork = new NeuralNetwork();
-		// neuralNetwork.run("input.txt", "output.txt");
-		neuralNetwork.devideInputData("input.txt", "train", "test", "-", 0.2,
-				10);
-		neuralNetwork.translate("train-", "-", 10);
+	public static void main(String[] args) throws Exception {
+		// 划分, 训练和测试都在CrossValidation中完成, 不再需要写出文本文件交给MATLAB
+		CrossValidation.main(args);
 
 	}
 
@@ -0,0 +1,64 @@
+/**
+ * 可序列化的对组合
+ */
+package org.neofung.hownet;
+
+import java.io.Serializable;
+
+/**
+ * Pair 类用于表示一个first和second的对组合, 是一个可序列化的类
+ * 
+ * @author neo
+ * @version 2012-12-15
+ * 
+ * @param <K>
+ *            First
+ * @param <V>
+ *            Second
+ */
+class Pair<K, V> implements Serializable {
+	private static final long serialVersionUID = 1041712221752728541L;
+	private K first;
+	private V second;
+
+	/**
+	 * 获取first
+	 * 
+	 * @return
+	 */
+	public K getFirst() {
+		return first;
+	}
+
+	/**
+	 * 设置second
+	 * 
+	 * @param val
+	 */
+	public void setFirst(K val) {
+		first = val;
+	}
+
+	/**
+	 * 获取second
+	 * 
+	 * @return
+	 */
+	public V getSecond() {
+		return second;
+	}
+
+	/**
+	 * 设置second
+	 * 
+	 * @param val
+	 */
+	public void setSecond(V val) {
+		second = val;
+	}
+
+	@Override
+	public String toString() {
+		return first + ", " + second;
+	}
+}
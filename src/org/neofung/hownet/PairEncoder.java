@@ -0,0 +1,29 @@
+/**
+ * 把一对词语编码为神经网络的输入
+ */
+package org.neofung.hownet;
+
+/**
+ * PairEncoder 把一对词语编码为固定维数的输入向量. FullVectorEncoder把两个词语的归一化义原向量首尾相接, 维数是
+ * 义原数的两倍; ProjectedVectorEncoder先把义原向量投影到固定的维数; PairFeatureEncoder只计算十几个描述两个
+ * 词语关系的特征. 实现类必须是线程安全的.
+ *
+ * @author neo
+ * @version 2013-05-14
+ */
+public interface PairEncoder {
+
+	/**
+	 * @return 输入向量的维数
+	 */
+	int getInputSize();
+
+	/**
+	 * @param first
+	 *            第一个词语
+	 * @param second
+	 *            第二个词语
+	 * @return 输入向量, 下标小于getInputSize(); 任一词语没有收录时返回null
+	 */
+	SparseVector encode(String first, String second);
+}
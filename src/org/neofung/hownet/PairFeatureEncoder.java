@@ -0,0 +1,285 @@
+/**
+ * 描述两个词语关系的少量特征
+ */
+package org.neofung.hownet;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PairFeatureEncoder 由知网的数据计算一对词语的十几个特征, 代替两个词语首尾相接的完整义原向量. 标注的词语对只有
+ * 几百个, 几千维的输入很容易过拟合, 训练和计算也都慢得多; 这些特征的维数固定, 与义原数无关.
+ * <p>
+ * 义原距离d换算成相似度α / (α + d), α取1.6; 不在同一棵树中的义原相似度为0.
+ *
+ * @author neo
+ * @version 2013-05-14
+ */
+public final class PairFeatureEncoder implements PairEncoder {
+
+	/** 归一化义原向量的余弦相似度 */
+	public static final int COSINE = 0;
+	/** 归一化义原向量的加权重叠, 即sum(min) / sum(max) */
+	public static final int WEIGHTED_OVERLAP = 1;
+	/** 两个词语全部直接义原的Jaccard系数 */
+	public static final int SEMEME_OVERLAP = 2;
+	/** 义项两两之间义原Jaccard系数的最大值 */
+	public static final int BEST_SENSE_OVERLAP = 3;
+	/** 义项两两之间基于义原距离的相似度的最大值 */
+	public static final int BEST_SENSE_MATCH = 4;
+	/** 义项两两之间基于义原距离的相似度的平均值 */
+	public static final int MEAN_SENSE_MATCH = 5;
+	/** 全部义原组合的最小距离换算的相似度 */
+	public static final int MIN_DISTANCE = 6;
+	/** 全部义原组合中2 * 公共祖先深度 / (两个义原深度之和)的最大值 */
+	public static final int MAX_LCA_DEPTH = 7;
+	/** 在同一棵树中的义原组合的比例 */
+	public static final int CONNECTED = 8;
+	/** 两个词语全部词性的Jaccard系数 */
+	public static final int POS_OVERLAP = 9;
+	/** 两个词语第一个义项的词性是否相同 */
+	public static final int FIRST_POS_EQUAL = 10;
+	/** 1 / sqrt(两个词语的义项数之积) */
+	public static final int SENSE_COUNT = 11;
+	/** 是否同一个词语 */
+	public static final int SAME_WORD = 12;
+
+	private static final int FEATURE_COUNT = 13;
+
+	private static final String[] NAMES = { "cosine", "weighted_overlap",
+			"sememe_overlap", "best_sense_overlap", "best_sense_match",
+			"mean_sense_match", "min_distance", "max_lca_depth", "connected",
+			"pos_overlap", "first_pos_equal", "sense_count", "same_word" };
+
+	private static final float ALPHA = 1.6f;
+
+	private final NeuralNetwork mNetwork;
+	private final HowNet mHowNet;
+	private final SememeTree mTree;
+
+	/**
+	 * @param network
+	 *            用于获取归一化义原向量和词典
+	 */
+	public PairFeatureEncoder(NeuralNetwork network) {
+		mNetwork = network;
+		mHowNet = network.getHowNet();
+		mTree = mHowNet.getSememeTree();
+	}
+
+	@Override
+	public int getInputSize() {
+		return FEATURE_COUNT;
+	}
+
+	/**
+	 * @return 第feature个特征的名字
+	 */
+	public static String getFeatureName(int feature) {
+		return NAMES[feature];
+	}
+
+	@Override
+	public SparseVector encode(String first, String second) {
+		float[] features = features(first, second);
+		if (null == features) {
+			return null;
+		}
+		return SparseVector.fromDense(toDouble(features));
+	}
+
+	/**
+	 * @return 全部特征, 任一词语没有收录时返回null
+	 */
+	public float[] features(String first, String second) {
+		SparseVector a = mNetwork.getNormalizedVector(first);
+		SparseVector b = mNetwork.getNormalizedVector(second);
+		if (null == a || null == b) {
+			return null;
+		}
+		List<Pair<String, List<String>>> semanticsA = mHowNet
+				.getSemantics(first);
+		List<Pair<String, List<String>>> semanticsB = mHowNet
+				.getSemantics(second);
+		int[][] sensesA = mHowNet.getSenseSememes(semanticsA);
+		int[][] sensesB = mHowNet.getSenseSememes(semanticsB);
+		SememeLca.Table table = mHowNet.getSememeLca().table(sensesA, sensesB);
+
+		float[] features = new float[FEATURE_COUNT];
+		features[COSINE] = (float) a.cosine(b);
+		features[WEIGHTED_OVERLAP] = weightedOverlap(a, b);
+		features[SEMEME_OVERLAP] = jaccard(SememeLca.distinct(sensesA),
+				SememeLca.distinct(sensesB));
+
+		int[][] distinctB = new int[sensesB.length][];
+		for (int t = 0; t < sensesB.length; t++) {
+			distinctB[t] = SememeLca.distinct(sensesB[t]);
+		}
+		float bestOverlap = 0;
+		float bestMatch = 0;
+		float sumMatch = 0;
+		for (int s = 0; s < sensesA.length; s++) {
+			int[] distinctA = SememeLca.distinct(sensesA[s]);
+			for (int t = 0; t < sensesB.length; t++) {
+				bestOverlap = Math.max(bestOverlap, jaccard(distinctA,
+						distinctB[t]));
+				float match = senseMatch(table, s, t);
+				bestMatch = Math.max(bestMatch, match);
+				sumMatch += match;
+			}
+		}
+		features[BEST_SENSE_OVERLAP] = bestOverlap;
+		features[BEST_SENSE_MATCH] = bestMatch;
+		features[MEAN_SENSE_MATCH] = sensesA.length * sensesB.length > 0 ? sumMatch
+				/ (sensesA.length * sensesB.length)
+				: 0;
+
+		int minDistance = -1;
+		float maxLcaDepth = 0;
+		int connected = 0;
+		int combinations = 0;
+		for (int s = 0; s < sensesA.length; s++) {
+			for (int t = 0; t < sensesB.length; t++) {
+				for (int i = 0; i < sensesA[s].length; i++) {
+					for (int j = 0; j < sensesB[t].length; j++) {
+						combinations++;
+						int d = table.getDistance(s, i, t, j);
+						if (d < 0) {
+							continue;
+						}
+						connected++;
+						if (minDistance < 0 || d < minDistance) {
+							minDistance = d;
+						}
+						int depth = mTree.getDepth(table.getFirstSememe(s, i))
+								+ mTree.getDepth(table.getSecondSememe(t, j))
+								+ 2;
+						int lca = mTree.getDepth(table.getLca(s, i, t, j)) + 1;
+						maxLcaDepth = Math.max(maxLcaDepth, 2.0f * lca / depth);
+					}
+				}
+			}
+		}
+		features[MIN_DISTANCE] = minDistance < 0 ? 0 : similarity(minDistance);
+		features[MAX_LCA_DEPTH] = maxLcaDepth;
+		features[CONNECTED] = combinations > 0 ? (float) connected
+				/ combinations : 0;
+
+		Set<String> posA = new HashSet<String>();
+		for (Pair<String, List<String>> sense : semanticsA) {
+			posA.add(sense.getFirst());
+		}
+		Set<String> posB = new HashSet<String>();
+		for (Pair<String, List<String>> sense : semanticsB) {
+			posB.add(sense.getFirst());
+		}
+		int common = 0;
+		for (String pos : posA) {
+			if (posB.contains(pos)) {
+				common++;
+			}
+		}
+		features[POS_OVERLAP] = (float) common
+				/ Math.max(1, posA.size() + posB.size() - common);
+		features[FIRST_POS_EQUAL] = !semanticsA.isEmpty()
+				&& !semanticsB.isEmpty()
+				&& semanticsA.get(0).getFirst()
+						.equals(semanticsB.get(0).getFirst()) ? 1 : 0;
+		features[SENSE_COUNT] = semanticsA.isEmpty() || semanticsB.isEmpty() ? 0
+				: (float) (1.0 / Math.sqrt(semanticsA.size()
+						* semanticsB.size()));
+		features[SAME_WORD] = first.equals(second) ? 1 : 0;
+		return features;
+	}
+
+	private static float similarity(int distance) {
+		return ALPHA / (ALPHA + distance);
+	}
+
+	/**
+	 * 第一个词语第s个义项与第二个词语第t个义项的相似度: 每个义原取对方义项中最相似的义原, 两个方向取平均
+	 */
+	private static float senseMatch(SememeLca.Table table, int s, int t) {
+		int m = table.getFirstSememeCount(s);
+		int n = table.getSecondSememeCount(t);
+		if (0 == m || 0 == n) {
+			return 0;
+		}
+		float forward = 0;
+		for (int i = 0; i < m; i++) {
+			float best = 0;
+			for (int j = 0; j < n; j++) {
+				int d = table.getDistance(s, i, t, j);
+				if (d >= 0) {
+					best = Math.max(best, similarity(d));
+				}
+			}
+			forward += best;
+		}
+		float backward = 0;
+		for (int j = 0; j < n; j++) {
+			float best = 0;
+			for (int i = 0; i < m; i++) {
+				int d = table.getDistance(s, i, t, j);
+				if (d >= 0) {
+					best = Math.max(best, similarity(d));
+				}
+			}
+			backward += best;
+		}
+		return (forward / m + backward / n) / 2;
+	}
+
+	private static float weightedOverlap(SparseVector a, SparseVector b) {
+		double min = 0;
+		double max = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.size() || j < b.size()) {
+			int ia = i < a.size() ? a.indexAt(i) : Integer.MAX_VALUE;
+			int ib = j < b.size() ? b.indexAt(j) : Integer.MAX_VALUE;
+			if (ia == ib) {
+				min += Math.min(a.valueAt(i), b.valueAt(j));
+				max += Math.max(a.valueAt(i), b.valueAt(j));
+				i++;
+				j++;
+			} else if (ia < ib) {
+				max += a.valueAt(i++);
+			} else {
+				max += b.valueAt(j++);
+			}
+		}
+		return max > 0 ? (float) (min / max) : 0;
+	}
+
+	/**
+	 * @return 两个排序去重的集合的Jaccard系数
+	 */
+	private static float jaccard(int[] a, int[] b) {
+		int common = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] == b[j]) {
+				common++;
+				i++;
+				j++;
+			} else if (a[i] < b[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		int union = a.length + b.length - common;
+		return union > 0 ? (float) common / union : 0;
+	}
+
+	private static double[] toDouble(float[] values) {
+		double[] result = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = values[i];
+		}
+		return result;
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * 由两个词语的向量计算相似度
+ */
+package org.neofung.hownet;
+
+/**
+ * PairScorer 由两个词语的归一化义原向量计算相似度, 实现类必须是线程安全的. 批量打分时神经网络对整批做一次前向计算:
+ * 第一层是CSR形式的输入乘第一层权值, 之后各层是稠密的矩阵乘法, 每一行权值被整批共用.
+ *
+ * @author neo
+ * @version 2013-04-24
+ */
+public interface PairScorer {
+
+	/**
+	 * 余弦相似度, 不需要训练好的网络
+	 */
+	PairScorer COSINE = new PairScorer() {
+		@Override
+		public float score(SparseVector a, SparseVector b) {
+			return (float) a.cosine(b);
+		}
+
+		@Override
+		public void score(SparseVector[] a, SparseVector[] b, int count,
+				float[] scores) {
+			for (int i = 0; i < count; i++) {
+				scores[i] = (float) a[i].cosine(b[i]);
+			}
+		}
+	};
+
+	/**
+	 * @param a
+	 *            第一个词语的归一化向量
+	 * @param b
+	 *            第二个词语的归一化向量
+	 * @return 相似度
+	 */
+	float score(SparseVector a, SparseVector b);
+
+	/**
+	 * 批量计算相似度, 结果与逐对调用score相同
+	 *
+	 * @param a
+	 *            第一个词语的归一化向量, 前count个有效
+	 * @param b
+	 *            第二个词语的归一化向量, 前count个有效
+	 * @param count
+	 *            词语对数
+	 * @param scores
+	 *            输出, 第i个是a[i]和b[i]的相似度
+	 */
+	void score(SparseVector[] a, SparseVector[] b, int count, float[] scores);
+}
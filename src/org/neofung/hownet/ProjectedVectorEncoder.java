@@ -0,0 +1,61 @@
+/**
+ * 两个词语的投影向量首尾相接
+ */
+package org.neofung.hownet;
+
+/**
+ * ProjectedVectorEncoder 与FullVectorEncoder相同, 但两个词语的归一化义原向量先由SememeProjection投影到固定的
+ * 维数, 输入的维数是投影维数的两倍, 与词典的义原数无关.
+ *
+ * @author neo
+ * @version 2013-05-15
+ */
+public final class ProjectedVectorEncoder implements PairEncoder {
+
+	private final NeuralNetwork mNetwork;
+	private final SememeProjection mProjection;
+
+	/**
+	 * @param network
+	 *            用于获取归一化义原向量
+	 * @param projection
+	 *            投影, 训练和使用时必须相同
+	 */
+	public ProjectedVectorEncoder(NeuralNetwork network,
+			SememeProjection projection) {
+		mNetwork = network;
+		mProjection = projection;
+	}
+
+	public SememeProjection getProjection() {
+		return mProjection;
+	}
+
+	@Override
+	public int getInputSize() {
+		return 2 * mProjection.getDimension();
+	}
+
+	@Override
+	public SparseVector encode(String first, String second) {
+		SparseVector a = mNetwork.getNormalizedVector(first);
+		SparseVector b = mNetwork.getNormalizedVector(second);
+		if (null == a || null == b) {
+			return null;
+		}
+		a = mProjection.project(a);
+		b = mProjection.project(b);
+		int offset = mProjection.getDimension();
+		int[] indices = new int[a.size() + b.size()];
+		float[] values = new float[indices.length];
+		for (int i = 0; i < a.size(); i++) {
+			indices[i] = a.indexAt(i);
+			values[i] = a.valueAt(i);
+		}
+		for (int i = 0; i < b.size(); i++) {
+			indices[a.size() + i] = offset + b.indexAt(i);
+			values[a.size() + i] = b.valueAt(i);
+		}
+		return new SparseVector(indices, values);
+	}
+}
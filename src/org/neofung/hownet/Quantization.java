@@ -0,0 +1,209 @@
+/**
+ * 神经网络权值的int8量化
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Quantization 把训练好的一层权值量化成int8. 按MATLAB的习惯权值矩阵以输出为行, 每个输出神经元(即一行)有一个
+ * float缩放系数, w[i][k] ≈ scale[k] * q[i][k]. 第一层的输入是两倍的义原数, 权值占了模型的绝大部分, 量化后
+ * 大约是原来的1/4.
+ * <p>
+ * 缩放系数由校准得到: 直接取每行的最大绝对值时, 少数很大的权值会使其它权值的精度变差, 因此在最大绝对值的
+ * 50%到100%之间搜索使重建误差最小的截断值, 超出的权值被截断到±127.
+ *
+ * @author neo
+ * @version 2013-05-12
+ */
+public final class Quantization {
+
+	// 截断值的候选个数
+	private static final int CLIP_STEPS = 32;
+
+	private final float[] mScales;
+	private final byte[] mValues;
+
+	private Quantization(float[] scales, byte[] values) {
+		mScales = scales;
+		mValues = values;
+	}
+
+	/**
+	 * 量化一层的权值
+	 *
+	 * @param weights
+	 *            以输入为行, 行优先保存的in * out个权值, 与MultiLayerPerceptron相同
+	 * @param in
+	 *            输入的个数
+	 * @param out
+	 *            输出的个数
+	 * @return 量化的结果
+	 */
+	public static Quantization quantize(float[] weights, int in, int out) {
+		float[] scales = new float[out];
+		byte[] values = new byte[in * out];
+		for (int k = 0; k < out; k++) {
+			float max = 0;
+			for (int i = 0; i < in; i++) {
+				max = Math.max(max, Math.abs(weights[i * out + k]));
+			}
+			if (0 == max) {
+				continue;
+			}
+			// 校准: 选择使这个输出神经元的平方误差最小的截断值
+			float best = max;
+			double bestError = Double.MAX_VALUE;
+			for (int step = 0; step < CLIP_STEPS; step++) {
+				float clip = max * (1.0f - 0.5f * step / CLIP_STEPS);
+				double error = error(weights, in, out, k, clip / 127);
+				if (error < bestError) {
+					bestError = error;
+					best = clip;
+				}
+			}
+			float scale = best / 127;
+			scales[k] = scale;
+			for (int i = 0; i < in; i++) {
+				values[i * out + k] = (byte) round(weights[i * out + k], scale);
+			}
+		}
+		return new Quantization(scales, values);
+	}
+
+	private static int round(float w, float scale) {
+		int q = Math.round(w / scale);
+		return Math.max(-127, Math.min(127, q));
+	}
+
+	private static double error(float[] weights, int in, int out, int k,
+			float scale) {
+		double sum = 0;
+		for (int i = 0; i < in; i++) {
+			float w = weights[i * out + k];
+			double d = w - scale * round(w, scale);
+			sum += d * d;
+		}
+		return sum;
+	}
+
+	/**
+	 * @return 每个输出神经元的缩放系数, 直接返回内部数组
+	 */
+	float[] getScales() {
+		return mScales;
+	}
+
+	/**
+	 * @return 以输入为行, 行优先保存的int8权值, 直接返回内部数组
+	 */
+	byte[] getValues() {
+		return mValues;
+	}
+
+	/**
+	 * @return 还原的float权值, 与输入的排列相同
+	 */
+	public float[] dequantize() {
+		int out = mScales.length;
+		float[] weights = new float[mValues.length];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = mScales[i % out] * mValues[i];
+		}
+		return weights;
+	}
+
+	/**
+	 * 在train/train-i上训练, 分别写出float32和第一层int8的模型文件, 在test/test-i上比较两者的相关系数
+	 *
+	 * @param args
+	 *            [训练文件 测试文件], 缺省时使用train和test目录中的10组数据
+	 */
+	public static void main(String[] args) throws IOException {
+		NeuralNetwork network = new NeuralNetwork();
+		HowNet hownet = network.getHowNet();
+		MlpTrainer trainer = new MlpTrainer();
+
+		List<String[]> folds = new ArrayList<String[]>();
+		if (args.length >= 2) {
+			folds.add(new String[] { args[0], args[1] });
+		} else {
+			for (int i = 0; i < 10; i++) {
+				folds.add(new String[] { "train/train-" + i, "test/test-" + i });
+			}
+		}
+
+		File floatFile = File.createTempFile("neo_model", ".f32");
+		File int8File = File.createTempFile("neo_model", ".i8");
+		double[] drops = new double[folds.size()];
+		try {
+			for (int f = 0; f < folds.size(); f++) {
+				String[] fold = folds.get(f);
+				Dataset train = Dataset.fromPairs(network, fold[0]);
+				Dataset test = Dataset.fromPairs(network, fold[1]);
+				MultiLayerPerceptron perceptron = trainer.train(train);
+				ModelFile.write(perceptron, hownet, floatFile, false);
+				ModelFile.write(perceptron, hownet, int8File, true);
+
+				float[] exact = predict(new InferenceEngine(
+						ModelFile.open(floatFile), hownet), network, fold[1]);
+				float[] quantized = predict(new InferenceEngine(
+						ModelFile.open(int8File), hownet), network, fold[1]);
+				double r = Statistics.pearson(exact, test.getTargets());
+				double q = Statistics.pearson(quantized, test.getTargets());
+				double maxError = 0;
+				for (int i = 0; i < exact.length; i++) {
+					maxError = Math.max(maxError,
+							Math.abs(exact[i] - quantized[i]));
+				}
+				drops[f] = r - q;
+				System.out.println(String.format(
+						"%s pearson float32 %.4f int8 %.4f drop %.4f, "
+								+ "max difference %.4f, %d -> %d bytes",
+						fold[1], r, q, drops[f], maxError, floatFile.length(),
+						int8File.length()));
+			}
+		} finally {
+			floatFile.delete();
+			int8File.delete();
+		}
+		double[] drop = Statistics.meanAndDeviation(drops);
+		System.out.println(String.format("pearson drop %.4f +- %.4f",
+				drop[0], drop[1]));
+	}
+
+	/**
+	 * 按Dataset.fromPairs的规则读取词语对并打分, 结果与数据集的行一一对应
+	 */
+	private static float[] predict(PairScorer scorer, NeuralNetwork network,
+			String path) throws IOException {
+		List<WordPair> pairs = new ArrayList<WordPair>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(path), "UTF-8"));
+		try {
+			for (WordPair pair : WordPair.lines(reader)) {
+				pairs.add(pair);
+			}
+		} finally {
+			reader.close();
+		}
+		float[] scores = new float[pairs.size()];
+		int n = 0;
+		for (WordPair pair : pairs) {
+			SparseVector a = network.getNormalizedVector(pair.getFirst());
+			SparseVector b = network.getNormalizedVector(pair.getSecond());
+			if (null == a || null == b || Float.isNaN(pair.getTarget())) {
+				continue;
+			}
+			scores[n++] = scorer.score(a, b);
+		}
+		return Arrays.copyOf(scores, n);
+	}
+}
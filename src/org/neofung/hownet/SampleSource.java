@@ -0,0 +1,43 @@
+/**
+ * 训练样本的来源
+ */
+package org.neofung.hownet;
+
+/**
+ * SampleSource 按行号随机读取CSR形式的样本, MlpTrainer每个mini-batch只通过它复制需要的行. Dataset在堆上,
+ * DatasetFile直接读取映射的文件, 训练大数据集时不需要先把整个文件复制到堆中. 实现类必须允许多个线程同时读取.
+ *
+ * @author neo
+ * @version 2013-05-21
+ */
+public interface SampleSource {
+
+	/**
+	 * @return 样本数
+	 */
+	int size();
+
+	/**
+	 * @return 每个样本的输入维数
+	 */
+	int getInputSize();
+
+	/**
+	 * @param row
+	 *            样本的序号
+	 * @return 目标值
+	 */
+	float getTarget(int row);
+
+	/**
+	 * @param row
+	 *            样本的序号
+	 * @return 这个样本的非零元素个数
+	 */
+	int getRowLength(int row);
+
+	/**
+	 * 把第row个样本的非零元素复制到indices和values的offset处, 下标升序
+	 */
+	void copyRow(int row, int[] indices, float[] values, int offset);
+}
@@ -0,0 +1,764 @@
+/**
+ * 相似词语检索的倒排索引
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SememeIndex 是全部词语的归一化义原向量的倒排索引, 用于查找与一个词语最相似(余弦相似度最大)的k个词语.
+ * 每个义原对应一个按词语序号排列的倒排表, 并记录倒排表中的最大权值. 查询使用MaxScore算法逐个词语地合并各义原的倒排表:
+ * 查询义原按得分上界从小到大排列, 上界之和不超过当前第k名得分的那些义原(通常是出现在大多数词语中的上层义原)不再
+ * 产生候选词语, 只在其余义原的候选词语上跳跃查找, 因此只需遍历较短的倒排表.
+ * <p>
+ * WAND和Block-Max WAND也试过, 但许多词语的向量完全相同, 它们在这份数据上并不比MaxScore快.
+ * <p>
+ * pruning参数控制召回率与延迟的折中: 为1时结果与逐个计算完全相同, 大于1时要求上界之和超过第k名得分的pruning倍
+ * 才计算, 跳过的词语更多, 但可能漏掉一些结果.
+ * <p>
+ * 文件格式(大端序), 读取时通过FileChannel.map映射整个文件:
+ *
+ * <pre>
+ * header:    magic, version, words, dimensionality, postings, reserved, 词典的指纹(long)
+ * words:     字符串表, 按UTF-8字节序排列, 下标即词语序号
+ * docStart:  int[words + 1]    每个词语向量的开始位置
+ * docTerms:  int[postings]     词语向量的义原ID号
+ * docValues: float[postings]   词语向量的权值
+ * termStart: int[dim + 1]      每个义原倒排表的开始位置
+ * termDocs:  int[postings]     倒排表中的词语序号
+ * termValues: float[postings]  倒排表中的权值
+ * maxValues: float[dim]        每个倒排表的最大权值
+ * </pre>
+ *
+ * 义原ID号随词典改变, 因此header记录建立索引时词典的指纹(HowNet.getFingerprint), open(File, NeuralNetwork)
+ * 发现指纹或者维数与当前词典不同时重新建立索引.
+ *
+ * @author neo
+ * @version 2013-04-26
+ */
+public final class SememeIndex {
+
+	public static final int MAGIC = 0x4E454F49; // "NEOI"
+	public static final int VERSION = 2;
+
+	static final String INDEX_FILE = "neo_index";
+
+	private static final int HEADER_SIZE = 6 * 4 + 8;
+
+	private final int mWordCount;
+	private final int mDimensionality;
+	private final long mFingerprint;
+	private final StringTable mWords;
+	private final IntBuffer mDocStart;
+	private final IntBuffer mDocTerms;
+	private final FloatBuffer mDocValues;
+	private final IntBuffer mTermStart;
+	private final IntBuffer mTermDocs;
+	private final FloatBuffer mTermValues;
+	private final FloatBuffer mMaxValues;
+
+	private SememeIndex(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("not an index file");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("unsupported index version "
+					+ buffer.getInt(4));
+		}
+		mWordCount = buffer.getInt(8);
+		mDimensionality = buffer.getInt(12);
+		int postings = buffer.getInt(16);
+		mFingerprint = buffer.getLong(24);
+		int offset = HEADER_SIZE;
+		mWords = new StringTable(slice(buffer, offset,
+				buffer.capacity() - offset));
+		if (mWords.size() != mWordCount) {
+			throw new IOException("corrupted index file");
+		}
+		offset += mWords.byteSize();
+		long expected = offset + 4L * (mWordCount + 1) + 8L * postings + 4L
+				* (mDimensionality + 1) + 8L * postings + 4L * mDimensionality;
+		if (expected != buffer.capacity()) {
+			throw new IOException("truncated index file");
+		}
+		mDocStart = slice(buffer, offset, 4 * (mWordCount + 1)).asIntBuffer();
+		offset += 4 * (mWordCount + 1);
+		mDocTerms = slice(buffer, offset, 4 * postings).asIntBuffer();
+		offset += 4 * postings;
+		mDocValues = slice(buffer, offset, 4 * postings).asFloatBuffer();
+		offset += 4 * postings;
+		mTermStart = slice(buffer, offset, 4 * (mDimensionality + 1))
+				.asIntBuffer();
+		offset += 4 * (mDimensionality + 1);
+		mTermDocs = slice(buffer, offset, 4 * postings).asIntBuffer();
+		offset += 4 * postings;
+		mTermValues = slice(buffer, offset, 4 * postings).asFloatBuffer();
+		offset += 4 * postings;
+		mMaxValues = slice(buffer, offset, 4 * mDimensionality)
+				.asFloatBuffer();
+	}
+
+	/**
+	 * 为知网中的全部词语建立索引, 索引保存在堆中
+	 */
+	public static SememeIndex build(NeuralNetwork network) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(network, new DataOutputStream(bytes));
+			return new SememeIndex(ByteBuffer.wrap(bytes.toByteArray()));
+		} catch (IOException e) {
+			// 写入内存不会抛出IOException
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 为知网中的全部词语建立索引并写入文件
+	 */
+	public static void write(NeuralNetwork network, File file)
+			throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp),
+						64 * 1024));
+		try {
+			write(network, out);
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+			throw new IOException("can not replace " + file);
+		}
+	}
+
+	private static void write(NeuralNetwork network, DataOutputStream out)
+			throws IOException {
+		List<String> words = network.getWords();
+		int n = words.size();
+		int dim = network.getDimensionality();
+		SparseVector[] vectors = new SparseVector[n];
+		int[] termCounts = new int[dim + 1];
+		int postings = 0;
+		for (int d = 0; d < n; d++) {
+			SparseVector vector = network.normalize(network.getVector(words
+					.get(d)));
+			vectors[d] = null == vector ? SparseVector.EMPTY : vector;
+			for (int i = 0; i < vectors[d].size(); i++) {
+				termCounts[vectors[d].indexAt(i) + 1]++;
+			}
+			postings += vectors[d].size();
+		}
+
+		// 词语向量转置成倒排表, 词语按序号顺序加入, 倒排表自然有序
+		int[] termStart = termCounts;
+		for (int t = 0; t < dim; t++) {
+			termStart[t + 1] += termStart[t];
+		}
+		int[] fill = Arrays.copyOf(termStart, dim);
+		int[] termDocs = new int[postings];
+		float[] termValues = new float[postings];
+		float[] maxValues = new float[dim];
+		for (int d = 0; d < n; d++) {
+			SparseVector vector = vectors[d];
+			for (int i = 0; i < vector.size(); i++) {
+				int t = vector.indexAt(i);
+				int p = fill[t]++;
+				termDocs[p] = d;
+				termValues[p] = vector.valueAt(i);
+				maxValues[t] = Math.max(maxValues[t], vector.valueAt(i));
+			}
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(n);
+		out.writeInt(dim);
+		out.writeInt(postings);
+		out.writeInt(0);
+		out.writeLong(network.getHowNet().getFingerprint());
+		StringTable.write(out, words.toArray(new String[n]));
+		int start = 0;
+		out.writeInt(start);
+		for (SparseVector vector : vectors) {
+			start += vector.size();
+			out.writeInt(start);
+		}
+		for (SparseVector vector : vectors) {
+			for (int i = 0; i < vector.size(); i++) {
+				out.writeInt(vector.indexAt(i));
+			}
+		}
+		for (SparseVector vector : vectors) {
+			for (int i = 0; i < vector.size(); i++) {
+				out.writeFloat(vector.valueAt(i));
+			}
+		}
+		for (int value : termStart) {
+			out.writeInt(value);
+		}
+		for (int value : termDocs) {
+			out.writeInt(value);
+		}
+		for (float value : termValues) {
+			out.writeFloat(value);
+		}
+		for (float value : maxValues) {
+			out.writeFloat(value);
+		}
+	}
+
+	/**
+	 * 以只读方式映射索引文件
+	 */
+	public static SememeIndex open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new SememeIndex(channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * 映射索引文件, 文件不存在, 无法读取或者不是由当前词典建立时重新建立
+	 *
+	 * @param file
+	 *            索引文件
+	 * @param network
+	 *            当前的词典
+	 * @return 与当前词典一致的索引
+	 */
+	public static SememeIndex open(File file, NeuralNetwork network)
+			throws IOException {
+		if (file.exists()) {
+			try {
+				SememeIndex index = open(file);
+				if (index.matches(network)) {
+					return index;
+				}
+			} catch (IOException e) {
+				// 旧版本或者损坏的文件, 重新建立
+			}
+		}
+		write(network, file);
+		return open(file);
+	}
+
+	/**
+	 * @return 索引是否由network当前的词典建立, 否则其中的义原ID号可能已经改变
+	 */
+	public boolean matches(NeuralNetwork network) {
+		return mDimensionality == network.getDimensionality()
+				&& mFingerprint == network.getHowNet().getFingerprint();
+	}
+
+	/**
+	 * @return 词语的数量
+	 */
+	public int getWordCount() {
+		return mWordCount;
+	}
+
+	/**
+	 * @return 义原向量的维数
+	 */
+	public int getDimensionality() {
+		return mDimensionality;
+	}
+
+	/**
+	 * @param index
+	 *            词语的序号
+	 * @return 词语
+	 */
+	public String getWord(int index) {
+		return mWords.decode(index);
+	}
+
+	/**
+	 * @return 词语的序号, 没有收录时返回-1
+	 */
+	public int findWord(String word) {
+		return mWords.find(word.getBytes(StringTable.UTF8));
+	}
+
+	/**
+	 * @param index
+	 *            词语的序号
+	 * @return 索引中保存的归一化义原向量
+	 */
+	public SparseVector getVector(int index) {
+		int start = mDocStart.get(index);
+		int end = mDocStart.get(index + 1);
+		int[] indices = new int[end - start];
+		float[] values = new float[end - start];
+		for (int p = start; p < end; p++) {
+			indices[p - start] = mDocTerms.get(p);
+			values[p - start] = mDocValues.get(p);
+		}
+		return new SparseVector(indices, values);
+	}
+
+	/**
+	 * 查找与word最相似的k个词语, 不包括word本身
+	 *
+	 * @param word
+	 *            词语
+	 * @param k
+	 *            结果的个数
+	 * @param pruning
+	 *            剪枝系数, 不小于1, 为1时结果是精确的
+	 * @return 按相似度从大到小排列的结果, 没有收录这个词语时返回空列表
+	 */
+	public List<Hit> search(String word, int k, float pruning) {
+		int index = findWord(word);
+		if (index < 0) {
+			return Collections.emptyList();
+		}
+		return search(getVector(index), k, pruning, index);
+	}
+
+	/**
+	 * 查找与归一化向量query最相似的k个词语, 索引中没有的义原ID号被忽略
+	 *
+	 * @param pruning
+	 *            剪枝系数, 不小于1, 为1时结果是精确的
+	 * @return 按相似度从大到小排列的结果
+	 */
+	public List<Hit> search(SparseVector query, int k, float pruning) {
+		return search(query, k, pruning, -1);
+	}
+
+	private List<Hit> search(SparseVector query, int k, float pruning,
+			int exclude) {
+		if (pruning < 1.0f) {
+			throw new IllegalArgumentException("pruning < 1");
+		}
+		TopK top = new TopK(k);
+		int count = query.size();
+		if (0 == count || k <= 0) {
+			return top.toHits();
+		}
+		// 每个查询义原一个游标, 按得分上界从小到大排序
+		Cursor[] cursors = new Cursor[count];
+		int live = 0;
+		for (int i = 0; i < count; i++) {
+			int t = query.indexAt(i);
+			if (t < 0 || t >= mDimensionality) {
+				// 索引中没有的义原
+				continue;
+			}
+			Cursor cursor = new Cursor(mTermStart.get(t),
+					mTermStart.get(t + 1), query.valueAt(i)
+							* mMaxValues.get(t), query.valueAt(i));
+			if (cursor.mPosition < cursor.mEnd) {
+				cursor.mDoc = mTermDocs.get(cursor.mPosition);
+				int j = live++ - 1;
+				while (j >= 0 && cursors[j].mBound > cursor.mBound) {
+					cursors[j + 1] = cursors[j];
+					j--;
+				}
+				cursors[j + 1] = cursor;
+			}
+		}
+		// bounds[i]是前i个游标的上界之和
+		float[] bounds = new float[live + 1];
+		for (int i = 0; i < live; i++) {
+			bounds[i + 1] = bounds[i] + cursors[i].mBound;
+		}
+
+		// 只有第essential个及以后的游标产生候选词语
+		int essential = 0;
+		float threshold = 0.0f;
+		while (essential < live) {
+			int doc = Integer.MAX_VALUE;
+			for (int i = essential; i < live; i++) {
+				doc = Math.min(doc, cursors[i].mDoc);
+			}
+			if (Integer.MAX_VALUE == doc) {
+				break;
+			}
+			float score = 0.0f;
+			for (int i = essential; i < live; i++) {
+				Cursor cursor = cursors[i];
+				if (cursor.mDoc == doc) {
+					score += cursor.mWeight
+							* mTermValues.get(cursor.mPosition);
+					advance(cursor, doc + 1);
+				}
+			}
+			// 其余的游标按上界从大到小补充得分, 不可能超过阈值时提前结束
+			for (int i = essential - 1; i >= 0; i--) {
+				if (score + bounds[i + 1] <= threshold) {
+					break;
+				}
+				Cursor cursor = cursors[i];
+				if (cursor.mDoc < doc) {
+					advance(cursor, doc);
+				}
+				if (cursor.mDoc == doc) {
+					score += cursor.mWeight
+							* mTermValues.get(cursor.mPosition);
+				}
+			}
+			if (doc != exclude) {
+				top.offer(doc, score);
+			}
+			if (top.isFull()) {
+				threshold = top.minScore() * pruning;
+				while (essential < live && bounds[essential + 1] <= threshold) {
+					essential++;
+				}
+			}
+		}
+		return top.toHits();
+	}
+
+	/**
+	 * 逐个计算全部词语的相似度, 用于检验召回率
+	 *
+	 * @return 按相似度从大到小排列的精确结果
+	 */
+	public List<Hit> searchExhaustive(SparseVector query, int k, int exclude) {
+		float[] scores = new float[mWordCount];
+		for (int i = 0; i < query.size(); i++) {
+			int t = query.indexAt(i);
+			if (t < 0 || t >= mDimensionality) {
+				continue;
+			}
+			float weight = query.valueAt(i);
+			for (int p = mTermStart.get(t); p < mTermStart.get(t + 1); p++) {
+				scores[mTermDocs.get(p)] += weight * mTermValues.get(p);
+			}
+		}
+		TopK top = new TopK(k);
+		for (int d = 0; d < mWordCount; d++) {
+			if (d != exclude && scores[d] > 0.0f) {
+				top.offer(d, scores[d]);
+			}
+		}
+		return top.toHits();
+	}
+
+	/**
+	 * 把游标移到第一个不小于target的词语, 倒排表中用倍增再二分的方法跳过
+	 */
+	private void advance(Cursor cursor, int target) {
+		int low = cursor.mPosition + 1;
+		int step = 1;
+		int high = low;
+		while (high < cursor.mEnd && mTermDocs.get(high) < target) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		high = Math.min(high, cursor.mEnd);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mTermDocs.get(mid) < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		cursor.mPosition = low;
+		cursor.mDoc = low < cursor.mEnd ? mTermDocs.get(low)
+				: Integer.MAX_VALUE;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice();
+	}
+
+	/**
+	 * 一个查询义原在倒排表上的位置
+	 */
+	private static final class Cursor {
+		int mPosition;
+		final int mEnd;
+		// 这个义原对任何词语得分的贡献上界
+		final float mBound;
+		final float mWeight;
+		int mDoc;
+
+		Cursor(int start, int end, float bound, float weight) {
+			mPosition = start;
+			mEnd = end;
+			mBound = bound;
+			mWeight = weight;
+		}
+	}
+
+	/**
+	 * 保留得分最高的k个词语的小顶堆
+	 */
+	private final class TopK {
+		private final int[] mDocs;
+		private final float[] mScores;
+		private int mSize;
+
+		TopK(int k) {
+			mDocs = new int[Math.max(0, k)];
+			mScores = new float[Math.max(0, k)];
+		}
+
+		boolean isFull() {
+			return mSize == mDocs.length;
+		}
+
+		float minScore() {
+			return mScores[0];
+		}
+
+		void offer(int doc, float score) {
+			if (0 == mDocs.length) {
+				return;
+			}
+			if (isFull()) {
+				if (score <= mScores[0]) {
+					return;
+				}
+				mDocs[0] = doc;
+				mScores[0] = score;
+				down(0);
+			} else {
+				int i = mSize++;
+				// 上浮
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (mScores[parent] <= score) {
+						break;
+					}
+					mDocs[i] = mDocs[parent];
+					mScores[i] = mScores[parent];
+					i = parent;
+				}
+				mDocs[i] = doc;
+				mScores[i] = score;
+			}
+		}
+
+		private void down(int i) {
+			int doc = mDocs[i];
+			float score = mScores[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= mSize) {
+					break;
+				}
+				if (child + 1 < mSize && mScores[child + 1] < mScores[child]) {
+					child++;
+				}
+				if (mScores[child] >= score) {
+					break;
+				}
+				mDocs[i] = mDocs[child];
+				mScores[i] = mScores[child];
+				i = child;
+			}
+			mDocs[i] = doc;
+			mScores[i] = score;
+		}
+
+		List<Hit> toHits() {
+			List<Hit> hits = new ArrayList<Hit>(mSize);
+			for (int i = 0; i < mSize; i++) {
+				hits.add(new Hit(mDocs[i], getWord(mDocs[i]), mScores[i]));
+			}
+			Collections.sort(hits);
+			return hits;
+		}
+	}
+
+	/**
+	 * 一个检索结果
+	 */
+	public static final class Hit implements Comparable<Hit> {
+		private final int mIndex;
+		private final String mWord;
+		private final float mScore;
+
+		Hit(int index, String word, float score) {
+			mIndex = index;
+			mWord = word;
+			mScore = score;
+		}
+
+		/**
+		 * @return 词语的序号
+		 */
+		public int getIndex() {
+			return mIndex;
+		}
+
+		public String getWord() {
+			return mWord;
+		}
+
+		/**
+		 * @return 余弦相似度
+		 */
+		public float getScore() {
+			return mScore;
+		}
+
+		@Override
+		public int compareTo(Hit other) {
+			int c = Float.compare(other.mScore, mScore);
+			return 0 != c ? c : mIndex - other.mIndex;
+		}
+
+		@Override
+		public String toString() {
+			return mWord + "\t" + mScore;
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("usage: SememeIndex [options] [word ...]");
+		System.out.println("  -index file  index file (default " + INDEX_FILE
+				+ "), built if missing or stale");
+		System.out.println("  -rebuild     rebuild the index file");
+		System.out.println("  -k n         results per query (default 20)");
+		System.out.println("  -pruning r   pruning factor >= 1 (default 1)");
+		System.out.println("  -bench n     compare n random queries with the");
+		System.out.println("               exhaustive search for several pruning factors");
+	}
+
+	/**
+	 * 输出与给定词语最相似的词语, 或者测试召回率和每秒查询数
+	 *
+	 * @param args
+	 *            见printUsage
+	 */
+	public static void main(String[] args) throws IOException {
+		String path = INDEX_FILE;
+		boolean rebuild = false;
+		int k = 20;
+		float pruning = 1.0f;
+		int bench = 0;
+		List<String> words = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-index".equals(arg)) {
+				path = args[++i];
+			} else if ("-rebuild".equals(arg)) {
+				rebuild = true;
+			} else if ("-k".equals(arg)) {
+				k = Integer.parseInt(args[++i]);
+			} else if ("-pruning".equals(arg)) {
+				pruning = Float.parseFloat(args[++i]);
+			} else if ("-bench".equals(arg)) {
+				bench = Integer.parseInt(args[++i]);
+			} else if (arg.startsWith("-")) {
+				printUsage();
+				return;
+			} else {
+				words.add(arg);
+			}
+		}
+		if (words.isEmpty() && 0 == bench) {
+			printUsage();
+			return;
+		}
+
+		File file = new File(path);
+		NeuralNetwork network = new NeuralNetwork();
+		long start = System.nanoTime();
+		long modified = file.lastModified();
+		if (rebuild) {
+			write(network, file);
+		}
+		SememeIndex index = open(file, network);
+		if (rebuild || file.lastModified() != modified) {
+			System.err.println("built " + file + " (" + file.length()
+					+ " bytes) in " + (System.nanoTime() - start) / 1000000
+					+ " ms");
+		}
+		for (String word : words) {
+			System.out.println("# " + word);
+			for (Hit hit : index.search(word, k, pruning)) {
+				System.out.println(hit);
+			}
+		}
+		if (bench > 0) {
+			benchmark(index, bench, k);
+		}
+	}
+
+	private static void benchmark(SememeIndex index, int queries, int k) {
+		Random random = new Random(1);
+		int[] docs = new int[queries];
+		for (int i = 0; i < queries; i++) {
+			docs[i] = random.nextInt(index.getWordCount());
+		}
+		SparseVector[] vectors = new SparseVector[queries];
+		for (int i = 0; i < queries; i++) {
+			vectors[i] = index.getVector(docs[i]);
+			// 预热
+			index.searchExhaustive(vectors[i], k, docs[i]);
+			index.search(vectors[i], k, 1.0f, docs[i]);
+		}
+		List<List<Hit>> exact = new ArrayList<List<Hit>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < queries; i++) {
+			exact.add(index.searchExhaustive(vectors[i], k, docs[i]));
+		}
+		report("exhaustive", queries, System.nanoTime() - start, 1.0);
+		for (float pruning : new float[] { 1.0f, 1.02f, 1.05f, 1.1f, 1.25f }) {
+			long matched = 0;
+			long expected = 0;
+			start = System.nanoTime();
+			List<List<Hit>> results = new ArrayList<List<Hit>>();
+			for (int i = 0; i < queries; i++) {
+				results.add(index.search(vectors[i], k, pruning, docs[i]));
+			}
+			long elapsed = System.nanoTime() - start;
+			for (int i = 0; i < queries; i++) {
+				matched += recalled(exact.get(i), results.get(i));
+				expected += exact.get(i).size();
+			}
+			report("pruning " + pruning, queries, elapsed,
+					0 == expected ? 1.0 : (double) matched / expected);
+		}
+	}
+
+	/**
+	 * 得分相同的词语可以互换, 因此按得分而不是按词语统计召回: 结果中得分不低于精确结果对应名次得分的个数
+	 */
+	private static int recalled(List<Hit> exact, List<Hit> result) {
+		int n = 0;
+		for (int i = 0; i < exact.size() && i < result.size(); i++) {
+			if (result.get(i).getScore() >= exact.get(i).getScore() - 1e-6f) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private static void report(String name, int queries, long nanos,
+			double recall) {
+		System.out.println(String.format("%-20s %8.0f qps  recall@k %.4f",
+				name, queries * 1e9 / Math.max(1, nanos), recall));
+	}
+}
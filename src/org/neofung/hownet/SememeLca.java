@@ -0,0 +1,391 @@
+/**
+ * 义原层次树上的最近公共祖先和距离
+ */
+package org.neofung.hownet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * SememeLca 用欧拉序加稀疏表在O(1)时间内求两个义原的最近公共祖先, 进而得到两个义原在层次树上的距离.
+ * 义原层次是一个森林(WHOLE.DAT有多个根, 关系义原和符号义原不在WHOLE.DAT中, 各自单独成树), 不在同一棵树中
+ * 的两个义原没有公共祖先, 距离为-1.
+ * <p>
+ * 欧拉序对森林中的每棵树依次做深度优先遍历, 每进入和退回一个节点都记录一次, 长度为2n - 树的个数. 稀疏表的第k层
+ * 保存欧拉序中每个长度为2^k的区间内深度最小的节点, 两个节点的最近公共祖先就是它们第一次出现的位置之间深度最小的节点.
+ * 构造后只读, 可以被多个线程共享.
+ *
+ * @author neo
+ * @version 2013-04-28
+ */
+public final class SememeLca {
+
+	private final SememeTree mTree;
+	// 每个义原所在的树的根
+	private final int[] mRoot;
+	// 每个义原在欧拉序中第一次出现的位置
+	private final int[] mFirst;
+	// mTable[k][i]是欧拉序[i, i + 2^k)中深度最小的义原
+	private final int[][] mTable;
+
+	/**
+	 * @param tree
+	 *            义原层次树
+	 */
+	public SememeLca(SememeTree tree) {
+		mTree = tree;
+		int n = tree.size();
+		mRoot = new int[n];
+		mFirst = new int[n];
+		int[] euler = new int[Math.max(1, 2 * n)];
+		int length = 0;
+
+		// 非递归的深度优先遍历, next[d]是栈中第d个节点下一个要访问的下位义
+		int[] stack = new int[n];
+		int[] next = new int[n];
+		for (int root = 0; root < n; root++) {
+			if (tree.getParent(root) >= 0) {
+				continue;
+			}
+			int top = 0;
+			stack[0] = root;
+			next[0] = 0;
+			mRoot[root] = root;
+			mFirst[root] = length;
+			euler[length++] = root;
+			while (top >= 0) {
+				int node = stack[top];
+				if (next[top] < tree.getChildCount(node)) {
+					int child = tree.getChild(node, next[top]++);
+					stack[++top] = child;
+					next[top] = 0;
+					mRoot[child] = root;
+					mFirst[child] = length;
+					euler[length++] = child;
+				} else if (--top >= 0) {
+					euler[length++] = stack[top];
+				}
+			}
+		}
+
+		int levels = 1;
+		while ((1 << levels) <= length) {
+			levels++;
+		}
+		mTable = new int[levels][];
+		mTable[0] = Arrays.copyOf(euler, length);
+		for (int k = 1; k < levels; k++) {
+			int half = 1 << (k - 1);
+			int[] previous = mTable[k - 1];
+			int[] current = new int[length - (1 << k) + 1];
+			for (int i = 0; i < current.length; i++) {
+				current[i] = shallower(previous[i], previous[i + half]);
+			}
+			mTable[k] = current;
+		}
+	}
+
+	private int shallower(int a, int b) {
+		return mTree.getDepth(a) <= mTree.getDepth(b) ? a : b;
+	}
+
+	/**
+	 * @return 义原层次树
+	 */
+	public SememeTree getTree() {
+		return mTree;
+	}
+
+	/**
+	 * @param id
+	 *            义原ID号
+	 * @return 义原所在的树的根
+	 */
+	public int getRoot(int id) {
+		return mRoot[id];
+	}
+
+	/**
+	 * 最近公共祖先
+	 *
+	 * @param a
+	 *            义原ID号
+	 * @param b
+	 *            义原ID号
+	 * @return 最近公共祖先的ID号, 不在同一棵树中则返回-1
+	 */
+	public int lca(int a, int b) {
+		if (mRoot[a] != mRoot[b]) {
+			return -1;
+		}
+		int from = mFirst[a];
+		int to = mFirst[b];
+		if (from > to) {
+			int t = from;
+			from = to;
+			to = t;
+		}
+		int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+		return shallower(mTable[k][from], mTable[k][to - (1 << k) + 1]);
+	}
+
+	/**
+	 * 两个义原在层次树上的距离, 即经过的边数
+	 *
+	 * @param a
+	 *            义原ID号
+	 * @param b
+	 *            义原ID号
+	 * @return 距离, 不在同一棵树中则返回-1
+	 */
+	public int distance(int a, int b) {
+		int c = lca(a, b);
+		if (c < 0) {
+			return -1;
+		}
+		return mTree.getDepth(a) + mTree.getDepth(b) - 2 * mTree.getDepth(c);
+	}
+
+	/**
+	 * 计算两个词语全部义项之间的义原组合. 每个词语出现的不同义原只计算一次.
+	 *
+	 * @param first
+	 *            第一个词语每个义项的义原ID号
+	 * @param second
+	 *            第二个词语每个义项的义原ID号
+	 * @return 全部义原组合的最近公共祖先和距离
+	 */
+	public Table table(int[][] first, int[][] second) {
+		int[] rows = distinct(first);
+		int[] columns = distinct(second);
+		int[] lca = new int[rows.length * columns.length];
+		int[] distance = new int[lca.length];
+		for (int r = 0; r < rows.length; r++) {
+			int a = rows[r];
+			for (int c = 0; c < columns.length; c++) {
+				int b = columns[c];
+				int ancestor = lca(a, b);
+				int i = r * columns.length + c;
+				lca[i] = ancestor;
+				distance[i] = ancestor < 0 ? -1 : mTree.getDepth(a)
+						+ mTree.getDepth(b) - 2 * mTree.getDepth(ancestor);
+			}
+		}
+		return new Table(rows, columns, positions(first, rows), positions(
+				second, columns), lca, distance);
+	}
+
+	/**
+	 * @param senses
+	 *            若干义项的义原ID号
+	 * @return 排序去重后的全部义原
+	 */
+	static int[] distinct(int[]... senses) {
+		int count = 0;
+		for (int[] sense : senses) {
+			count += sense.length;
+		}
+		int[] all = new int[count];
+		int n = 0;
+		for (int[] sense : senses) {
+			System.arraycopy(sense, 0, all, n, sense.length);
+			n += sense.length;
+		}
+		Arrays.sort(all);
+		n = 0;
+		for (int i = 0; i < all.length; i++) {
+			if (0 == i || all[i] != all[i - 1]) {
+				all[n++] = all[i];
+			}
+		}
+		return Arrays.copyOf(all, n);
+	}
+
+	/**
+	 * @return 每个义项的每个义原在sememes中的位置
+	 */
+	private static int[][] positions(int[][] senses, int[] sememes) {
+		int[][] positions = new int[senses.length][];
+		for (int s = 0; s < senses.length; s++) {
+			positions[s] = new int[senses[s].length];
+			for (int i = 0; i < senses[s].length; i++) {
+				positions[s][i] = Arrays.binarySearch(sememes, senses[s][i]);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * 两个词语全部义原组合的最近公共祖先和距离, 以两个词语各自不同的义原为行和列保存
+	 */
+	public static final class Table {
+		private final int[] mRows;
+		private final int[] mColumns;
+		private final int[][] mFirstSenses;
+		private final int[][] mSecondSenses;
+		private final int[] mLca;
+		private final int[] mDistance;
+
+		Table(int[] rows, int[] columns, int[][] firstSenses,
+				int[][] secondSenses, int[] lca, int[] distance) {
+			mRows = rows;
+			mColumns = columns;
+			mFirstSenses = firstSenses;
+			mSecondSenses = secondSenses;
+			mLca = lca;
+			mDistance = distance;
+		}
+
+		/**
+		 * @return 第一个词语的义项数
+		 */
+		public int getFirstSenseCount() {
+			return mFirstSenses.length;
+		}
+
+		/**
+		 * @return 第二个词语的义项数
+		 */
+		public int getSecondSenseCount() {
+			return mSecondSenses.length;
+		}
+
+		/**
+		 * @return 第一个词语第sense个义项的义原数
+		 */
+		public int getFirstSememeCount(int sense) {
+			return mFirstSenses[sense].length;
+		}
+
+		/**
+		 * @return 第二个词语第sense个义项的义原数
+		 */
+		public int getSecondSememeCount(int sense) {
+			return mSecondSenses[sense].length;
+		}
+
+		/**
+		 * @return 第一个词语第sense个义项的第i个义原的ID号
+		 */
+		public int getFirstSememe(int sense, int i) {
+			return mRows[mFirstSenses[sense][i]];
+		}
+
+		/**
+		 * @return 第二个词语第sense个义项的第j个义原的ID号
+		 */
+		public int getSecondSememe(int sense, int j) {
+			return mColumns[mSecondSenses[sense][j]];
+		}
+
+		/**
+		 * @return 第一个词语第s个义项的第i个义原与第二个词语第t个义项的第j个义原的最近公共祖先, 没有则返回-1
+		 */
+		public int getLca(int s, int i, int t, int j) {
+			return mLca[index(s, i, t, j)];
+		}
+
+		/**
+		 * @return 第一个词语第s个义项的第i个义原与第二个词语第t个义项的第j个义原的距离, 不在同一棵树中则返回-1
+		 */
+		public int getDistance(int s, int i, int t, int j) {
+			return mDistance[index(s, i, t, j)];
+		}
+
+		/**
+		 * @return 第一个词语第s个义项与第二个词语第t个义项之间全部义原组合的最小距离, 没有连通的组合则返回-1
+		 */
+		public int getMinDistance(int s, int t) {
+			int min = -1;
+			for (int r : mFirstSenses[s]) {
+				for (int c : mSecondSenses[t]) {
+					int d = mDistance[r * mColumns.length + c];
+					if (d >= 0 && (min < 0 || d < min)) {
+						min = d;
+					}
+				}
+			}
+			return min;
+		}
+
+		private int index(int s, int i, int t, int j) {
+			return mFirstSenses[s][i] * mColumns.length + mSecondSenses[t][j];
+		}
+	}
+
+	/**
+	 * 与沿getFather逐个字符串查找的结果对比, 并测试每秒查询数
+	 *
+	 * @param args
+	 *            [查询次数]
+	 */
+	public static void main(String[] args) {
+		int queries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		HowNet hownet = new HowNet();
+		SememeTree tree = hownet.getSememeTree();
+		long start = System.nanoTime();
+		SememeLca lca = new SememeLca(tree);
+		System.out.println(tree.size() + " sememes, built in "
+				+ (System.nanoTime() - start) / 1000 + " us");
+
+		String[] names = new String[tree.size()];
+		for (Entry<String, Integer> entry : hownet
+				.getSememesMap().entrySet()) {
+			names[entry.getValue().intValue()] = entry.getKey();
+		}
+		Random random = new Random(1);
+		int[] a = new int[queries];
+		int[] b = new int[queries];
+		for (int i = 0; i < queries; i++) {
+			a[i] = random.nextInt(tree.size());
+			b[i] = random.nextInt(tree.size());
+		}
+
+		int checked = Math.min(queries, 100000);
+		int mismatches = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < checked; i++) {
+			if (walkDistance(hownet, names[a[i]], names[b[i]]) != lca.distance(
+					a[i], b[i])) {
+				mismatches++;
+			}
+		}
+		long walk = System.nanoTime() - start;
+		System.out.println(String.format(
+				"getFather walk: %d pairs, %.0f ns/pair, %d mismatches",
+				checked, (double) walk / checked, mismatches));
+
+		long sum = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < queries; i++) {
+			sum += lca.distance(a[i], b[i]);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format(
+				"sparse table:   %d pairs, %.1f ns/pair (checksum %d)",
+				queries, (double) elapsed / queries, sum));
+	}
+
+	/**
+	 * 原来的做法: 沿getFather收集a的全部祖先, 再沿getFather找到b的第一个公共祖先
+	 */
+	private static int walkDistance(HowNet hownet, String a, String b) {
+		Map<String, Integer> ancestors = new HashMap<String, Integer>();
+		int depth = 0;
+		for (String s = a; null != s; s = hownet.getFather(s)) {
+			ancestors.put(s, Integer.valueOf(depth++));
+		}
+		depth = 0;
+		for (String s = b; null != s; s = hownet.getFather(s)) {
+			Integer up = ancestors.get(s);
+			if (null != up) {
+				return up.intValue() + depth;
+			}
+			depth++;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * 义原向量到固定维数的随机投影
+ */
+package org.neofung.hownet;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * SememeProjection 把义原向量投影到固定的维数. 每个义原由它的名字和随机种子散列到density个分量, 每个分量的
+ * 符号也由散列决定, 权值为±1/sqrt(density); density为1时就是feature hashing, 大于1时是稀疏随机投影.
+ * 投影后向量的内积近似保持, 维数与义原数无关.
+ * <p>
+ * 散列使用义原的名字而不是ID号, 因此词典重新构造后义原ID号改变, 或者sortSememes增加了新的义原, 已有义原的投影
+ * 都不变, 用投影向量训练的网络大小也不变. 投影直接由非零分量计算, 不构造稠密向量.
+ * <p>
+ * 只读, 可以被多个线程共享.
+ *
+ * @author neo
+ * @version 2013-05-15
+ */
+public final class SememeProjection {
+
+	private final int mDimension;
+	private final int mDensity;
+	private final long mSeed;
+	// 第id个义原的第k个分量是mBuckets[id * mDensity + k], 权值是mWeights[id * mDensity + k]
+	private final int[] mBuckets;
+	private final float[] mWeights;
+
+	/**
+	 * @param hownet
+	 *            词典, 用于获取义原的名字
+	 * @param dimension
+	 *            投影后的维数
+	 * @param density
+	 *            每个义原散列到的分量数
+	 * @param seed
+	 *            随机种子, 训练和使用时必须相同
+	 */
+	public SememeProjection(HowNet hownet, int dimension, int density,
+			long seed) {
+		if (dimension <= 0 || density <= 0) {
+			throw new IllegalArgumentException("dimension " + dimension
+					+ ", density " + density);
+		}
+		mDimension = dimension;
+		mDensity = density;
+		mSeed = seed;
+		int count = hownet.getSememesCount();
+		mBuckets = new int[count * density];
+		mWeights = new float[count * density];
+		float weight = (float) (1.0 / Math.sqrt(density));
+		for (Entry<String, Integer> entry : hownet.getSememesMap().entrySet()) {
+			int id = entry.getValue().intValue();
+			long hash = entry.getKey().hashCode();
+			for (int k = 0; k < density; k++) {
+				long h = mix(seed + hash * 0x9E3779B97F4A7C15L + k);
+				mBuckets[id * density + k] = (int) ((h >>> 1) % dimension);
+				mWeights[id * density + k] = 0 == (h & 1) ? weight : -weight;
+			}
+		}
+	}
+
+	/**
+	 * SplitMix64的最后一步
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return 投影后的维数
+	 */
+	public int getDimension() {
+		return mDimension;
+	}
+
+	public int getDensity() {
+		return mDensity;
+	}
+
+	public long getSeed() {
+		return mSeed;
+	}
+
+	/**
+	 * 投影一个义原向量, 落到同一分量的权值相加
+	 *
+	 * @param vector
+	 *            以义原ID号为下标的向量, 超出词典的ID号被忽略
+	 * @return 下标小于getDimension()的向量, 非零分量数不超过vector.size() * density
+	 */
+	public SparseVector project(SparseVector vector) {
+		int count = 0;
+		// 高32位是分量, 低32位是在buckets中的位置, 排序后相同的分量相邻
+		long[] keys = new long[vector.size() * mDensity];
+		float[] values = new float[keys.length];
+		int sememes = mBuckets.length / mDensity;
+		for (int p = 0; p < vector.size(); p++) {
+			int id = vector.indexAt(p);
+			if (id >= sememes) {
+				continue;
+			}
+			float value = vector.valueAt(p);
+			for (int k = 0; k < mDensity; k++) {
+				int slot = id * mDensity + k;
+				keys[count] = ((long) mBuckets[slot] << 32) | count;
+				values[count] = value * mWeights[slot];
+				count++;
+			}
+		}
+		if (0 == count) {
+			return SparseVector.EMPTY;
+		}
+		Arrays.sort(keys, 0, count);
+
+		int[] indices = new int[count];
+		float[] sums = new float[count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			int bucket = (int) (keys[i] >>> 32);
+			float value = values[(int) keys[i]];
+			if (n > 0 && indices[n - 1] == bucket) {
+				sums[n - 1] += value;
+			} else {
+				indices[n] = bucket;
+				sums[n] = value;
+				n++;
+			}
+		}
+		return new SparseVector(Arrays.copyOf(indices, n),
+				Arrays.copyOf(sums, n));
+	}
+
+	/**
+	 * 比较随机词语对投影前后的余弦相似度
+	 *
+	 * @param args
+	 *            [密度], 缺省为1
+	 */
+	public static void main(String[] args) {
+		int density = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		NeuralNetwork network = new NeuralNetwork();
+		HowNet hownet = network.getHowNet();
+		List<String> words = network.getWords();
+		Random random = new Random(1);
+		int pairs = 20000;
+		String[] first = new String[pairs];
+		String[] second = new String[pairs];
+		for (int i = 0; i < pairs; i++) {
+			first[i] = words.get(random.nextInt(words.size()));
+			second[i] = words.get(random.nextInt(words.size()));
+		}
+		System.out.println("sememes " + hownet.getSememesCount());
+		for (int dimension : new int[] { 128, 256, 512, 1024, 2048 }) {
+			SememeProjection projection = new SememeProjection(hownet,
+					dimension, density, 1);
+			double error = 0;
+			long nonZeros = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < pairs; i++) {
+				SparseVector a = network.getNormalizedVector(first[i]);
+				SparseVector b = network.getNormalizedVector(second[i]);
+				SparseVector pa = projection.project(a);
+				SparseVector pb = projection.project(b);
+				error += Math.abs(a.cosine(b) - pa.cosine(pb));
+				nonZeros += pa.size() + pb.size();
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.println(String.format(
+					"dimension %d density %d: mean |cosine error| %.4f, "
+							+ "%.1f non-zeros per vector, %d ns per pair",
+					dimension, density, error / pairs, (double) nonZeros
+							/ (2 * pairs), elapsed / pairs));
+		}
+	}
+}
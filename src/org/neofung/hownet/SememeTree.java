@@ -0,0 +1,161 @@
+/**
+ * 以义原ID号为下标的义原层次树
+ */
+package org.neofung.hownet;
+
+import java.util.Arrays;
+
+/**
+ * SememeTree 把WHOLE.DAT的上下位关系一次性整理成基本类型的数组, 全部以义原ID号为下标:
+ * mParent是上位义的ID号(根节点和不在WHOLE.DAT中的义原为-1), mDepth是深度(根节点为0),
+ * mChildStart和mChildren以CSR的形式保存下位义, mLeaf记录哪些义原没有下位义.
+ *
+ * @author neo
+ * @version 2013-04-12
+ */
+public final class SememeTree {
+
+	private final int[] mParent;
+	private final int[] mDepth;
+	private final int[] mChildStart;
+	private final int[] mChildren;
+	private final long[] mLeaf;
+
+	// WHOLE.DAT每一行的义原ID号
+	private final int[] mWholeSememes;
+
+	/**
+	 * @param sememeCount
+	 *            义原的总数, 包括不在WHOLE.DAT中的关系义原和符号义原
+	 * @param wholeSememes
+	 *            WHOLE.DAT每一行的义原ID号
+	 * @param wholeParents
+	 *            WHOLE.DAT每一行的上位义所在的行号, 根节点指向自身
+	 */
+	public SememeTree(int sememeCount, int[] wholeSememes, int[] wholeParents) {
+		mWholeSememes = wholeSememes.clone();
+		mParent = new int[sememeCount];
+		Arrays.fill(mParent, -1);
+		for (int i = 0; i < wholeSememes.length; i++) {
+			int father = wholeParents[i];
+			// 同一个义原出现多次时以最后一行为准, 与HowNet.sortFather一致
+			mParent[wholeSememes[i]] = (father == i) ? -1
+					: wholeSememes[father];
+		}
+
+		mDepth = new int[sememeCount];
+		Arrays.fill(mDepth, -1);
+		int[] path = new int[sememeCount];
+		for (int id = 0; id < sememeCount; id++) {
+			// 沿上位义走到已知深度的祖先, 再沿路径回填深度
+			int length = 0;
+			int node = id;
+			while (node >= 0 && mDepth[node] < 0) {
+				if (length == sememeCount) {
+					throw new IllegalStateException("cycle in sememe tree at "
+							+ id);
+				}
+				path[length++] = node;
+				node = mParent[node];
+			}
+			int depth = node < 0 ? -1 : mDepth[node];
+			while (length > 0) {
+				mDepth[path[--length]] = ++depth;
+			}
+		}
+
+		mChildStart = new int[sememeCount + 1];
+		for (int id = 0; id < sememeCount; id++) {
+			if (mParent[id] >= 0) {
+				mChildStart[mParent[id] + 1]++;
+			}
+		}
+		for (int id = 0; id < sememeCount; id++) {
+			mChildStart[id + 1] += mChildStart[id];
+		}
+		mChildren = new int[mChildStart[sememeCount]];
+		int[] fill = Arrays.copyOf(mChildStart, sememeCount);
+		for (int id = 0; id < sememeCount; id++) {
+			if (mParent[id] >= 0) {
+				mChildren[fill[mParent[id]]++] = id;
+			}
+		}
+
+		mLeaf = new long[(sememeCount + 63) >>> 6];
+		for (int id = 0; id < sememeCount; id++) {
+			if (mChildStart[id] == mChildStart[id + 1]) {
+				mLeaf[id >>> 6] |= 1L << id;
+			}
+		}
+	}
+
+	/**
+	 * @return 义原的总数
+	 */
+	public int size() {
+		return mParent.length;
+	}
+
+	/**
+	 * @param id
+	 *            义原ID号
+	 * @return 上位义的ID号, 没有上位义则返回-1
+	 */
+	public int getParent(int id) {
+		return mParent[id];
+	}
+
+	/**
+	 * @param id
+	 *            义原ID号
+	 * @return 义原在层次树中的深度, 根节点为0
+	 */
+	public int getDepth(int id) {
+		return mDepth[id];
+	}
+
+	/**
+	 * @param id
+	 *            义原ID号
+	 * @return 是否没有下位义
+	 */
+	public boolean isLeaf(int id) {
+		return (mLeaf[id >>> 6] & (1L << id)) != 0;
+	}
+
+	/**
+	 * @param id
+	 *            义原ID号
+	 * @return 下位义的个数
+	 */
+	public int getChildCount(int id) {
+		return mChildStart[id + 1] - mChildStart[id];
+	}
+
+	/**
+	 * @param id
+	 *            义原ID号
+	 * @param i
+	 *            第i个下位义
+	 * @return 下位义的ID号
+	 */
+	public int getChild(int id, int i) {
+		return mChildren[mChildStart[id] + i];
+	}
+
+	/**
+	 * @return WHOLE.DAT的行数
+	 */
+	public int getWholeCount() {
+		return mWholeSememes.length;
+	}
+
+	/**
+	 * @param line
+	 *            WHOLE.DAT的行号
+	 * @return 这一行的义原ID号
+	 */
+	public int getWholeSememe(int line) {
+		return mWholeSememes[line];
+	}
+}
@@ -0,0 +1,392 @@
+/**
+ * 义项级别的相似度
+ */
+package org.neofung.hownet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SenseScorer 为每个义项单独保存归一化义原向量, 用义项之间的余弦相似度代替getVector合并全部义项后的余弦相似度.
+ * 多义词合并后的向量混合了不相关的意思, 而逐对计算义项的代价是义项数的乘积, 对"打"这样有几十个义项的词语很慢.
+ * <p>
+ * 因此每个词语还保存一个包络向量, 每个分量取全部义项向量的最大值, 以及包络的每个义原出现在哪些义项中(倒排表).
+ * 向量都是非负的, 第一个词语第s个义项与第二个词语任一义项的余弦相似度不超过它与第二个词语包络的点积; 这个上界
+ * 只需要查一次表. 计算第s个义项与第二个词语全部义项的相似度时, 沿倒排表累加, 只访问共同的义原.
+ * <p>
+ * MAX按上界从大到小计算第一个词语的义项, 上界不超过已有的最好结果时停止; BEST_MATCH需要全部义项对, 只跳过上界
+ * 为0的义项. 结果与逐对计算点积完全相同.
+ * <p>
+ * 词语的义项向量缓存在有界的TINY_LFU缓存中. 线程安全.
+ *
+ * @author neo
+ * @version 2013-05-16
+ */
+public final class SenseScorer implements WordScorer {
+
+	/**
+	 * 义项相似度的合并方法
+	 */
+	public enum Mode {
+		/** 最相似的一对义项 */
+		MAX,
+		/** 每个义项取对方最相似的义项, 两个词语各自平均后再平均 */
+		BEST_MATCH
+	}
+
+	// 缓存的默认词语数
+	private static final int CACHE_SIZE = 20000;
+
+	private final NeuralNetwork mNetwork;
+	private final Mode mMode;
+	private final EvictionPolicy<String, Senses> mCache;
+	// 义原ID号在第二个词语包络中的位置, 不在包络中为-1; 每次使用后恢复
+	private final ThreadLocal<int[]> mSlots;
+
+	/**
+	 * @param network
+	 *            用于获取义项向量
+	 * @param mode
+	 *            义项相似度的合并方法
+	 */
+	public SenseScorer(NeuralNetwork network, Mode mode) {
+		mNetwork = network;
+		mMode = mode;
+		mCache = VectorCache.Policy.TINY_LFU.create(CACHE_SIZE);
+		final int dimensionality = network.getDimensionality();
+		mSlots = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				int[] slots = new int[dimensionality];
+				Arrays.fill(slots, -1);
+				return slots;
+			}
+		};
+	}
+
+	public Mode getMode() {
+		return mMode;
+	}
+
+	@Override
+	public float score(String first, String second) {
+		Senses a = senses(first);
+		Senses b = senses(second);
+		if (null == a || null == b) {
+			return Float.NaN;
+		}
+		int m = a.size();
+		int n = b.size();
+		if (0 == m || 0 == n) {
+			return 0;
+		}
+		int[] slots = mSlots.get();
+		int[] ids = b.envelope.ids;
+		for (int k = 0; k < ids.length; k++) {
+			slots[ids[k]] = k;
+		}
+		try {
+			return score(a, b, slots);
+		} finally {
+			for (int id : ids) {
+				slots[id] = -1;
+			}
+		}
+	}
+
+	private float score(Senses a, Senses b, int[] slots) {
+		int m = a.size();
+		int n = b.size();
+		float[] bounds = new float[m];
+		for (int s = 0; s < m; s++) {
+			bounds[s] = bound(a.vectors[s], b, slots);
+		}
+		double[] row = new double[n];
+		int computed = 0;
+		float result;
+		if (Mode.MAX == mMode) {
+			// 按上界从大到小; 上界是非负float, 位模式与数值的大小顺序一致, 取反后升序排序即是从大到小
+			long[] order = new long[m];
+			for (int s = 0; s < m; s++) {
+				order[s] = ((long) ~Float.floatToIntBits(bounds[s]) << 32) | s;
+			}
+			Arrays.sort(order);
+			float best = 0;
+			for (long key : order) {
+				int s = (int) key;
+				if (bounds[s] <= best) {
+					break;
+				}
+				row(a.vectors[s], b, slots, row);
+				computed++;
+				for (int t = 0; t < n; t++) {
+					best = Math.max(best, (float) row[t]);
+				}
+			}
+			result = best;
+		} else {
+			float[] columns = new float[n];
+			float sumA = 0;
+			for (int s = 0; s < m; s++) {
+				if (0 == bounds[s]) {
+					continue;
+				}
+				row(a.vectors[s], b, slots, row);
+				computed++;
+				float best = 0;
+				for (int t = 0; t < n; t++) {
+					float cosine = (float) row[t];
+					best = Math.max(best, cosine);
+					columns[t] = Math.max(columns[t], cosine);
+				}
+				sumA += best;
+			}
+			float sumB = 0;
+			for (float column : columns) {
+				sumB += column;
+			}
+			result = (sumA / m + sumB / n) / 2;
+		}
+		Metrics.SENSE_PAIRS_SCORED.add(computed * n);
+		Metrics.SENSE_PAIRS_PRUNED.add((m - computed) * n);
+		return result;
+	}
+
+	/**
+	 * @return vector与第二个词语任一义项的点积的上界, 即与包络的点积, 放大一点以免舍入误差
+	 */
+	private static float bound(SparseVector vector, Senses b, int[] slots) {
+		double sum = 0;
+		for (int i = 0; i < vector.size(); i++) {
+			int k = slots[vector.indexAt(i)];
+			if (k >= 0) {
+				sum += vector.valueAt(i) * b.envelope.values[k];
+			}
+		}
+		return (float) (sum * 1.0001);
+	}
+
+	/**
+	 * 沿倒排表计算vector与第二个词语每个义项的点积. 对每个义项, 累加的顺序与SparseVector.dot相同.
+	 */
+	private static void row(SparseVector vector, Senses b, int[] slots,
+			double[] row) {
+		Arrays.fill(row, 0.0);
+		Senses.Envelope envelope = b.envelope;
+		for (int i = 0; i < vector.size(); i++) {
+			int k = slots[vector.indexAt(i)];
+			if (k < 0) {
+				continue;
+			}
+			float value = vector.valueAt(i);
+			for (int p = envelope.starts[k]; p < envelope.starts[k + 1]; p++) {
+				row[envelope.senses[p]] += value * envelope.weights[p];
+			}
+		}
+	}
+
+	/**
+	 * 不使用上界和倒排表, 逐对计算全部义项的点积, 用于对比
+	 */
+	float scoreExhaustive(String first, String second) {
+		Senses a = senses(first);
+		Senses b = senses(second);
+		if (null == a || null == b) {
+			return Float.NaN;
+		}
+		int m = a.size();
+		int n = b.size();
+		if (0 == m || 0 == n) {
+			return 0;
+		}
+		float[] cosines = new float[m * n];
+		for (int s = 0; s < m; s++) {
+			for (int t = 0; t < n; t++) {
+				cosines[s * n + t] = (float) a.vectors[s].dot(b.vectors[t]);
+			}
+		}
+		if (Mode.MAX == mMode) {
+			float best = 0;
+			for (float cosine : cosines) {
+				best = Math.max(best, cosine);
+			}
+			return best;
+		}
+		float sumA = 0;
+		for (int s = 0; s < m; s++) {
+			float best = 0;
+			for (int t = 0; t < n; t++) {
+				best = Math.max(best, cosines[s * n + t]);
+			}
+			sumA += best;
+		}
+		float sumB = 0;
+		for (int t = 0; t < n; t++) {
+			float best = 0;
+			for (int s = 0; s < m; s++) {
+				best = Math.max(best, cosines[s * n + t]);
+			}
+			sumB += best;
+		}
+		return (sumA / m + sumB / n) / 2;
+	}
+
+	private Senses senses(String word) {
+		Senses senses;
+		synchronized (mCache) {
+			senses = mCache.get(word);
+		}
+		if (null != senses) {
+			return null == senses.vectors ? null : senses;
+		}
+		senses = new Senses(mNetwork.getSenseVectors(word));
+		synchronized (mCache) {
+			mCache.put(word, senses, 1);
+		}
+		return null == senses.vectors ? null : senses;
+	}
+
+	/**
+	 * 一个词语的全部义项向量和它们的包络
+	 */
+	private static final class Senses {
+		// 没有收录的词语为null
+		final SparseVector[] vectors;
+		final Envelope envelope;
+
+		Senses(SparseVector[] vectors) {
+			this.vectors = vectors;
+			envelope = null == vectors ? null : new Envelope(vectors);
+		}
+
+		int size() {
+			return null == vectors ? 0 : vectors.length;
+		}
+
+		/**
+		 * 包络向量和倒排表: 第k个义原ids[k]的最大权值是values[k], 出现在senses[starts[k]]到
+		 * senses[starts[k + 1] - 1]这些义项中, 权值是weights中对应的元素
+		 */
+		static final class Envelope {
+			final int[] ids;
+			final float[] values;
+			final int[] starts;
+			final int[] senses;
+			final float[] weights;
+
+			Envelope(SparseVector[] vectors) {
+				int count = 0;
+				for (SparseVector vector : vectors) {
+					count += vector.size();
+				}
+				int[] all = new int[count];
+				float[] allValues = new float[count];
+				int n = 0;
+				for (SparseVector vector : vectors) {
+					for (int i = 0; i < vector.size(); i++) {
+						all[n] = vector.indexAt(i);
+						allValues[n] = vector.valueAt(i);
+						n++;
+					}
+				}
+				SparseVector envelope = SparseVector.fromUnsorted(all,
+						allValues, count);
+				ids = new int[envelope.size()];
+				values = new float[envelope.size()];
+				for (int k = 0; k < ids.length; k++) {
+					ids[k] = envelope.indexAt(k);
+					values[k] = envelope.valueAt(k);
+				}
+				starts = new int[ids.length + 1];
+				for (SparseVector vector : vectors) {
+					for (int i = 0; i < vector.size(); i++) {
+						starts[Arrays.binarySearch(ids, vector.indexAt(i)) + 1]++;
+					}
+				}
+				for (int k = 0; k < ids.length; k++) {
+					starts[k + 1] += starts[k];
+				}
+				senses = new int[count];
+				weights = new float[count];
+				int[] next = Arrays.copyOf(starts, ids.length);
+				for (int t = 0; t < vectors.length; t++) {
+					SparseVector vector = vectors[t];
+					for (int i = 0; i < vector.size(); i++) {
+						int p = next[Arrays.binarySearch(ids, vector.indexAt(i))]++;
+						senses[p] = t;
+						weights[p] = vector.valueAt(i);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 对比剪枝和全部计算的结果与速度, 并输出几个多义词的例子
+	 */
+	public static void main(String[] args) {
+		NeuralNetwork network = new NeuralNetwork();
+		List<String> words = network.getWords();
+		Random random = new Random(1);
+		// 词语都在缓存中, 只比较打分的时间
+		List<String> pool = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			pool.add(words.get(random.nextInt(words.size())));
+		}
+		List<String[]> pairs = new ArrayList<String[]>();
+		for (int i = 0; i < 20000; i++) {
+			String other = pool.get(random.nextInt(pool.size()));
+			pairs.add(new String[] { i % 2 == 0 ? "打" : "开", other });
+			pairs.add(new String[] { pool.get(random.nextInt(pool.size())),
+					other });
+		}
+		for (Mode mode : Mode.values()) {
+			SenseScorer scorer = new SenseScorer(network, mode);
+			for (String[] pair : pairs) {
+				float pruned = scorer.score(pair[0], pair[1]);
+				float exhaustive = scorer.scoreExhaustive(pair[0], pair[1]);
+				if (Float.floatToIntBits(pruned) != Float.floatToIntBits(exhaustive)) {
+					throw new IllegalStateException(pair[0] + " " + pair[1]
+							+ " " + pruned + " != " + exhaustive);
+				}
+			}
+			for (int round = 0; round < 3; round++) {
+				long scored = Metrics.SENSE_PAIRS_SCORED.get();
+				long pruned = Metrics.SENSE_PAIRS_PRUNED.get();
+				long start = System.nanoTime();
+				for (String[] pair : pairs) {
+					scorer.score(pair[0], pair[1]);
+				}
+				long prunedNanos = System.nanoTime() - start;
+				scored = Metrics.SENSE_PAIRS_SCORED.get() - scored;
+				pruned = Metrics.SENSE_PAIRS_PRUNED.get() - pruned;
+				start = System.nanoTime();
+				for (String[] pair : pairs) {
+					scorer.scoreExhaustive(pair[0], pair[1]);
+				}
+				long exhaustiveNanos = System.nanoTime() - start;
+				System.out.println(String.format(
+						"%s: pruned %d ns per pair, exhaustive %d ns per pair, "
+								+ "%.1f%% of sense pairs skipped", mode,
+						prunedNanos / pairs.size(), exhaustiveNanos
+								/ pairs.size(), 100.0 * pruned
+								/ Math.max(1, scored + pruned)));
+			}
+		}
+		SenseScorer max = new SenseScorer(network, Mode.MAX);
+		SenseScorer match = new SenseScorer(network, Mode.BEST_MATCH);
+		String[][] examples = { { "打", "敲" }, { "打", "买" }, { "打", "玩" },
+				{ "开", "关" }, { "男人", "女人" } };
+		for (String[] example : examples) {
+			SparseVector a = network.getNormalizedVector(example[0]);
+			SparseVector b = network.getNormalizedVector(example[1]);
+			System.out.println(String.format(
+					"%s %s: merged %.4f, max %.4f, best match %.4f",
+					example[0], example[1], null == a || null == b ? Float.NaN
+							: a.cosine(b), max.score(example[0], example[1]),
+					match.score(example[0], example[1])));
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * 从大文本中逐句读取
+ */
+package org.neofung.hownet;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SentenceReader 按固定大小的块从Reader中读取文本, 在句末标点(。！？；!?;)和换行处切分成句子. 每次只保留一块
+ * 和当前的半个句子, 因此可以读取任意大的语料; 超过最大长度的句子被强制切开. 句子两端的空白被去掉, 空句子被跳过.
+ * <p>
+ * 字符集由调用者构造Reader时指定, 例如GBK或者UTF-8的InputStreamReader. 只能迭代一次, 读取出错时抛出
+ * IllegalStateException.
+ *
+ * @author neo
+ * @version 2013-05-19
+ */
+public final class SentenceReader implements Iterable<String> {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	public static final int DEFAULT_MAX_LENGTH = 4096;
+
+	private final Reader mReader;
+	private final char[] mBuffer;
+	private final int mMaxLength;
+	private final StringBuilder mSentence = new StringBuilder();
+	private int mPosition;
+	private int mLimit;
+	private boolean mEof;
+	private long mChars;
+
+	/**
+	 * @param reader
+	 *            输入
+	 * @param bufferSize
+	 *            每次读取的字符数
+	 * @param maxLength
+	 *            句子的最大长度
+	 */
+	public SentenceReader(Reader reader, int bufferSize, int maxLength) {
+		mReader = reader;
+		mBuffer = new char[Math.max(1, bufferSize)];
+		mMaxLength = Math.max(1, maxLength);
+	}
+
+	public SentenceReader(Reader reader) {
+		this(reader, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * @return 到目前为止读取的字符数
+	 */
+	public long getCharCount() {
+		return mChars;
+	}
+
+	private static boolean isTerminator(char c) {
+		switch (c) {
+		case '。':
+		case '！':
+		case '？':
+		case '；':
+		case '!':
+		case '?':
+		case ';':
+		case '\n':
+		case '\r':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return 下一个句子, 没有则返回null
+	 */
+	public String readSentence() throws IOException {
+		while (true) {
+			if (mPosition == mLimit) {
+				if (mEof) {
+					return take();
+				}
+				mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+				mPosition = 0;
+				if (mLimit < 0) {
+					mLimit = 0;
+					mEof = true;
+				} else {
+					mChars += mLimit;
+				}
+				continue;
+			}
+			int start = mPosition;
+			while (mPosition < mLimit && !isTerminator(mBuffer[mPosition])
+					&& mSentence.length() + mPosition - start < mMaxLength) {
+				mPosition++;
+			}
+			mSentence.append(mBuffer, start, mPosition - start);
+			boolean end = mSentence.length() >= mMaxLength;
+			if (mPosition < mLimit && isTerminator(mBuffer[mPosition])) {
+				char c = mBuffer[mPosition++];
+				if ('\n' != c && '\r' != c) {
+					mSentence.append(c);
+				}
+				end = true;
+			}
+			if (end) {
+				String sentence = take();
+				if (null != sentence) {
+					return sentence;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 当前的句子, 去掉两端空白后为空则返回null
+	 */
+	private String take() {
+		String sentence = mSentence.toString().trim();
+		mSentence.setLength(0);
+		return sentence.length() == 0 ? null : sentence;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private String mNext = advance();
+
+			private String advance() {
+				try {
+					return readSentence();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return null != mNext;
+			}
+
+			@Override
+			public String next() {
+				if (null == mNext) {
+					throw new NoSuchElementException();
+				}
+				String sentence = mNext;
+				mNext = advance();
+				return sentence;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
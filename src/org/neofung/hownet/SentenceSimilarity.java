@@ -0,0 +1,549 @@
+/**
+ * 流式计算句子和文档的相似度
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SentenceSimilarity 计算句子和文档的相似度. 句子由WordTrie正向最长匹配切分成知网中的词语, 各词语的归一化义原
+ * 向量相加再归一化得到句子向量, 两个句子的相似度是句子向量的余弦; 文档向量是文档中全部词语向量之和.
+ * <p>
+ * 与SimilarityService一样, 调用者的线程读取输入(SentenceReader按块读取并切分句子), 每一块句子在线程池中并行地
+ * 切分, 构造向量和打分, 结果按输入的顺序交给调用者的线程输出. 同时在途的块数有上限, 因此内存占用只取决于块的大小
+ * 和块数, 与输入的大小无关, 可以处理几个GB的语料.
+ *
+ * @author neo
+ * @version 2013-05-19
+ */
+public final class SentenceSimilarity {
+
+	private final NeuralNetwork mNetwork;
+	private final WordTrie mTrie;
+	private final int mParallelism;
+	private final int mChunkSize;
+	private final int mMaxPendingChunks;
+	private final ThreadLocal<Accumulator> mAccumulators;
+
+	/**
+	 * @param network
+	 *            用于获取词语向量
+	 * @param trie
+	 *            由同一个词典构造的WordTrie, 用于切分句子
+	 * @param parallelism
+	 *            切分和打分的线程数
+	 * @param chunkSize
+	 *            每一块的句子数或者句子对数
+	 * @param maxPendingChunks
+	 *            同时在途的块数上限
+	 */
+	public SentenceSimilarity(NeuralNetwork network, WordTrie trie,
+			int parallelism, int chunkSize, int maxPendingChunks) {
+		mNetwork = network;
+		mTrie = trie;
+		mParallelism = Math.max(1, parallelism);
+		mChunkSize = Math.max(1, chunkSize);
+		mMaxPendingChunks = Math.max(1, maxPendingChunks);
+		final int dimensionality = network.getDimensionality();
+		mAccumulators = new ThreadLocal<Accumulator>() {
+			@Override
+			protected Accumulator initialValue() {
+				return new Accumulator(dimensionality);
+			}
+		};
+	}
+
+	public SentenceSimilarity(NeuralNetwork network) {
+		this(network, WordTrie.build(network.getHowNet()), Runtime
+				.getRuntime().availableProcessors(), 256, 4 * Runtime
+				.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 累加词语向量的稠密数组, 每个线程一个, 只清零用到的分量
+	 */
+	private static final class Accumulator {
+		final float[] sums;
+		int[] touched = new int[64];
+		int count;
+		int[] starts = new int[256];
+		int[] ends = new int[256];
+
+		Accumulator(int dimensionality) {
+			sums = new float[dimensionality];
+		}
+
+		void add(SparseVector vector) {
+			for (int i = 0; i < vector.size(); i++) {
+				int id = vector.indexAt(i);
+				if (id >= sums.length) {
+					continue;
+				}
+				if (0.0f == sums[id]) {
+					if (count == touched.length) {
+						touched = Arrays.copyOf(touched, count * 2);
+					}
+					touched[count++] = id;
+				}
+				// 归一化向量的权值都是正数, 累加后不会回到0
+				sums[id] += vector.valueAt(i);
+			}
+		}
+
+		/**
+		 * @return 累加的和, 然后清零
+		 */
+		SparseVector take() {
+			Arrays.sort(touched, 0, count);
+			int[] indices = Arrays.copyOf(touched, count);
+			float[] values = new float[count];
+			for (int i = 0; i < count; i++) {
+				values[i] = sums[indices[i]];
+				sums[indices[i]] = 0.0f;
+			}
+			count = 0;
+			return new SparseVector(indices, values);
+		}
+	}
+
+	/**
+	 * 把句子中的词语向量加到accumulator中
+	 *
+	 * @return 收录的词语数
+	 */
+	private int addWords(Accumulator accumulator, CharSequence sentence) {
+		if (accumulator.starts.length < sentence.length()) {
+			accumulator.starts = new int[sentence.length()];
+			accumulator.ends = new int[sentence.length()];
+		}
+		int count = mTrie.segment(sentence, accumulator.starts,
+				accumulator.ends);
+		int known = 0;
+		for (int i = 0; i < count; i++) {
+			int start = accumulator.starts[i];
+			int end = accumulator.ends[i];
+			if (mTrie.get(sentence, start, end) < 0) {
+				continue;
+			}
+			SparseVector vector = mNetwork.getNormalizedVector(sentence
+					.subSequence(start, end).toString());
+			if (null != vector) {
+				accumulator.add(vector);
+				known++;
+			}
+		}
+		return known;
+	}
+
+	/**
+	 * @return 句子的归一化向量, 句子中没有收录的词语时返回null
+	 */
+	public SparseVector getSentenceVector(CharSequence sentence) {
+		Accumulator accumulator = mAccumulators.get();
+		if (0 == addWords(accumulator, sentence)) {
+			accumulator.take();
+			return null;
+		}
+		return accumulator.take().normalize();
+	}
+
+	/**
+	 * @return 两个句子的相似度, 任一句子没有收录的词语时为Float.NaN
+	 */
+	public float score(CharSequence first, CharSequence second) {
+		SparseVector a = getSentenceVector(first);
+		SparseVector b = getSentenceVector(second);
+		return null == a || null == b ? Float.NaN : (float) a.dot(b);
+	}
+
+	/**
+	 * 计算全部句子对的相似度, 按输入顺序交给handler
+	 *
+	 * @param pairs
+	 *            句子对, WordPair的两个字符串是句子, 只迭代一次
+	 * @param handler
+	 *            在调用者的线程中按顺序接收结果, 任一句子没有收录的词语时相似度为Float.NaN
+	 */
+	public void scoreAll(Iterable<WordPair> pairs,
+			final SimilarityService.ResultHandler handler) throws IOException,
+			InterruptedException {
+		run(pairs, new Stage<WordPair, float[]>() {
+			@Override
+			public float[] process(List<WordPair> chunk) {
+				float[] scores = new float[chunk.size()];
+				for (int i = 0; i < scores.length; i++) {
+					WordPair pair = chunk.get(i);
+					scores[i] = score(pair.getFirst(), pair.getSecond());
+				}
+				return scores;
+			}
+		}, new Sink<WordPair, float[]>() {
+			@Override
+			public void accept(List<WordPair> chunk, float[] scores)
+					throws IOException {
+				for (int i = 0; i < scores.length; i++) {
+					handler.onResult(chunk.get(i), scores[i]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 计算每个句子与query的相似度, 按输入顺序交给handler
+	 *
+	 * @param query
+	 *            查询句子
+	 * @param sentences
+	 *            句子, 例如SentenceReader, 只迭代一次
+	 * @param handler
+	 *            在调用者的线程中按顺序接收结果, WordPair的第一个字符串是句子, 第二个是query
+	 */
+	public void scoreAgainst(final String query, Iterable<String> sentences,
+			final SimilarityService.ResultHandler handler) throws IOException,
+			InterruptedException {
+		final SparseVector target = getSentenceVector(query);
+		run(sentences, new Stage<String, float[]>() {
+			@Override
+			public float[] process(List<String> chunk) {
+				float[] scores = new float[chunk.size()];
+				for (int i = 0; i < scores.length; i++) {
+					SparseVector vector = null == target ? null
+							: getSentenceVector(chunk.get(i));
+					scores[i] = null == vector ? Float.NaN : (float) vector
+							.dot(target);
+				}
+				return scores;
+			}
+		}, new Sink<String, float[]>() {
+			@Override
+			public void accept(List<String> chunk, float[] scores)
+					throws IOException {
+				for (int i = 0; i < scores.length; i++) {
+					handler.onResult(new WordPair(chunk.get(i), query),
+							scores[i]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 计算文档向量, 即文档中全部词语向量之和. 各块在线程池中分别累加, 调用者的线程合并.
+	 *
+	 * @param sentences
+	 *            文档的句子, 只迭代一次
+	 * @return 归一化的文档向量, 文档中没有收录的词语时返回null
+	 */
+	public SparseVector getDocumentVector(Iterable<String> sentences)
+			throws IOException, InterruptedException {
+		final double[] sums = new double[mNetwork.getDimensionality()];
+		final int[] known = new int[1];
+		run(sentences, new Stage<String, SparseVector>() {
+			@Override
+			public SparseVector process(List<String> chunk) {
+				Accumulator accumulator = mAccumulators.get();
+				for (String sentence : chunk) {
+					addWords(accumulator, sentence);
+				}
+				return accumulator.take();
+			}
+		}, new Sink<String, SparseVector>() {
+			@Override
+			public void accept(List<String> chunk, SparseVector sum) {
+				for (int i = 0; i < sum.size(); i++) {
+					sums[sum.indexAt(i)] += sum.valueAt(i);
+				}
+				known[0] += sum.size();
+			}
+		});
+		return 0 == known[0] ? null : SparseVector.fromDense(sums).normalize();
+	}
+
+	/**
+	 * 在工作线程中处理一块输入
+	 */
+	private interface Stage<T, R> {
+		R process(List<T> chunk);
+	}
+
+	/**
+	 * 在调用者的线程中按顺序接收每一块的结果
+	 */
+	private interface Sink<T, R> {
+		void accept(List<T> chunk, R result) throws IOException;
+	}
+
+	/**
+	 * 在途的一块
+	 */
+	private static final class Chunk<T, R> {
+		final List<T> items;
+		final Future<R> future;
+
+		Chunk(List<T> items, Future<R> future) {
+			this.items = items;
+			this.future = future;
+		}
+	}
+
+	private <T, R> void run(Iterable<T> items, final Stage<T, R> stage,
+			Sink<T, R> sink) throws IOException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(mParallelism);
+		ArrayDeque<Chunk<T, R>> pending = new ArrayDeque<Chunk<T, R>>();
+		try {
+			List<T> chunk = new ArrayList<T>(mChunkSize);
+			for (T item : items) {
+				chunk.add(item);
+				if (chunk.size() == mChunkSize) {
+					submit(executor, pending, chunk, stage, sink);
+					chunk = new ArrayList<T>(mChunkSize);
+				}
+			}
+			if (!chunk.isEmpty()) {
+				submit(executor, pending, chunk, stage, sink);
+			}
+			while (!pending.isEmpty()) {
+				emit(pending.poll(), sink);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private <T, R> void submit(ExecutorService executor,
+			ArrayDeque<Chunk<T, R>> pending, final List<T> items,
+			final Stage<T, R> stage, Sink<T, R> sink) throws IOException,
+			InterruptedException {
+		// 背压: 在途的块太多时先输出最早的块
+		while (pending.size() >= mMaxPendingChunks) {
+			emit(pending.poll(), sink);
+		}
+		Future<R> future = executor.submit(new Callable<R>() {
+			@Override
+			public R call() {
+				long start = System.nanoTime();
+				R result = stage.process(items);
+				Metrics.INFERENCE.recordSince(start);
+				Metrics.SENTENCES_SCORED.add(items.size());
+				return result;
+			}
+		});
+		pending.add(new Chunk<T, R>(items, future));
+	}
+
+	private static <T, R> void emit(Chunk<T, R> chunk, Sink<T, R> sink)
+			throws IOException, InterruptedException {
+		R result;
+		try {
+			result = chunk.future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		sink.accept(chunk.items, result);
+	}
+
+	/**
+	 * 逐行读取"句子\t句子"格式的句子对, 跳过没有制表符的行
+	 */
+	static Iterable<WordPair> tabSeparated(final BufferedReader reader) {
+		return new Iterable<WordPair>() {
+			@Override
+			public Iterator<WordPair> iterator() {
+				return new Iterator<WordPair>() {
+					private WordPair mNext = advance();
+
+					private WordPair advance() {
+						try {
+							String line;
+							while ((line = reader.readLine()) != null) {
+								int tab = line.indexOf('\t');
+								if (tab >= 0) {
+									int end = line.indexOf('\t', tab + 1);
+									return new WordPair(line.substring(0, tab),
+											line.substring(tab + 1,
+													end < 0 ? line.length()
+															: end));
+								}
+							}
+							return null;
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+
+					@Override
+					public boolean hasNext() {
+						return null != mNext;
+					}
+
+					@Override
+					public WordPair next() {
+						if (null == mNext) {
+							throw new NoSuchElementException();
+						}
+						WordPair pair = mNext;
+						mNext = advance();
+						return pair;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private static void printUsage() {
+		System.out.println("usage: SentenceSimilarity [options] pairs [output]");
+		System.out.println("       SentenceSimilarity [options] -query text corpus [output]");
+		System.out.println("       SentenceSimilarity [options] -documents first second");
+		System.out.println("  pairs          one \"sentence<TAB>sentence\" per line");
+		System.out.println("  -query text    score every sentence of the corpus against text");
+		System.out.println("  -documents     cosine between the word vector sums of two documents");
+		System.out.println("  -threads n     segmentation and scoring threads");
+		System.out.println("  -chunk n       sentences per chunk (default 256)");
+		System.out.println("  -pending n     chunks in flight (default 4 * threads)");
+		System.out.println("  -encoding cs   input charset, e.g. GBK (default UTF-8)");
+	}
+
+	private static Reader open(String path, String encoding)
+			throws IOException {
+		return new InputStreamReader(new FileInputStream(path), encoding);
+	}
+
+	/**
+	 * 计算句子对, 句子与查询或者两个文档的相似度, 在标准错误输出吞吐量
+	 *
+	 * @param args
+	 *            见printUsage
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunk = 256;
+		int pending = -1;
+		String encoding = "UTF-8";
+		String query = null;
+		boolean documents = false;
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-threads".equals(arg)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-chunk".equals(arg)) {
+				chunk = Integer.parseInt(args[++i]);
+			} else if ("-pending".equals(arg)) {
+				pending = Integer.parseInt(args[++i]);
+			} else if ("-encoding".equals(arg)) {
+				encoding = args[++i];
+			} else if ("-query".equals(arg)) {
+				query = args[++i];
+			} else if ("-documents".equals(arg)) {
+				documents = true;
+			} else if (arg.startsWith("-")) {
+				printUsage();
+				return;
+			} else {
+				files.add(arg);
+			}
+		}
+		if (files.isEmpty() || (documents && files.size() < 2)) {
+			printUsage();
+			return;
+		}
+
+		NeuralNetwork network = new NeuralNetwork();
+		SentenceSimilarity similarity = new SentenceSimilarity(network,
+				WordTrie.build(network.getHowNet()), threads, chunk,
+				pending > 0 ? pending : 4 * threads);
+
+		long start = System.nanoTime();
+		if (documents) {
+			SparseVector[] vectors = new SparseVector[2];
+			long chars = 0;
+			for (int d = 0; d < 2; d++) {
+				Reader reader = open(files.get(d), encoding);
+				try {
+					SentenceReader sentences = new SentenceReader(reader);
+					vectors[d] = similarity.getDocumentVector(sentences);
+					chars += sentences.getCharCount();
+				} finally {
+					reader.close();
+				}
+			}
+			long elapsed = Math.max(1, System.nanoTime() - start);
+			System.out.println(null == vectors[0] || null == vectors[1] ? "NaN"
+					: Float.toString((float) vectors[0].dot(vectors[1])));
+			System.err.println(chars + " chars in " + elapsed / 1000000
+					+ " ms, " + (long) (chars * 1e9 / elapsed) + " chars/s");
+			return;
+		}
+
+		Reader reader = open(files.get(0), encoding);
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				files.size() > 1 ? new FileOutputStream(files.get(1))
+						: System.out, "UTF-8"), 64 * 1024);
+		final long[] count = new long[1];
+		try {
+			if (null != query) {
+				similarity.scoreAgainst(query, new SentenceReader(reader),
+						new SimilarityService.ResultHandler() {
+							@Override
+							public void onResult(WordPair pair, float score)
+									throws IOException {
+								writer.write(Float.toString(score));
+								writer.write('\t');
+								writer.write(pair.getFirst());
+								writer.write('\n');
+								count[0]++;
+							}
+						});
+			} else {
+				similarity.scoreAll(tabSeparated(new BufferedReader(reader,
+						SentenceReader.DEFAULT_BUFFER_SIZE)),
+						new SimilarityService.ResultHandler() {
+							@Override
+							public void onResult(WordPair pair, float score)
+									throws IOException {
+								writer.write(pair.getFirst());
+								writer.write('\t');
+								writer.write(pair.getSecond());
+								writer.write('\t');
+								writer.write(Float.toString(score));
+								writer.write('\n');
+								count[0]++;
+							}
+						});
+			}
+		} finally {
+			writer.flush();
+			if (files.size() > 1) {
+				writer.close();
+			}
+			reader.close();
+		}
+		long elapsed = Math.max(1, System.nanoTime() - start);
+		String unit = null != query ? " sentences" : " pairs";
+		System.err.println(count[0] + unit + " in " + elapsed / 1000000
+				+ " ms, " + (long) (count[0] * 1e9 / elapsed) + unit + "/s");
+	}
+}
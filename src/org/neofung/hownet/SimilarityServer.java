@@ -0,0 +1,625 @@
+/**
+ * 常驻的本地相似度服务
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * SimilarityServer 用JDK自带的HTTP服务器提供相似度查询, 词典只在启动时读取一次. 每个请求在自己的线程中处理
+ * (JDK 21以上使用虚拟线程), 但并不自己打分, 而是把词语对放入队列后等待. 一个打分线程从队列中取出一个请求后, 再等待
+ * 最多一个时间窗口, 把这期间到达的请求合成一批, 批内相同的词语只构造一次向量, 然后交给PairScorer批量打分, 神经网络
+ * 对整批做矩阵运算. 大的批按词语对切成几片, 在打分的线程池中并行计算. 超过每批上限的请求在排队前就被切开, 因此每批的
+ * 词语对数不会超过上限, 时间窗口和这个上限决定了延迟的上限.
+ * <p>
+ * 接口, 结果都是UTF-8的纯文本:
+ * <ul>
+ * <li>GET /similarity?first=词语&second=词语 返回"词语\t词语\t相似度"</li>
+ * <li>POST /batch 请求体每行一个"词语 词语", 按顺序返回每行"词语\t词语\t相似度"</li>
+ * <li>GET /word?word=词语 返回词语的每个义项"词性\t义原,义原...", 没有收录时返回404</li>
+ * <li>GET /metrics 返回Prometheus文本格式的Metrics</li>
+ * </ul>
+ * 没有收录的词语相似度为NaN. 服务没有认证, 默认只监听本机的回环地址.
+ *
+ * @author neo
+ * @version 2013-05-04
+ */
+public class SimilarityServer {
+
+	private static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+	// 每一片至少这么多词语对, 再小就不值得交给另一个线程
+	private static final int MIN_SLICE_PAIRS = MultiLayerPerceptron.BATCH_ROWS;
+
+	private final DictionaryHolder mHolder;
+	private final PairScorer mScorer;
+	private final long mWindowNanos;
+	private final int mMaxBatchPairs;
+	private final int mMaxRequestPairs;
+	private final int mParallelism;
+	private final BlockingQueue<Request> mQueue;
+	private HttpServer mServer;
+	private ExecutorService mExecutor;
+	private ExecutorService mWorkers;
+	private volatile Thread mBatcher;
+	// 上一批放不下的请求, 只由打分线程访问
+	private Request mCarry;
+	private volatile boolean mStopped;
+
+	/**
+	 * @param holder
+	 *            当前的词典, 每一批开始时读取一次
+	 * @param scorer
+	 *            打分方法
+	 * @param windowMicros
+	 *            合并请求的时间窗口, 微秒
+	 * @param maxBatchPairs
+	 *            每批的词语对数上限
+	 * @param maxQueuedRequests
+	 *            排队的请求数上限, 超过时返回503
+	 * @param parallelism
+	 *            打分的线程数
+	 */
+	public SimilarityServer(DictionaryHolder holder, PairScorer scorer,
+			long windowMicros, int maxBatchPairs, int maxQueuedRequests,
+			int parallelism) {
+		mHolder = holder;
+		mScorer = scorer;
+		mWindowNanos = Math.max(0, windowMicros) * 1000;
+		mMaxBatchPairs = Math.max(1, maxBatchPairs);
+		// 一个请求可以分成多批, 这里只限制请求体的大小
+		mMaxRequestPairs = 64 * mMaxBatchPairs;
+		mParallelism = Math.max(1, parallelism);
+		mQueue = new LinkedBlockingQueue<Request>(Math.max(1,
+				maxQueuedRequests));
+	}
+
+	public SimilarityServer(DictionaryHolder holder, PairScorer scorer,
+			long windowMicros, int maxBatchPairs, int maxQueuedRequests) {
+		this(holder, scorer, windowMicros, maxBatchPairs, maxQueuedRequests,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	public SimilarityServer(DictionaryHolder holder, PairScorer scorer) {
+		this(holder, scorer, 500, 4096, 10000);
+	}
+
+	/**
+	 * 在本机的回环地址上开始监听
+	 *
+	 * @param port
+	 *            端口, 0表示任意空闲端口
+	 * @return 实际监听的端口
+	 */
+	public int start(int port) throws IOException {
+		return start(InetAddress.getLoopbackAddress(), port);
+	}
+
+	/**
+	 * 开始监听
+	 *
+	 * @param address
+	 *            监听的地址, 其它机器可以访问的地址要自己负责访问控制
+	 * @param port
+	 *            端口, 0表示任意空闲端口
+	 * @return 实际监听的端口
+	 */
+	public synchronized int start(InetAddress address, int port)
+			throws IOException {
+		if (null != mServer) {
+			throw new IllegalStateException("already started");
+		}
+		mServer = HttpServer.create(new InetSocketAddress(address, port), 1024);
+		mServer.createContext("/similarity", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleSimilarity(exchange);
+			}
+		});
+		mServer.createContext("/batch", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleBatch(exchange);
+			}
+		});
+		mServer.createContext("/word", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleWord(exchange);
+			}
+		});
+		mServer.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if (checkMethod(exchange, "GET")) {
+					send(exchange, 200, Metrics.toText());
+				}
+			}
+		});
+		mExecutor = newRequestExecutor();
+		mServer.setExecutor(mExecutor);
+		mWorkers = Executors.newFixedThreadPool(mParallelism);
+
+		mStopped = false;
+		mBatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runBatches();
+			}
+		}, "similarity-batcher");
+		mBatcher.setDaemon(true);
+		mBatcher.start();
+		mServer.start();
+		return mServer.getAddress().getPort();
+	}
+
+	/**
+	 * 停止监听, 最多等待delaySeconds秒让正在处理的请求完成
+	 */
+	public synchronized void stop(int delaySeconds) {
+		if (null == mServer) {
+			return;
+		}
+		mServer.stop(delaySeconds);
+		mStopped = true;
+		mBatcher.interrupt();
+		mExecutor.shutdownNow();
+		mWorkers.shutdownNow();
+		mServer = null;
+	}
+
+	/**
+	 * JDK 21以上每个请求一个虚拟线程, 否则使用普通的线程池. 工程仍按Java 7编译, 因此通过反射调用.
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			Method method = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * 提交一组词语对并等待打分完成, 可以从任意线程调用. 超过每批上限的词语对被切成几个请求分别排队.
+	 *
+	 * @return 与输入顺序相同的相似度, 任一词语没有收录时为Float.NaN
+	 * @throws IllegalStateException
+	 *             服务已经停止, 队列已满或打分出错
+	 */
+	public float[] score(List<WordPair> pairs) throws InterruptedException {
+		if (pairs.isEmpty()) {
+			return new float[0];
+		}
+		if (mStopped) {
+			throw new IllegalStateException("stopped");
+		}
+		List<Request> requests = new ArrayList<Request>();
+		for (int from = 0; from < pairs.size(); from += mMaxBatchPairs) {
+			Request request = new Request(pairs.subList(from,
+					Math.min(pairs.size(), from + mMaxBatchPairs)));
+			if (!mQueue.offer(request)) {
+				for (Request queued : requests) {
+					mQueue.remove(queued);
+				}
+				throw new IllegalStateException("too many queued requests");
+			}
+			requests.add(request);
+		}
+		if (1 == requests.size()) {
+			return await(requests.get(0));
+		}
+		float[] scores = new float[pairs.size()];
+		int offset = 0;
+		for (Request request : requests) {
+			float[] part = await(request);
+			System.arraycopy(part, 0, scores, offset, part.length);
+			offset += part.length;
+		}
+		return scores;
+	}
+
+	private float[] await(Request request) throws InterruptedException {
+		while (!request.done.await(100, TimeUnit.MILLISECONDS)) {
+			// 打分线程已经退出时没有人再处理队列, 请求还在队列中就自己取回; 已经被取出的由打分线程结束它
+			Thread batcher = mBatcher;
+			if ((mStopped || null == batcher || !batcher.isAlive())
+					&& mQueue.remove(request)) {
+				throw new IllegalStateException("stopped");
+			}
+		}
+		if (null != request.error) {
+			throw new IllegalStateException(request.error);
+		}
+		return request.scores;
+	}
+
+	/**
+	 * 打分线程: 取出一个请求后在时间窗口内继续收集, 直到窗口结束或者再加一个请求就超过词语对数上限, 这个请求留给下一批.
+	 * 退出时结束队列中剩下的请求.
+	 */
+	private void runBatches() {
+		try {
+			collectBatches();
+		} finally {
+			List<Request> left = new ArrayList<Request>();
+			if (null != mCarry) {
+				left.add(mCarry);
+				mCarry = null;
+			}
+			mQueue.drainTo(left);
+			for (Request request : left) {
+				request.error = new IllegalStateException("stopped");
+				request.done.countDown();
+			}
+		}
+	}
+
+	private void collectBatches() {
+		List<Request> batch = new ArrayList<Request>();
+		while (!mStopped) {
+			try {
+				Request first = null != mCarry ? mCarry : mQueue.poll(100,
+						TimeUnit.MILLISECONDS);
+				mCarry = null;
+				if (null == first) {
+					continue;
+				}
+				batch.add(first);
+				int pairs = first.pairs.size();
+				long deadline = System.nanoTime() + mWindowNanos;
+				while (pairs < mMaxBatchPairs) {
+					long wait = deadline - System.nanoTime();
+					Request next = wait > 0 ? mQueue.poll(wait,
+							TimeUnit.NANOSECONDS) : mQueue.poll();
+					if (null == next) {
+						break;
+					}
+					if (pairs + next.pairs.size() > mMaxBatchPairs) {
+						mCarry = next;
+						break;
+					}
+					batch.add(next);
+					pairs += next.pairs.size();
+				}
+				scoreBatch(batch, pairs);
+			} catch (InterruptedException e) {
+				break;
+			} finally {
+				for (Request request : batch) {
+					if (request.done.getCount() > 0) {
+						request.error = new IllegalStateException("stopped");
+						request.done.countDown();
+					}
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	private void scoreBatch(List<Request> batch, int pairs) {
+		List<WordPair> all = new ArrayList<WordPair>(pairs);
+		for (Request request : batch) {
+			all.addAll(request.pairs);
+		}
+		float[] scores = null;
+		Throwable error = null;
+		try {
+			// 整批使用同一份词典
+			scores = score(new SimilarityService(mHolder.get(), mScorer, 1,
+					pairs, 1), all);
+		} catch (Throwable e) {
+			// 包括Error: 打分线程只有一个, 不能因为一批出错就退出
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			error = e;
+		}
+		int offset = 0;
+		for (Request request : batch) {
+			if (null == error) {
+				request.scores = new float[request.pairs.size()];
+				System.arraycopy(scores, offset, request.scores, 0,
+						request.scores.length);
+				offset += request.scores.length;
+			} else {
+				request.error = error;
+			}
+			request.done.countDown();
+		}
+	}
+
+	/**
+	 * 把一批切成几片, 第一片在打分线程中计算, 其余的交给线程池
+	 */
+	private float[] score(final SimilarityService service, List<WordPair> pairs)
+			throws InterruptedException {
+		int slices = Math.min(mParallelism, pairs.size() / MIN_SLICE_PAIRS);
+		if (slices <= 1) {
+			return service.score(pairs);
+		}
+		int size = (pairs.size() + slices - 1) / slices;
+		List<Future<float[]>> futures = new ArrayList<Future<float[]>>();
+		for (int from = size; from < pairs.size(); from += size) {
+			final List<WordPair> slice = pairs.subList(from,
+					Math.min(pairs.size(), from + size));
+			futures.add(mWorkers.submit(new Callable<float[]>() {
+				@Override
+				public float[] call() {
+					return service.score(slice);
+				}
+			}));
+		}
+		float[] scores = new float[pairs.size()];
+		float[] part = service.score(pairs.subList(0, size));
+		System.arraycopy(part, 0, scores, 0, part.length);
+		int offset = part.length;
+		for (Future<float[]> future : futures) {
+			try {
+				part = future.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+			System.arraycopy(part, 0, scores, offset, part.length);
+			offset += part.length;
+		}
+		return scores;
+	}
+
+	private void handleSimilarity(HttpExchange exchange) throws IOException {
+		try {
+			if (!checkMethod(exchange, "GET")) {
+				return;
+			}
+			Map<String, String> query = parseQuery(exchange);
+			String first = query.get("first");
+			String second = query.get("second");
+			if (null == first || null == second) {
+				send(exchange, 400, "missing first or second\n");
+				return;
+			}
+			WordPair pair = new WordPair(first, second);
+			float[] scores = score(Collections.singletonList(pair));
+			StringBuilder sb = new StringBuilder();
+			append(sb, pair, scores[0]);
+			send(exchange, 200, sb.toString());
+		} catch (Exception e) {
+			fail(exchange, e);
+		}
+	}
+
+	private void handleBatch(HttpExchange exchange) throws IOException {
+		try {
+			if (!checkMethod(exchange, "POST")) {
+				return;
+			}
+			List<WordPair> pairs = new ArrayList<WordPair>();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					exchange.getRequestBody(), "UTF-8"));
+			for (WordPair pair : WordPair.lines(reader)) {
+				if (pairs.size() == mMaxRequestPairs) {
+					send(exchange, 413, "at most " + mMaxRequestPairs
+							+ " pairs per request\n");
+					return;
+				}
+				pairs.add(pair);
+			}
+			float[] scores = score(pairs);
+			StringBuilder sb = new StringBuilder(pairs.size() * 24);
+			for (int i = 0; i < scores.length; i++) {
+				append(sb, pairs.get(i), scores[i]);
+			}
+			send(exchange, 200, sb.toString());
+		} catch (Exception e) {
+			fail(exchange, e);
+		}
+	}
+
+	private void handleWord(HttpExchange exchange) throws IOException {
+		try {
+			if (!checkMethod(exchange, "GET")) {
+				return;
+			}
+			String word = parseQuery(exchange).get("word");
+			if (null == word) {
+				send(exchange, 400, "missing word\n");
+				return;
+			}
+			List<Pair<String, List<String>>> semantics = mHolder.get()
+					.getHowNet().getSemantics(word);
+			if (null == semantics) {
+				send(exchange, 404, word + " not found\n");
+				return;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (Pair<String, List<String>> sense : semantics) {
+				sb.append(sense.getFirst()).append('\t');
+				List<String> sememes = sense.getSecond();
+				for (int i = 0; i < sememes.size(); i++) {
+					if (i > 0) {
+						sb.append(',');
+					}
+					sb.append(sememes.get(i));
+				}
+				sb.append('\n');
+			}
+			send(exchange, 200, sb.toString());
+		} catch (Exception e) {
+			fail(exchange, e);
+		}
+	}
+
+	/**
+	 * 请求方法不是method时返回405
+	 *
+	 * @return 是否可以继续处理
+	 */
+	private static boolean checkMethod(HttpExchange exchange, String method)
+			throws IOException {
+		if (method.equals(exchange.getRequestMethod())) {
+			return true;
+		}
+		exchange.getResponseHeaders().set("Allow", method);
+		send(exchange, 405, "use " + method + "\n");
+		return false;
+	}
+
+	private static void append(StringBuilder sb, WordPair pair, float score) {
+		sb.append(pair.getFirst()).append('\t').append(pair.getSecond())
+				.append('\t').append(score).append('\n');
+	}
+
+	private static Map<String, String> parseQuery(HttpExchange exchange)
+			throws UnsupportedEncodingException {
+		Map<String, String> query = new HashMap<String, String>();
+		String raw = exchange.getRequestURI().getRawQuery();
+		if (null == raw) {
+			return query;
+		}
+		for (String parameter : raw.split("&")) {
+			int eq = parameter.indexOf('=');
+			if (eq > 0) {
+				query.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return query;
+	}
+
+	private static void fail(HttpExchange exchange, Exception e)
+			throws IOException {
+		if (e instanceof InterruptedException) {
+			Thread.currentThread().interrupt();
+		}
+		// 队列已满时让调用者稍后重试
+		int code = e instanceof IllegalStateException && null == e.getCause() ? 503
+				: 500;
+		send(exchange, code, e + "\n");
+	}
+
+	private static void send(HttpExchange exchange, int code, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(StringTable.UTF8);
+		exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		try {
+			os.write(bytes);
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * 排队等待打分的一个请求
+	 */
+	private static final class Request {
+		final List<WordPair> pairs;
+		final CountDownLatch done = new CountDownLatch(1);
+		// 在done之前由打分线程写入, CountDownLatch保证等待者可见
+		float[] scores;
+		Throwable error;
+
+		Request(List<WordPair> pairs) {
+			this.pairs = pairs;
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("usage: SimilarityServer [options]");
+		System.out.println("  -host h      address to listen on (default: loopback only)");
+		System.out.println("  -port n      port to listen on (default 8080)");
+		System.out.println("  -window us   micro-batching window in microseconds (default 500)");
+		System.out.println("  -batch n     pairs per batch (default 4096)");
+		System.out.println("  -queue n     queued requests before answering 503 (default 10000)");
+		System.out.println("  -threads n   scoring threads (default: number of processors)");
+		System.out.println("  -train file  train a network on labelled pairs and score with it;");
+		System.out.println("  -model file  score with a model file written by ModelFile;");
+		System.out.println("               without either the cosine similarity is used");
+	}
+
+	/**
+	 * 读取词典后一直运行
+	 *
+	 * @param args
+	 *            见printUsage
+	 */
+	public static void main(String[] args) throws Exception {
+		InetAddress host = InetAddress.getLoopbackAddress();
+		int port = 8080;
+		long window = 500;
+		int batch = 4096;
+		int queue = 10000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String trainPath = null;
+		String modelPath = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-host".equals(arg)) {
+				host = InetAddress.getByName(args[++i]);
+			} else if ("-port".equals(arg)) {
+				port = Integer.parseInt(args[++i]);
+			} else if ("-window".equals(arg)) {
+				window = Long.parseLong(args[++i]);
+			} else if ("-batch".equals(arg)) {
+				batch = Integer.parseInt(args[++i]);
+			} else if ("-queue".equals(arg)) {
+				queue = Integer.parseInt(args[++i]);
+			} else if ("-threads".equals(arg)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-train".equals(arg)) {
+				trainPath = args[++i];
+			} else if ("-model".equals(arg)) {
+				modelPath = args[++i];
+			} else {
+				printUsage();
+				return;
+			}
+		}
+
+		long start = System.nanoTime();
+		NeuralNetwork network = new NeuralNetwork();
+		PairScorer scorer = PairScorer.COSINE;
+		if (null != trainPath) {
+			scorer = new MlpTrainer().train(Dataset.fromPairs(network,
+					trainPath));
+		} else if (null != modelPath) {
+			scorer = new InferenceEngine(ModelFile.open(new File(modelPath)),
+					network.getHowNet());
+		}
+		SimilarityServer server = new SimilarityServer(new DictionaryHolder(
+				network), scorer, window, batch, queue, threads);
+		port = server.start(host, port);
+		System.err.println("listening on " + host.getHostAddress() + ":" + port
+				+ ", ready after "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
@@ -0,0 +1,404 @@
+/**
+ * 批量计算词语对的相似度
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SimilarityService 批量计算词语对的相似度. 输入被切分成固定大小的块, 每一块内的词语先去重, 每个不同的词语只构造一次
+ * 向量, 然后在线程池中并行打分. 结果按输入的顺序输出, 同时在途的块数有上限, 达到上限时读取输入的线程会等待最早的块完成,
+ * 因此内存占用与输入的大小无关.
+ *
+ * @author neo
+ * @version 2013-04-24
+ */
+public class SimilarityService {
+
+	/**
+	 * 按输入顺序接收结果
+	 */
+	public interface ResultHandler {
+		/**
+		 * @param pair
+		 *            词语对
+		 * @param score
+		 *            相似度, 任一词语没有收录时为Float.NaN
+		 */
+		void onResult(WordPair pair, float score) throws IOException;
+	}
+
+	private final NeuralNetwork mNetwork;
+	private final PairScorer mScorer;
+	private final WordScorer mWordScorer;
+	private final int mParallelism;
+	private final int mChunkSize;
+	private final int mMaxPendingChunks;
+
+	/**
+	 * @param network
+	 *            用于获取词语向量
+	 * @param scorer
+	 *            打分方法
+	 * @param parallelism
+	 *            打分的线程数
+	 * @param chunkSize
+	 *            每一块的词语对数
+	 * @param maxPendingChunks
+	 *            同时在途的块数上限
+	 */
+	public SimilarityService(NeuralNetwork network, PairScorer scorer,
+			int parallelism, int chunkSize, int maxPendingChunks) {
+		mNetwork = network;
+		mScorer = scorer;
+		mWordScorer = null;
+		mParallelism = Math.max(1, parallelism);
+		mChunkSize = Math.max(1, chunkSize);
+		mMaxPendingChunks = Math.max(1, maxPendingChunks);
+	}
+
+	/**
+	 * 由词语直接打分, 例如PairFeatureEncoder编码的特征模式或者SenseScorer, 不构造合并的词语向量
+	 *
+	 * @param scorer
+	 *            编码和打分方法
+	 * @param parallelism
+	 *            打分的线程数
+	 * @param chunkSize
+	 *            每一块的词语对数
+	 * @param maxPendingChunks
+	 *            同时在途的块数上限
+	 */
+	public SimilarityService(WordScorer scorer, int parallelism,
+			int chunkSize, int maxPendingChunks) {
+		mNetwork = null;
+		mScorer = null;
+		mWordScorer = scorer;
+		mParallelism = Math.max(1, parallelism);
+		mChunkSize = Math.max(1, chunkSize);
+		mMaxPendingChunks = Math.max(1, maxPendingChunks);
+	}
+
+	public SimilarityService(NeuralNetwork network, PairScorer scorer) {
+		this(network, scorer, Runtime.getRuntime().availableProcessors(),
+				1024, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 计算全部词语对的相似度, 按输入顺序交给handler
+	 *
+	 * @param pairs
+	 *            词语对, 只迭代一次
+	 * @param handler
+	 *            在调用者的线程中按顺序接收结果
+	 */
+	public void scoreAll(Iterable<WordPair> pairs, ResultHandler handler)
+			throws IOException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(mParallelism);
+		ArrayDeque<Chunk> pending = new ArrayDeque<Chunk>();
+		try {
+			List<WordPair> chunk = new ArrayList<WordPair>(mChunkSize);
+			for (WordPair pair : pairs) {
+				chunk.add(pair);
+				if (chunk.size() == mChunkSize) {
+					submit(executor, pending, chunk, handler);
+					chunk = new ArrayList<WordPair>(mChunkSize);
+				}
+			}
+			if (!chunk.isEmpty()) {
+				submit(executor, pending, chunk, handler);
+			}
+			while (!pending.isEmpty()) {
+				emit(pending.poll(), handler);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * 计算全部词语对的相似度
+	 *
+	 * @return 与输入顺序相同的相似度, 任一词语没有收录时为Float.NaN
+	 */
+	public float[] scoreAll(List<WordPair> pairs) throws InterruptedException {
+		final float[] scores = new float[pairs.size()];
+		try {
+			scoreAll(pairs, new ResultHandler() {
+				private int mIndex;
+
+				@Override
+				public void onResult(WordPair pair, float score) {
+					scores[mIndex++] = score;
+				}
+			});
+		} catch (IOException e) {
+			// 这个ResultHandler不会抛出IOException
+			throw new IllegalStateException(e);
+		}
+		return scores;
+	}
+
+	private void submit(ExecutorService executor, ArrayDeque<Chunk> pending,
+			final List<WordPair> pairs, ResultHandler handler)
+			throws IOException, InterruptedException {
+		// 背压: 在途的块太多时先输出最早的块
+		while (pending.size() >= mMaxPendingChunks) {
+			emit(pending.poll(), handler);
+		}
+		Future<float[]> future = executor.submit(new Callable<float[]>() {
+			@Override
+			public float[] call() {
+				return score(pairs);
+			}
+		});
+		pending.add(new Chunk(pairs, future));
+	}
+
+	private void emit(Chunk chunk, ResultHandler handler) throws IOException,
+			InterruptedException {
+		float[] scores;
+		try {
+			scores = chunk.future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		for (int i = 0; i < scores.length; i++) {
+			handler.onResult(chunk.pairs.get(i), scores[i]);
+		}
+	}
+
+	/**
+	 * 计算一块词语对的相似度, 块内相同的词语只构造一次向量, 两个词语都收录了的词语对一次交给PairScorer批量打分
+	 */
+	float[] score(List<WordPair> pairs) {
+		long start = System.nanoTime();
+		if (null != mWordScorer) {
+			float[] scores = new float[pairs.size()];
+			for (int i = 0; i < scores.length; i++) {
+				WordPair pair = pairs.get(i);
+				scores[i] = mWordScorer.score(pair.getFirst(),
+						pair.getSecond());
+			}
+			Metrics.INFERENCE.recordSince(start);
+			Metrics.PAIRS_SCORED.add(scores.length);
+			return scores;
+		}
+		Map<String, SparseVector> vectors = new HashMap<String, SparseVector>(
+				pairs.size() * 2);
+		float[] scores = new float[pairs.size()];
+		SparseVector[] first = new SparseVector[scores.length];
+		SparseVector[] second = new SparseVector[scores.length];
+		int[] rows = new int[scores.length];
+		int count = 0;
+		for (int i = 0; i < scores.length; i++) {
+			WordPair pair = pairs.get(i);
+			SparseVector a = vector(vectors, pair.getFirst());
+			SparseVector b = vector(vectors, pair.getSecond());
+			if (null == a || null == b) {
+				scores[i] = Float.NaN;
+			} else {
+				first[count] = a;
+				second[count] = b;
+				rows[count++] = i;
+			}
+		}
+		float[] known = new float[count];
+		mScorer.score(first, second, count, known);
+		for (int i = 0; i < count; i++) {
+			scores[rows[i]] = known[i];
+		}
+		Metrics.INFERENCE.recordSince(start);
+		Metrics.PAIRS_SCORED.add(scores.length);
+		return scores;
+	}
+
+	private SparseVector vector(Map<String, SparseVector> vectors, String word) {
+		SparseVector vector = vectors.get(word);
+		if (null == vector && !vectors.containsKey(word)) {
+			vector = mNetwork.getNormalizedVector(word);
+			vectors.put(word, vector);
+		}
+		return vector;
+	}
+
+	/**
+	 * 在途的一块
+	 */
+	private static final class Chunk {
+		final List<WordPair> pairs;
+		final Future<float[]> future;
+
+		Chunk(List<WordPair> pairs, Future<float[]> future) {
+			this.pairs = pairs;
+			this.future = future;
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("usage: SimilarityService [options] pairs [output]");
+		System.out.println("  -threads n   scoring threads");
+		System.out.println("  -chunk n     pairs per chunk (default 1024)");
+		System.out.println("  -pending n   chunks in flight (default 4 * threads)");
+		System.out.println("  -train file  train a network on labelled pairs and score with it;");
+		System.out.println("  -model file  score with a model file written by ModelFile;");
+		System.out.println("               without either the cosine similarity is used");
+		System.out.println("  -features    with -train, use compact pair features instead of");
+		System.out.println("               the concatenated sememe vectors");
+		System.out.println("  -project d   with -train, project the sememe vectors to d dimensions");
+		System.out.println("  -senses m    cosine between senses instead of merged vectors,");
+		System.out.println("               m is max or match");
+		System.out.println("  only one scorer may be given: -train (optionally with -features");
+		System.out.println("  or -project), -model or -senses");
+	}
+
+	/**
+	 * 读取词语对文件, 输出"词语\t词语\t相似度", 没有收录的词语输出NaN
+	 *
+	 * @param args
+	 *            见printUsage
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunk = 1024;
+		int pending = -1;
+		String trainPath = null;
+		String modelPath = null;
+		boolean features = false;
+		int projection = 0;
+		SenseScorer.Mode senses = null;
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-threads".equals(arg)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-chunk".equals(arg)) {
+				chunk = Integer.parseInt(args[++i]);
+			} else if ("-pending".equals(arg)) {
+				pending = Integer.parseInt(args[++i]);
+			} else if ("-train".equals(arg)) {
+				trainPath = args[++i];
+			} else if ("-model".equals(arg)) {
+				modelPath = args[++i];
+			} else if ("-features".equals(arg)) {
+				features = true;
+			} else if ("-project".equals(arg)) {
+				projection = Integer.parseInt(args[++i]);
+			} else if ("-senses".equals(arg)) {
+				String mode = args[++i];
+				if ("max".equals(mode)) {
+					senses = SenseScorer.Mode.MAX;
+				} else if ("match".equals(mode)) {
+					senses = SenseScorer.Mode.BEST_MATCH;
+				} else {
+					printUsage();
+					return;
+				}
+			} else if (arg.startsWith("-")) {
+				printUsage();
+				return;
+			} else {
+				files.add(arg);
+			}
+		}
+		if (files.isEmpty()) {
+			printUsage();
+			return;
+		}
+		String conflict = null;
+		if (null != trainPath && null != modelPath) {
+			conflict = "-train and -model can not be combined";
+		} else if (features && projection > 0) {
+			conflict = "-features and -project can not be combined";
+		} else if ((features || projection > 0) && null != modelPath) {
+			conflict = "-model can not be combined with -features or -project";
+		} else if ((features || projection > 0) && null == trainPath) {
+			conflict = "-features and -project need -train";
+		} else if (null != senses
+				&& (null != trainPath || null != modelPath)) {
+			conflict = "-senses can not be combined with -train or -model";
+		}
+		if (null != conflict) {
+			System.out.println(conflict);
+			printUsage();
+			return;
+		}
+
+		NeuralNetwork network = new NeuralNetwork();
+		PairScorer scorer = PairScorer.COSINE;
+		SimilarityService service;
+		if (null != senses) {
+			service = new SimilarityService(new SenseScorer(network, senses),
+					threads, chunk, pending > 0 ? pending : 4 * threads);
+		} else if ((features || projection > 0) && null != trainPath) {
+			PairEncoder encoder = features ? new PairFeatureEncoder(network)
+					: new ProjectedVectorEncoder(network, new SememeProjection(
+							network.getHowNet(), projection, 1, 1));
+			EncodedScorer encoded = new EncodedScorer(encoder,
+					new MlpTrainer().train(Dataset.fromPairs(encoder,
+							trainPath)));
+			service = new SimilarityService(encoded, threads, chunk,
+					pending > 0 ? pending : 4 * threads);
+		} else {
+			if (null != trainPath) {
+				scorer = new MlpTrainer().train(Dataset.fromPairs(network,
+						trainPath));
+			} else if (null != modelPath) {
+				scorer = new InferenceEngine(ModelFile.open(new File(
+						modelPath)), network.getHowNet());
+			}
+			service = new SimilarityService(network, scorer, threads, chunk,
+					pending > 0 ? pending : 4 * threads);
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(files.get(0)), "UTF-8"), 64 * 1024);
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				files.size() > 1 ? new FileOutputStream(files.get(1))
+						: System.out, "UTF-8"), 64 * 1024);
+		final long[] count = new long[1];
+		long start = System.nanoTime();
+		try {
+			service.scoreAll(WordPair.lines(reader), new ResultHandler() {
+				@Override
+				public void onResult(WordPair pair, float score)
+						throws IOException {
+					writer.write(pair.getFirst());
+					writer.write('\t');
+					writer.write(pair.getSecond());
+					writer.write('\t');
+					writer.write(Float.toString(score));
+					writer.write('\n');
+					count[0]++;
+				}
+			});
+		} finally {
+			writer.flush();
+			if (files.size() > 1) {
+				writer.close();
+			}
+			reader.close();
+		}
+		long elapsed = Math.max(1, System.nanoTime() - start);
+		System.err.println(count[0] + " pairs in " + elapsed / 1000000
+				+ " ms, " + (long) (count[0] * 1e9 / elapsed) + " pairs/s");
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * 比较二进制快照与旧的序列化文件的读入速度
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SnapshotBenchmark 先由glossary.dat和WHOLE.DAT重新构造数据, 然后在临时目录中分别写出旧的neo_*序列化文件
+ * 和新的二进制快照, 多次读入并查询输入数据中的全部词语, 比较两者的耗时.
+ *
+ * @author neo
+ * @version 2013-04-10
+ */
+public class SnapshotBenchmark {
+
+	private static final String[] LEGACY_FILES = { "neo_glossary",
+			"neo_whole", "neo_sememes", "neo_father" };
+
+	/**
+	 * 用ObjectOutputStream写出旧格式的四个文件
+	 */
+	static void writeLegacy(File dir, HowNet data) throws IOException {
+		Object[] objects = { data.getGlossaryMap(), data.getSememes(),
+				data.getSememesMap(), data.getSememesFatherMap() };
+		for (int i = 0; i < LEGACY_FILES.length; i++) {
+			ObjectOutputStream outputStream = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(new File(dir,
+							LEGACY_FILES[i]))));
+			try {
+				outputStream.writeObject(objects[i]);
+			} finally {
+				outputStream.close();
+			}
+		}
+	}
+
+	/**
+	 * 用ObjectInputStream读入旧格式的四个文件
+	 *
+	 * @return 读入的对象
+	 */
+	static Object[] readLegacy(File dir) throws IOException,
+			ClassNotFoundException {
+		Object[] objects = new Object[LEGACY_FILES.length];
+		for (int i = 0; i < LEGACY_FILES.length; i++) {
+			ObjectInputStream inputStream = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(new File(dir,
+							LEGACY_FILES[i]))));
+			try {
+				objects[i] = inputStream.readObject();
+			} finally {
+				inputStream.close();
+			}
+		}
+		return objects;
+	}
+
+	/**
+	 * @param args
+	 *            [读入次数]
+	 */
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+		long start = System.nanoTime();
+		HowNet data = new HowNet(true);
+		long rebuild = System.nanoTime() - start;
+
+		File dir = File.createTempFile("hownet", "bench");
+		dir.delete();
+		dir.mkdirs();
+		File snapshotFile = new File(dir, HowNet.SNAPSHOT_FILE);
+		writeLegacy(dir, data);
+		List<Pair<String, Integer>> whole = data.getSememes();
+		String[] names = new String[data.getSememesCount()];
+		for (Map.Entry<String, Integer> entry : data.getSememesMap()
+				.entrySet()) {
+			names[entry.getValue().intValue()] = entry.getKey();
+		}
+		HowNetSnapshot.write(snapshotFile, names, whole, data.getGlossaryMap());
+
+		List<String> words = new ArrayList<String>(data.getGlossaryMap()
+				.keySet());
+
+		long legacy = Long.MAX_VALUE;
+		long mapped = Long.MAX_VALUE;
+		int found = 0;
+		for (int round = 0; round < rounds; round++) {
+			start = System.nanoTime();
+			Object[] objects = readLegacy(dir);
+			@SuppressWarnings("unchecked")
+			Map<String, ?> glossary = (Map<String, ?>) objects[0];
+			for (String word : words) {
+				if (null != glossary.get(word)) {
+					found++;
+				}
+			}
+			legacy = Math.min(legacy, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			HowNetSnapshot snapshot = HowNetSnapshot.open(snapshotFile);
+			for (String word : words) {
+				if (snapshot.findWord(word) >= 0) {
+					found++;
+				}
+			}
+			mapped = Math.min(mapped, System.nanoTime() - start);
+		}
+
+		System.out.println("words:              " + words.size());
+		System.out.println("rebuild from text:  " + rebuild / 1000000 + " ms");
+		System.out.println("legacy load+lookup: " + legacy / 1000000 + " ms");
+		System.out.println("mapped load+lookup: " + mapped / 1000000 + " ms");
+		System.out.println("snapshot size:      " + snapshotFile.length()
+				+ " bytes");
+		System.out.println("found:              " + found);
+
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+}
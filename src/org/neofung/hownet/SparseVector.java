@@ -0,0 +1,277 @@
+/**
+ * 稀疏的义原向量
+ */
+package org.neofung.hownet;
+
+import java.util.Arrays;
+
+/**
+ * SparseVector 用于表示稀疏的义原向量. 一个词语只涉及几十个义原及其上位义, 因此只保存非零的分量:
+ * mIndices是按升序排列的义原ID号, mValues是对应的权值.
+ *
+ * @author neo
+ * @version 2013-04-08
+ */
+public final class SparseVector {
+
+	private static final int[] EMPTY_INDICES = new int[0];
+	private static final float[] EMPTY_VALUES = new float[0];
+
+	public static final SparseVector EMPTY = new SparseVector(EMPTY_INDICES,
+			EMPTY_VALUES);
+
+	// 升序排列的义原ID号
+	private final int[] mIndices;
+
+	// 与mIndices一一对应的权值
+	private final float[] mValues;
+
+	/**
+	 * 直接使用给定的数组构造向量, 调用者保证indices严格升序且不再修改这两个数组
+	 *
+	 * @param indices
+	 *            升序排列的义原ID号
+	 * @param values
+	 *            对应的权值
+	 */
+	SparseVector(int[] indices, float[] values) {
+		if (indices.length != values.length) {
+			throw new IllegalArgumentException("indices.length "
+					+ indices.length + " != values.length " + values.length);
+		}
+		mIndices = indices;
+		mValues = values;
+	}
+
+	/**
+	 * 由未排序的(ID, 权值)序列构造向量, 相同ID的分量取最大值
+	 *
+	 * @param ids
+	 *            义原ID号, 可以重复, 不能为负
+	 * @param weights
+	 *            对应的权值, 不能为负
+	 * @param count
+	 *            有效元素的个数
+	 * @return 稀疏向量
+	 */
+	public static SparseVector fromUnsorted(int[] ids, float[] weights,
+			int count) {
+		if (0 == count) {
+			return EMPTY;
+		}
+		// 非负float的位模式与其数值的大小顺序一致, 因此把(ID, 权值)打包成long后排序,
+		// 相同ID的分量会按权值升序相邻排列, 保留最后一个即是最大值
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = ((long) ids[i] << 32)
+					| (Float.floatToIntBits(weights[i]) & 0xFFFFFFFFL);
+		}
+		Arrays.sort(keys);
+
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (i + 1 == count || (keys[i] >>> 32) != (keys[i + 1] >>> 32)) {
+				unique++;
+			}
+		}
+		int[] indices = new int[unique];
+		float[] values = new float[unique];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (i + 1 == count || (keys[i] >>> 32) != (keys[i + 1] >>> 32)) {
+				indices[n] = (int) (keys[i] >>> 32);
+				values[n] = Float.intBitsToFloat((int) keys[i]);
+				n++;
+			}
+		}
+		return new SparseVector(indices, values);
+	}
+
+	/**
+	 * 由稠密向量构造, 只保留非零分量
+	 *
+	 * @param dense
+	 *            稠密向量
+	 * @return 稀疏向量
+	 */
+	public static SparseVector fromDense(double[] dense) {
+		int count = 0;
+		for (double d : dense) {
+			if (0.0 != d) {
+				count++;
+			}
+		}
+		int[] indices = new int[count];
+		float[] values = new float[count];
+		int n = 0;
+		for (int i = 0; i < dense.length; i++) {
+			if (0.0 != dense[i]) {
+				indices[n] = i;
+				values[n] = (float) dense[i];
+				n++;
+			}
+		}
+		return new SparseVector(indices, values);
+	}
+
+	/**
+	 * @return 非零分量的个数
+	 */
+	public int size() {
+		return mIndices.length;
+	}
+
+	/**
+	 * @param i
+	 *            第i个非零分量
+	 * @return 该分量的义原ID号
+	 */
+	public int indexAt(int i) {
+		return mIndices[i];
+	}
+
+	/**
+	 * @param i
+	 *            第i个非零分量
+	 * @return 该分量的权值
+	 */
+	public float valueAt(int i) {
+		return mValues[i];
+	}
+
+	/**
+	 * 获取义原id对应的权值
+	 *
+	 * @param id
+	 *            义原ID号
+	 * @return 权值, 不存在则返回0
+	 */
+	public float get(int id) {
+		int pos = Arrays.binarySearch(mIndices, id);
+		return pos < 0 ? 0.0f : mValues[pos];
+	}
+
+	/**
+	 * @return 向量的模的平方
+	 */
+	public double squaredNorm() {
+		double sum = 0.0;
+		for (float v : mValues) {
+			sum += v * v;
+		}
+		return sum;
+	}
+
+	/**
+	 * @return 向量的模
+	 */
+	public double norm() {
+		return Math.sqrt(squaredNorm());
+	}
+
+	/**
+	 * 归一化, 只扫描非零分量
+	 *
+	 * @return 模为1的新向量, 零向量则返回自身
+	 */
+	public SparseVector normalize() {
+		double sum = squaredNorm();
+		if (0.0 == sum) {
+			return this;
+		}
+		double z = 1.0 / Math.sqrt(sum);
+		float[] values = new float[mValues.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (float) (z * mValues[i]);
+		}
+		return new SparseVector(mIndices, values);
+	}
+
+	/**
+	 * 点积, 对两个有序的下标序列做归并
+	 *
+	 * @param other
+	 *            另一个向量
+	 * @return 点积
+	 */
+	public double dot(SparseVector other) {
+		int[] ai = mIndices;
+		int[] bi = other.mIndices;
+		float[] av = mValues;
+		float[] bv = other.mValues;
+		int i = 0;
+		int j = 0;
+		double sum = 0.0;
+		while (i < ai.length && j < bi.length) {
+			if (ai[i] == bi[j]) {
+				sum += av[i++] * bv[j++];
+			} else if (ai[i] < bi[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * 余弦相似度
+	 *
+	 * @param other
+	 *            另一个向量
+	 * @return 余弦相似度, 任一向量为零向量则返回0
+	 */
+	public double cosine(SparseVector other) {
+		double na = squaredNorm();
+		double nb = other.squaredNorm();
+		if (0.0 == na || 0.0 == nb) {
+			return 0.0;
+		}
+		return dot(other) / Math.sqrt(na * nb);
+	}
+
+	/**
+	 * 转换为稠密向量, 仅用于兼容旧的接口
+	 *
+	 * @param dimensionality
+	 *            稠密向量的维数
+	 * @return 稠密向量
+	 */
+	public double[] toDense(int dimensionality) {
+		double[] dense = new double[dimensionality];
+		for (int i = 0; i < mIndices.length; i++) {
+			dense[mIndices[i]] = mValues[i];
+		}
+		return dense;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SparseVector)) {
+			return false;
+		}
+		SparseVector other = (SparseVector) obj;
+		return Arrays.equals(mIndices, other.mIndices)
+				&& Arrays.equals(mValues, other.mValues);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(mIndices) + Arrays.hashCode(mValues);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < mIndices.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(mIndices[i]).append(':').append(mValues[i]);
+		}
+		return builder.append(']').toString();
+	}
+}
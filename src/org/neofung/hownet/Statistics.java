@@ -0,0 +1,122 @@
+/**
+ * 评价预测结果的统计量
+ */
+package org.neofung.hownet;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Statistics 计算预测值与目标值之间的均方误差和相关系数
+ *
+ * @author neo
+ * @version 2013-04-18
+ */
+public final class Statistics {
+
+	private Statistics() {
+	}
+
+	/**
+	 * 均方误差
+	 */
+	public static double mse(float[] predictions, float[] targets) {
+		double sum = 0.0;
+		for (int i = 0; i < targets.length; i++) {
+			double d = predictions[i] - targets[i];
+			sum += d * d;
+		}
+		return targets.length == 0 ? 0.0 : sum / targets.length;
+	}
+
+	/**
+	 * Pearson相关系数
+	 *
+	 * @return 相关系数, 任一序列方差为0时返回0
+	 */
+	public static double pearson(float[] x, float[] y) {
+		int n = x.length;
+		if (n == 0) {
+			return 0.0;
+		}
+		double mx = 0.0;
+		double my = 0.0;
+		for (int i = 0; i < n; i++) {
+			mx += x[i];
+			my += y[i];
+		}
+		mx /= n;
+		my /= n;
+		double sxy = 0.0;
+		double sxx = 0.0;
+		double syy = 0.0;
+		for (int i = 0; i < n; i++) {
+			double dx = x[i] - mx;
+			double dy = y[i] - my;
+			sxy += dx * dy;
+			sxx += dx * dx;
+			syy += dy * dy;
+		}
+		if (0.0 == sxx || 0.0 == syy) {
+			return 0.0;
+		}
+		return sxy / Math.sqrt(sxx * syy);
+	}
+
+	/**
+	 * Spearman秩相关系数, 相同的值取平均秩
+	 */
+	public static double spearman(float[] x, float[] y) {
+		return pearson(ranks(x), ranks(y));
+	}
+
+	/**
+	 * 平均值和样本标准差
+	 *
+	 * @return {平均值, 标准差}
+	 */
+	public static double[] meanAndDeviation(double[] values) {
+		int n = values.length;
+		double mean = 0.0;
+		for (double v : values) {
+			mean += v;
+		}
+		mean = n == 0 ? 0.0 : mean / n;
+		double sum = 0.0;
+		for (double v : values) {
+			sum += (v - mean) * (v - mean);
+		}
+		return new double[] { mean, n > 1 ? Math.sqrt(sum / (n - 1)) : 0.0 };
+	}
+
+	private static float[] ranks(float[] values) {
+		int n = values.length;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		final float[] keys = values;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Float.compare(keys[a.intValue()], keys[b.intValue()]);
+			}
+		});
+		float[] ranks = new float[n];
+		int i = 0;
+		while (i < n) {
+			int j = i;
+			while (j + 1 < n
+					&& values[order[j + 1].intValue()] == values[order[i]
+							.intValue()]) {
+				j++;
+			}
+			float rank = (i + j) / 2.0f + 1.0f;
+			for (int k = i; k <= j; k++) {
+				ranks[order[k].intValue()] = rank;
+			}
+			i = j + 1;
+		}
+		return ranks;
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * 映射在ByteBuffer中的字符串表
+ */
+package org.neofung.hownet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * StringTable 是映射在ByteBuffer中的字符串表, 格式是: 数量n, n+1个字节偏移量, 然后是全部UTF-8字节,
+ * 最后补齐到4字节对齐. HowNetSnapshot和SememeIndex都使用这种格式.
+ *
+ * @author neo
+ * @version 2013-04-10
+ */
+final class StringTable {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer mBuffer;
+	private final int mCount;
+	private final int mDataStart;
+
+	StringTable(ByteBuffer buffer) {
+		mBuffer = buffer;
+		mCount = buffer.getInt(0);
+		mDataStart = 4 + 4 * (mCount + 1);
+	}
+
+	int size() {
+		return mCount;
+	}
+
+	/**
+	 * @return 整个字符串表(包括对齐)占用的字节数
+	 */
+	int byteSize() {
+		int end = mDataStart + offset(mCount);
+		return (end + 3) & ~3;
+	}
+
+	private int offset(int index) {
+		return mBuffer.getInt(4 + 4 * index);
+	}
+
+	String decode(int index) {
+		int start = offset(index);
+		int length = offset(index + 1) - start;
+		byte[] bytes = new byte[length];
+		ByteBuffer duplicate = mBuffer.duplicate();
+		duplicate.position(mDataStart + start);
+		duplicate.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	String[] decodeAll() {
+		String[] strings = new String[mCount];
+		for (int i = 0; i < mCount; i++) {
+			strings[i] = decode(i);
+		}
+		return strings;
+	}
+
+	/**
+	 * 二分查找, 直接比较映射中的字节, 不解码字符串
+	 */
+	int find(byte[] key) {
+		int low = 0;
+		int high = mCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compare(mid, key);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int compare(int index, byte[] key) {
+		int start = mDataStart + offset(index);
+		int length = offset(index + 1) - offset(index);
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int c = (mBuffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+			if (0 != c) {
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	static void write(DataOutputStream out, String[] strings)
+			throws IOException {
+		byte[][] bytes = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = strings[i].getBytes(UTF8);
+		}
+		write(out, bytes);
+	}
+
+	static void write(DataOutputStream out, byte[][] strings)
+			throws IOException {
+		out.writeInt(strings.length);
+		int offset = 0;
+		for (byte[] string : strings) {
+			out.writeInt(offset);
+			offset += string.length;
+		}
+		out.writeInt(offset);
+		for (byte[] string : strings) {
+			out.write(string);
+		}
+		// 后面的int数组按4字节对齐
+		for (int i = offset; i % 4 != 0; i++) {
+			out.write(0);
+		}
+	}
+
+	static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (0 != c) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+}
@@ -0,0 +1,543 @@
+/**
+ * 归一化词语向量的缓存
+ */
+package org.neofung.hownet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * VectorCache 是线程安全的有界缓存, 保存词语的归一化义原向量. 缓存分为若干分段, 每个分段有自己的锁和淘汰策略,
+ * 容量可以按条目数或者按估计的内存字节数限制. 没有收录的词语也会被缓存, 以免反复查询.
+ *
+ * @author neo
+ * @version 2013-04-15
+ */
+public class VectorCache {
+
+	/**
+	 * 缓存未命中时计算向量
+	 */
+	public interface Loader {
+		/**
+		 * @param word
+		 *            词语
+		 * @return 归一化的义原向量, 没有这个词则返回null
+		 */
+		SparseVector load(String word);
+	}
+
+	/**
+	 * 内置的淘汰策略
+	 */
+	public enum Policy implements EvictionPolicy.Factory {
+		/** 最近最少使用 */
+		LRU {
+			@Override
+			public <K, V> EvictionPolicy<K, V> create(long capacity) {
+				return new LruPolicy<K, V>(capacity);
+			}
+		},
+		/** 小的LRU窗口加上按访问频率准入的主区, 适合Zipf分布的访问 */
+		TINY_LFU {
+			@Override
+			public <K, V> EvictionPolicy<K, V> create(long capacity) {
+				return new TinyLfuPolicy<K, V>(capacity);
+			}
+		}
+	}
+
+	// 没有收录的词语在缓存中的占位值
+	private static final SparseVector ABSENT = new SparseVector(new int[0],
+			new float[0]);
+
+	private final Loader mLoader;
+	private final boolean mWeighByBytes;
+	private final EvictionPolicy<String, SparseVector>[] mSegments;
+	private final int mSegmentMask;
+
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+	private final AtomicLong mEvictions = new AtomicLong();
+	private final AtomicLong mLoadNanos = new AtomicLong();
+
+	/**
+	 * @param loader
+	 *            计算向量的方法
+	 * @param capacity
+	 *            容量上限, 单位由weighByBytes决定
+	 * @param weighByBytes
+	 *            true则capacity是估计的内存字节数, false则是条目数
+	 * @param factory
+	 *            淘汰策略, 例如Policy.LRU或者Policy.TINY_LFU
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public VectorCache(Loader loader, long capacity, boolean weighByBytes,
+			EvictionPolicy.Factory factory) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity " + capacity);
+		}
+		mLoader = loader;
+		mWeighByBytes = weighByBytes;
+
+		// 每个分段至少能放下几十个条目
+		long minimum = weighByBytes ? 64 * 1024 : 64;
+		int count = 16;
+		while (count > 1 && capacity / count < minimum) {
+			count >>= 1;
+		}
+		mSegments = new EvictionPolicy[count];
+		for (int i = 0; i < count; i++) {
+			mSegments[i] = factory.create(Math.max(1, capacity / count));
+		}
+		mSegmentMask = count - 1;
+	}
+
+	/**
+	 * 按条目数限制容量
+	 */
+	public VectorCache(Loader loader, int maximumSize, Policy policy) {
+		this(loader, maximumSize, false, policy);
+	}
+
+	/**
+	 * 获取词语的归一化向量, 未命中时调用Loader计算并放入缓存
+	 *
+	 * @param word
+	 *            词语
+	 * @return 归一化的义原向量, 没有这个词则返回null
+	 */
+	public SparseVector get(String word) {
+		EvictionPolicy<String, SparseVector> segment = segmentFor(word);
+		SparseVector vector;
+		synchronized (segment) {
+			vector = segment.get(word);
+		}
+		if (null != vector) {
+			mHits.incrementAndGet();
+			Metrics.CACHE_HITS.increment();
+			return ABSENT == vector ? null : vector;
+		}
+		mMisses.incrementAndGet();
+		Metrics.CACHE_MISSES.increment();
+		return load(segment, word);
+	}
+
+	/**
+	 * 预先载入一批高频词语, 预载不计入命中和未命中
+	 *
+	 * @param words
+	 *            词语
+	 */
+	public void preload(Iterable<String> words) {
+		for (String word : words) {
+			EvictionPolicy<String, SparseVector> segment = segmentFor(word);
+			boolean present;
+			synchronized (segment) {
+				present = null != segment.get(word);
+			}
+			if (!present) {
+				load(segment, word);
+			}
+		}
+	}
+
+	/**
+	 * 清空缓存, 统计数据保留
+	 */
+	public void clear() {
+		for (EvictionPolicy<String, SparseVector> segment : mSegments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return 当前缓存的条目数
+	 */
+	public int size() {
+		int size = 0;
+		for (EvictionPolicy<String, SparseVector> segment : mSegments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return 当前的统计数据
+	 */
+	public Stats getStats() {
+		long weight = 0;
+		for (EvictionPolicy<String, SparseVector> segment : mSegments) {
+			synchronized (segment) {
+				weight += segment.weight();
+			}
+		}
+		return new Stats(mHits.get(), mMisses.get(), mEvictions.get(),
+				mLoadNanos.get(), size(), weight);
+	}
+
+	private SparseVector load(EvictionPolicy<String, SparseVector> segment,
+			String word) {
+		// 在锁外计算, 并发的相同请求可能重复计算, 但结果相同
+		long start = System.nanoTime();
+		SparseVector vector = mLoader.load(word);
+		mLoadNanos.addAndGet(System.nanoTime() - start);
+
+		SparseVector value = null == vector ? ABSENT : vector;
+		int evicted;
+		synchronized (segment) {
+			evicted = segment.put(word, value, weigh(word, value));
+		}
+		if (evicted > 0) {
+			mEvictions.addAndGet(evicted);
+		}
+		return vector;
+	}
+
+	private int weigh(String word, SparseVector vector) {
+		if (!mWeighByBytes) {
+			return 1;
+		}
+		// 条目, 键和两个数组的大致字节数
+		return 64 + 2 * word.length() + 8 * vector.size();
+	}
+
+	private EvictionPolicy<String, SparseVector> segmentFor(String word) {
+		int h = word.hashCode();
+		h ^= (h >>> 16);
+		return mSegments[h & mSegmentMask];
+	}
+
+	/**
+	 * 缓存的统计数据
+	 */
+	public static final class Stats {
+		private final long mHits;
+		private final long mMisses;
+		private final long mEvictions;
+		private final long mLoadNanos;
+		private final int mSize;
+		private final long mWeight;
+
+		Stats(long hits, long misses, long evictions, long loadNanos,
+				int size, long weight) {
+			mHits = hits;
+			mMisses = misses;
+			mEvictions = evictions;
+			mLoadNanos = loadNanos;
+			mSize = size;
+			mWeight = weight;
+		}
+
+		public long getHits() {
+			return mHits;
+		}
+
+		public long getMisses() {
+			return mMisses;
+		}
+
+		public long getEvictions() {
+			return mEvictions;
+		}
+
+		/**
+		 * @return 计算向量花费的总时间, 单位纳秒
+		 */
+		public long getLoadNanos() {
+			return mLoadNanos;
+		}
+
+		public int getSize() {
+			return mSize;
+		}
+
+		public long getWeight() {
+			return mWeight;
+		}
+
+		/**
+		 * @return 命中率, 没有请求时为0
+		 */
+		public double getHitRate() {
+			long total = mHits + mMisses;
+			return 0 == total ? 0.0 : (double) mHits / total;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [hits=" + mHits + ", misses=" + mMisses
+					+ ", hitRate=" + getHitRate() + ", evictions=" + mEvictions
+					+ ", loadMillis=" + mLoadNanos / 1000000 + ", size="
+					+ mSize + ", weight=" + mWeight + "]";
+		}
+	}
+}
+
+/**
+ * 带权重的缓存条目
+ */
+final class WeightedValue<V> {
+	final V value;
+	final int weight;
+
+	WeightedValue(V value, int weight) {
+		this.value = value;
+		this.weight = weight;
+	}
+}
+
+/**
+ * LruPolicy 淘汰最近最少使用的条目
+ *
+ * @author neo
+ * @version 2013-04-15
+ */
+class LruPolicy<K, V> implements EvictionPolicy<K, V> {
+	private final long mCapacity;
+	private final LinkedHashMap<K, WeightedValue<V>> mMap = new LinkedHashMap<K, WeightedValue<V>>(
+			16, 0.75f, true);
+	private long mWeight;
+
+	LruPolicy(long capacity) {
+		mCapacity = capacity;
+	}
+
+	@Override
+	public V get(K key) {
+		WeightedValue<V> entry = mMap.get(key);
+		return null == entry ? null : entry.value;
+	}
+
+	@Override
+	public int put(K key, V value, int weight) {
+		WeightedValue<V> old = mMap.put(key, new WeightedValue<V>(value,
+				weight));
+		if (null != old) {
+			mWeight -= old.weight;
+		}
+		mWeight += weight;
+		int evicted = 0;
+		Iterator<WeightedValue<V>> iterator = mMap.values().iterator();
+		while (mWeight > mCapacity && iterator.hasNext()) {
+			mWeight -= iterator.next().weight;
+			iterator.remove();
+			evicted++;
+		}
+		return evicted;
+	}
+
+	@Override
+	public int size() {
+		return mMap.size();
+	}
+
+	@Override
+	public long weight() {
+		return mWeight;
+	}
+
+	@Override
+	public void clear() {
+		mMap.clear();
+		mWeight = 0;
+	}
+}
+
+/**
+ * TinyLfuPolicy 是W-TinyLFU的简化实现: 新条目先进入约占1%容量的LRU窗口, 被窗口淘汰的条目再与主区的LRU末尾比较
+ * 访问频率, 频率更高的留在主区. 访问频率由定期衰减的Count-Min Sketch估计.
+ *
+ * @author neo
+ * @version 2013-04-15
+ */
+class TinyLfuPolicy<K, V> implements EvictionPolicy<K, V> {
+	private final LruWindow<K, V> mWindow;
+	private final LruWindow<K, V> mMain;
+	private final FrequencySketch mSketch;
+
+	TinyLfuPolicy(long capacity) {
+		long window = Math.max(1, capacity / 100);
+		mWindow = new LruWindow<K, V>(window);
+		mMain = new LruWindow<K, V>(Math.max(1, capacity - window));
+		mSketch = new FrequencySketch(capacity);
+	}
+
+	@Override
+	public V get(K key) {
+		mSketch.increment(key.hashCode());
+		WeightedValue<V> entry = mWindow.map.get(key);
+		if (null == entry) {
+			entry = mMain.map.get(key);
+		}
+		return null == entry ? null : entry.value;
+	}
+
+	@Override
+	public int put(K key, V value, int weight) {
+		mMain.remove(key);
+		mWindow.remove(key);
+		mWindow.add(key, new WeightedValue<V>(value, weight));
+
+		int evicted = 0;
+		while (mWindow.weight > mWindow.capacity) {
+			Map.Entry<K, WeightedValue<V>> candidate = mWindow.pollEldest();
+			WeightedValue<V> entry = candidate.getValue();
+			if (entry.weight > mMain.capacity) {
+				evicted++;
+				continue;
+			}
+			if (mMain.weight + entry.weight <= mMain.capacity) {
+				mMain.add(candidate.getKey(), entry);
+				continue;
+			}
+			// 主区已满, 候选者的频率必须高于主区中将被淘汰的全部条目
+			int frequency = mSketch.frequency(candidate.getKey().hashCode());
+			long freed = 0;
+			boolean admit = true;
+			Iterator<Map.Entry<K, WeightedValue<V>>> iterator = mMain.map
+					.entrySet().iterator();
+			while (mMain.weight - freed + entry.weight > mMain.capacity) {
+				Map.Entry<K, WeightedValue<V>> victim = iterator.next();
+				if (mSketch.frequency(victim.getKey().hashCode()) >= frequency) {
+					admit = false;
+					break;
+				}
+				freed += victim.getValue().weight;
+			}
+			if (!admit) {
+				evicted++;
+				continue;
+			}
+			while (mMain.weight + entry.weight > mMain.capacity) {
+				mMain.pollEldest();
+				evicted++;
+			}
+			mMain.add(candidate.getKey(), entry);
+		}
+		return evicted;
+	}
+
+	@Override
+	public int size() {
+		return mWindow.map.size() + mMain.map.size();
+	}
+
+	@Override
+	public long weight() {
+		return mWindow.weight + mMain.weight;
+	}
+
+	@Override
+	public void clear() {
+		mWindow.map.clear();
+		mWindow.weight = 0;
+		mMain.map.clear();
+		mMain.weight = 0;
+	}
+
+	/**
+	 * 记录了总权重的LRU区
+	 */
+	private static final class LruWindow<K, V> {
+		final LinkedHashMap<K, WeightedValue<V>> map = new LinkedHashMap<K, WeightedValue<V>>(
+				16, 0.75f, true);
+		final long capacity;
+		long weight;
+
+		LruWindow(long capacity) {
+			this.capacity = capacity;
+		}
+
+		void add(K key, WeightedValue<V> value) {
+			map.put(key, value);
+			weight += value.weight;
+		}
+
+		void remove(K key) {
+			WeightedValue<V> old = map.remove(key);
+			if (null != old) {
+				weight -= old.weight;
+			}
+		}
+
+		Map.Entry<K, WeightedValue<V>> pollEldest() {
+			Iterator<Map.Entry<K, WeightedValue<V>>> iterator = map.entrySet()
+					.iterator();
+			Map.Entry<K, WeightedValue<V>> eldest = iterator.next();
+			iterator.remove();
+			weight -= eldest.getValue().weight;
+			return eldest;
+		}
+	}
+}
+
+/**
+ * FrequencySketch 是4行的Count-Min Sketch, 每个计数器最大为15, 累计增加达到样本数后全部减半, 使频率随时间衰减.
+ *
+ * @author neo
+ * @version 2013-04-15
+ */
+final class FrequencySketch {
+	private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D,
+			0x27D4EB2F };
+	private static final int MAX_COUNT = 15;
+
+	private final byte[][] mTable;
+	private final int mMask;
+	private final long mSampleSize;
+	private long mAdditions;
+
+	FrequencySketch(long capacity) {
+		int width = 16;
+		while (width < capacity && width < (1 << 24)) {
+			width <<= 1;
+		}
+		mTable = new byte[SEEDS.length][width];
+		mMask = width - 1;
+		mSampleSize = 10L * Math.max(capacity, 16);
+	}
+
+	void increment(int hash) {
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int index = index(hash, i);
+			if (mTable[i][index] < MAX_COUNT) {
+				mTable[i][index]++;
+				added = true;
+			}
+		}
+		if (added && ++mAdditions >= mSampleSize) {
+			reset();
+		}
+	}
+
+	int frequency(int hash) {
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; i++) {
+			frequency = Math.min(frequency, mTable[i][index(hash, i)]);
+		}
+		return frequency;
+	}
+
+	private int index(int hash, int i) {
+		int h = hash * SEEDS[i];
+		h ^= h >>> 15;
+		return h & mMask;
+	}
+
+	private void reset() {
+		for (byte[] row : mTable) {
+			for (int j = 0; j < row.length; j++) {
+				row[j] >>= 1;
+			}
+		}
+		mAdditions /= 2;
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * 一对需要计算相似度的词语
+ */
+package org.neofung.hownet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * WordPair 是一对词语, 以及可选的人工标注的相似度
+ *
+ * @author neo
+ * @version 2013-04-24
+ */
+public final class WordPair {
+
+	private final String mFirst;
+	private final String mSecond;
+	private final float mTarget;
+
+	/**
+	 * @param first
+	 *            第一个词语
+	 * @param second
+	 *            第二个词语
+	 * @param target
+	 *            人工标注的相似度, 没有则为Float.NaN
+	 */
+	public WordPair(String first, String second, float target) {
+		mFirst = first;
+		mSecond = second;
+		mTarget = target;
+	}
+
+	public WordPair(String first, String second) {
+		this(first, second, Float.NaN);
+	}
+
+	public String getFirst() {
+		return mFirst;
+	}
+
+	public String getSecond() {
+		return mSecond;
+	}
+
+	/**
+	 * @return 人工标注的相似度, 没有则为Float.NaN
+	 */
+	public float getTarget() {
+		return mTarget;
+	}
+
+	/**
+	 * 解析"词语 词语 [相似度]"格式的一行
+	 *
+	 * @return 词语对, 格式不对则返回null
+	 */
+	public static WordPair parse(String line) {
+		String[] words = line.trim().split("\\s+");
+		if (words.length < 2) {
+			return null;
+		}
+		float target = Float.NaN;
+		if (words.length > 2) {
+			try {
+				target = Float.parseFloat(words[2]);
+			} catch (NumberFormatException e) {
+				target = Float.NaN;
+			}
+		}
+		return new WordPair(words[0], words[1], target);
+	}
+
+	/**
+	 * 逐行读取词语对, 跳过格式不对的行. 只能迭代一次, 读取出错时抛出IllegalStateException.
+	 *
+	 * @param reader
+	 *            输入
+	 * @return 词语对的序列
+	 */
+	public static Iterable<WordPair> lines(final BufferedReader reader) {
+		return new Iterable<WordPair>() {
+			@Override
+			public Iterator<WordPair> iterator() {
+				return new Iterator<WordPair>() {
+					private WordPair mNext = advance();
+
+					private WordPair advance() {
+						try {
+							String line;
+							while ((line = reader.readLine()) != null) {
+								WordPair pair = parse(line);
+								if (null != pair) {
+									return pair;
+								}
+							}
+							return null;
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+
+					@Override
+					public boolean hasNext() {
+						return null != mNext;
+					}
+
+					@Override
+					public WordPair next() {
+						if (null == mNext) {
+							throw new NoSuchElementException();
+						}
+						WordPair pair = mNext;
+						mNext = advance();
+						return pair;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return mFirst + ", " + mSecond;
+	}
+}
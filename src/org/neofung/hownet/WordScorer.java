@@ -0,0 +1,23 @@
+/**
+ * 由两个词语直接计算相似度
+ */
+package org.neofung.hownet;
+
+/**
+ * WordScorer 由两个词语本身计算相似度, 而不是由PairScorer使用的合并后的词语向量. EncodedScorer先编码一对词语再用
+ * 网络打分, SenseScorer比较两个词语的各个义项. 实现类必须是线程安全的.
+ *
+ * @author neo
+ * @version 2013-05-16
+ */
+public interface WordScorer {
+
+	/**
+	 * @param first
+	 *            第一个词语
+	 * @param second
+	 *            第二个词语
+	 * @return 相似度, 任一词语没有收录时为Float.NaN
+	 */
+	float score(String first, String second);
+}
@@ -0,0 +1,477 @@
+/**
+ * 全部词语的双数组Trie
+ */
+package org.neofung.hownet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WordTrie 是全部词语的双数组Trie(double-array trie), 把词语映射到它在词语表中的序号, 用于精确查找, 前缀查找和
+ * 最长匹配, 以及用最长匹配把一段中文切分成知网中的词语.
+ * <p>
+ * 字符先按在词语中出现的次数从多到少映射成1开始的编码, 没有在词语中出现的字符编码为0. 从状态s经过编码c转移到
+ * t = base[s] + c, 当且仅当check[t] == s时转移存在; 根状态是0. 词语结束用编码0的转移表示, 这个终止状态的base
+ * 保存-(序号 + 1). 全部状态只占两个int数组, 加上一个65536项的字符编码表, 比HashMap&lt;String, ...&gt;小得多;
+ * 查找只读数组, 不创建对象.
+ * <p>
+ * 构造后只读, 可以被多个线程共享. 词典更新后需要重新构造.
+ *
+ * @author neo
+ * @version 2013-05-18
+ */
+public final class WordTrie {
+
+	private static final int FREE = -1;
+
+	// 字符到编码的映射, 0表示没有在任何词语中出现
+	private final char[] mCodes;
+	private final int[] mBase;
+	private final int[] mCheck;
+	private final int mSize;
+
+	private WordTrie(char[] codes, int[] base, int[] check, int size) {
+		mCodes = codes;
+		mBase = base;
+		mCheck = check;
+		mSize = size;
+	}
+
+	/**
+	 * 由词典的全部词语构造
+	 *
+	 * @return 值为词语在hownet.getWords()中的序号的Trie; 从快照读入且没有增量更新时即快照中的词语序号
+	 */
+	public static WordTrie build(HowNet hownet) {
+		return build(hownet.getWords());
+	}
+
+	/**
+	 * @param words
+	 *            不重复的非空词语
+	 * @return 值为词语在words中的序号的Trie
+	 */
+	public static WordTrie build(List<String> words) {
+		// 按出现次数分配编码, 常用字的编码小, 状态更集中
+		final int[] counts = new int[Character.MAX_VALUE + 1];
+		for (String word : words) {
+			if (word.length() == 0) {
+				throw new IllegalArgumentException("empty word");
+			}
+			for (int i = 0; i < word.length(); i++) {
+				counts[word.charAt(i)]++;
+			}
+		}
+		List<Integer> chars = new ArrayList<Integer>();
+		for (int c = 0; c < counts.length; c++) {
+			if (counts[c] > 0) {
+				chars.add(Integer.valueOf(c));
+			}
+		}
+		Collections.sort(chars, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = counts[b.intValue()] - counts[a.intValue()];
+				return 0 != c ? c : a.intValue() - b.intValue();
+			}
+		});
+		char[] codes = new char[Character.MAX_VALUE + 1];
+		for (int i = 0; i < chars.size(); i++) {
+			codes[chars.get(i).intValue()] = (char) (i + 1);
+		}
+
+		final int[][] keys = new int[words.size()][];
+		Integer[] order = new Integer[words.size()];
+		for (int i = 0; i < keys.length; i++) {
+			String word = words.get(i);
+			keys[i] = new int[word.length()];
+			for (int j = 0; j < word.length(); j++) {
+				keys[i][j] = codes[word.charAt(j)];
+			}
+			order[i] = Integer.valueOf(i);
+		}
+		// 按编码序列排序, 短的在前, 同一个前缀的词语相邻
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int[] x = keys[a.intValue()];
+				int[] y = keys[b.intValue()];
+				int n = Math.min(x.length, y.length);
+				for (int i = 0; i < n; i++) {
+					if (x[i] != y[i]) {
+						return x[i] - y[i];
+					}
+				}
+				return x.length - y.length;
+			}
+		});
+		int[][] sorted = new int[keys.length][];
+		int[] values = new int[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			sorted[i] = keys[order[i].intValue()];
+			values[i] = order[i].intValue();
+			if (i > 0 && Arrays.equals(sorted[i], sorted[i - 1])) {
+				throw new IllegalArgumentException("duplicate word "
+						+ words.get(values[i]));
+			}
+		}
+
+		Builder builder = new Builder(sorted, values);
+		if (sorted.length > 0) {
+			builder.insert(0, 0, sorted.length, 0);
+		}
+		return builder.finish(codes);
+	}
+
+	/**
+	 * 构造时使用的可增长数组, 构造完成后裁剪
+	 */
+	private static final class Builder {
+		private final int[][] mKeys;
+		private final int[] mValues;
+		private int[] mBase = new int[1 << 16];
+		private int[] mCheck = new int[1 << 16];
+		private final BitSet mUsed = new BitSet();
+		// 在它之前的位置几乎都已经占用, 查找空位从这里开始
+		private int mNextCheck = 1;
+		private int mSize = 1;
+
+		Builder(int[][] keys, int[] values) {
+			mKeys = keys;
+			mValues = values;
+			Arrays.fill(mCheck, FREE);
+			mCheck[0] = 0;
+		}
+
+		private void ensure(int index) {
+			if (index < mBase.length) {
+				return;
+			}
+			int length = Math.max(index + 1, mBase.length * 2);
+			int old = mCheck.length;
+			mBase = Arrays.copyOf(mBase, length);
+			mCheck = Arrays.copyOf(mCheck, length);
+			Arrays.fill(mCheck, old, length, FREE);
+		}
+
+		/**
+		 * 给状态state放置子状态, state对应的是下标[from, to)的词语在第depth个编码之前的公共前缀
+		 */
+		void insert(int state, int from, int to, int depth) {
+			// 子状态的编码和各自的词语范围, 词语已排序, 结束(编码0)在最前面
+			int[] labels = new int[to - from];
+			int[] starts = new int[to - from + 1];
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				int label = depth < mKeys[i].length ? mKeys[i][depth] : 0;
+				if (0 == n || labels[n - 1] != label) {
+					labels[n] = label;
+					starts[n] = i;
+					n++;
+				}
+			}
+			starts[n] = to;
+
+			int base = findBase(labels, n);
+			mUsed.set(base);
+			mBase[state] = base;
+			for (int k = 0; k < n; k++) {
+				int child = base + labels[k];
+				mCheck[child] = state;
+				mSize = Math.max(mSize, child + 1);
+			}
+			for (int k = 0; k < n; k++) {
+				int child = base + labels[k];
+				if (0 == labels[k]) {
+					mBase[child] = -(mValues[starts[k]] + 1);
+				} else {
+					insert(child, starts[k], starts[k + 1], depth + 1);
+				}
+			}
+		}
+
+		/**
+		 * @return 使base + labels[k]都空闲的最小的base, 不与其它状态的base相同
+		 */
+		private int findBase(int[] labels, int n) {
+			int first = labels[0];
+			int last = labels[n - 1];
+			int position = Math.max(first + 1, mNextCheck) - 1;
+			int occupied = 0;
+			boolean moved = false;
+			while (true) {
+				position++;
+				ensure(position);
+				if (FREE != mCheck[position]) {
+					occupied++;
+					continue;
+				}
+				if (!moved) {
+					mNextCheck = position;
+					moved = true;
+				}
+				int base = position - first;
+				if (base < 1 || mUsed.get(base)) {
+					continue;
+				}
+				ensure(base + last);
+				boolean fits = true;
+				for (int k = 1; k < n; k++) {
+					if (FREE != mCheck[base + labels[k]]) {
+						fits = false;
+						break;
+					}
+				}
+				if (fits) {
+					// 扫过的区间几乎占满时, 以后从这里开始找
+					if (occupied >= 0.95 * (position - mNextCheck + 1)) {
+						mNextCheck = position;
+					}
+					return base;
+				}
+			}
+		}
+
+		WordTrie finish(char[] codes) {
+			return new WordTrie(codes, Arrays.copyOf(mBase, mSize),
+					Arrays.copyOf(mCheck, mSize), mSize);
+		}
+	}
+
+	/**
+	 * @return 状态数组的长度
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * @return 状态数组和字符编码表占用的字节数
+	 */
+	public long byteSize() {
+		return 8L * mSize + 2L * mCodes.length;
+	}
+
+	/**
+	 * 从状态state经过字符c转移
+	 *
+	 * @return 下一个状态, 没有则返回-1
+	 */
+	private int next(int state, char c) {
+		int code = mCodes[c];
+		if (0 == code) {
+			return -1;
+		}
+		int t = mBase[state] + code;
+		return t < mSize && mCheck[t] == state ? t : -1;
+	}
+
+	/**
+	 * @return 在状态state结束的词语的值, 没有则返回-1
+	 */
+	private int value(int state) {
+		int t = mBase[state];
+		return t >= 0 && t < mSize && mCheck[t] == state ? -mBase[t] - 1 : -1;
+	}
+
+	/**
+	 * 精确查找
+	 *
+	 * @return 词语的序号, 没有则返回-1
+	 */
+	public int get(CharSequence word) {
+		return get(word, 0, word.length());
+	}
+
+	/**
+	 * 精确查找text[start, end)
+	 *
+	 * @return 词语的序号, 没有则返回-1
+	 */
+	public int get(CharSequence text, int start, int end) {
+		if (start >= end) {
+			return -1;
+		}
+		int state = 0;
+		for (int i = start; i < end; i++) {
+			state = next(state, text.charAt(i));
+			if (state < 0) {
+				return -1;
+			}
+		}
+		return value(state);
+	}
+
+	public boolean contains(CharSequence word) {
+		return get(word) >= 0;
+	}
+
+	/**
+	 * 查找text[start, end)中从start开始的全部词语, 即是它的前缀的那些词语, 按长度从短到长排列
+	 *
+	 * @param lengths
+	 *            接收词语的长度
+	 * @param values
+	 *            接收词语的序号, 与lengths一样长
+	 * @return 找到的词语数, 不超过lengths.length
+	 */
+	public int prefixMatches(CharSequence text, int start, int end,
+			int[] lengths, int[] values) {
+		int count = 0;
+		int state = 0;
+		for (int i = start; i < end && count < lengths.length; i++) {
+			state = next(state, text.charAt(i));
+			if (state < 0) {
+				break;
+			}
+			int value = value(state);
+			if (value >= 0) {
+				lengths[count] = i + 1 - start;
+				values[count] = value;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 最长匹配
+	 *
+	 * @return text[start, end)中从start开始的最长的词语的长度, 没有则返回0
+	 */
+	public int longestMatch(CharSequence text, int start, int end) {
+		int length = 0;
+		int state = 0;
+		for (int i = start; i < end; i++) {
+			state = next(state, text.charAt(i));
+			if (state < 0) {
+				break;
+			}
+			if (value(state) >= 0) {
+				length = i + 1 - start;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * 正向最长匹配切分. 每次取从当前位置开始的最长的词语, 没有词语时单个字符成为一段; 空白字符被跳过, 不属于任何一段.
+	 *
+	 * @param starts
+	 *            接收每一段的开始位置
+	 * @param ends
+	 *            接收每一段的结束位置, 与starts一样长
+	 * @return 段数; 等于starts.length时text可能还没有切分完, 从ends[count - 1]继续切分
+	 */
+	public int segment(CharSequence text, int[] starts, int[] ends) {
+		int count = 0;
+		int position = 0;
+		int length = text.length();
+		while (position < length && count < starts.length) {
+			char c = text.charAt(position);
+			if (Character.isWhitespace(c)) {
+				position++;
+				continue;
+			}
+			int match = longestMatch(text, position, length);
+			if (0 == match) {
+				match = Character.isHighSurrogate(c) && position + 1 < length
+						&& Character.isLowSurrogate(text.charAt(position + 1)) ? 2
+						: 1;
+			}
+			starts[count] = position;
+			ends[count] = position + match;
+			count++;
+			position += match;
+		}
+		return count;
+	}
+
+	/**
+	 * 正向最长匹配切分
+	 *
+	 * @return 切分得到的各段
+	 */
+	public List<String> segment(CharSequence text) {
+		int[] starts = new int[text.length()];
+		int[] ends = new int[text.length()];
+		int count = segment(text, starts, ends);
+		List<String> words = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			words.add(text.subSequence(starts[i], ends[i]).toString());
+		}
+		return words;
+	}
+
+	/**
+	 * 比较Trie与HashMap的内存和查找时间, 并切分几个句子
+	 *
+	 * @param args
+	 *            要切分的句子, 缺省使用内置的例句
+	 */
+	public static void main(String[] args) {
+		HowNet hownet = new HowNet();
+		List<String> words = hownet.getWords();
+
+		long start = System.nanoTime();
+		WordTrie trie = build(words);
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format(
+				"%d words, %d states, %d KB, built in %d ms", words.size(),
+				trie.getSize(), trie.byteSize() / 1024, elapsed / 1000000));
+
+		for (int i = 0; i < words.size(); i++) {
+			if (trie.get(words.get(i)) != i) {
+				throw new IllegalStateException("lookup failed: "
+						+ words.get(i));
+			}
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		// 复制字符串, 使它们也计入HashMap的占用
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for (int i = 0; i < words.size(); i++) {
+			map.put(new String(words.get(i).toCharArray()), Integer.valueOf(i));
+		}
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		System.out.println(String.format("HashMap<String, Integer>: about %d KB",
+				(after - before) / 1024));
+
+		int rounds = 20;
+		long sum = 0;
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (String word : words) {
+				sum += trie.get(word);
+			}
+		}
+		long trieTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (String word : words) {
+				sum += map.get(word).intValue();
+			}
+		}
+		long mapTime = System.nanoTime() - start;
+		long lookups = (long) rounds * words.size();
+		System.out.println(String.format(
+				"exact lookup: trie %d ns, HashMap %d ns (%d)", trieTime
+						/ lookups, mapTime / lookups, sum));
+
+		String[] sentences = args.length > 0 ? args : new String[] {
+				"我们在研究基于知网的词语相似度计算", "中华人民共和国成立了",
+				"他打开了电脑, 开始工作" };
+		for (String sentence : sentences) {
+			System.out.println(trie.segment(sentence));
+		}
+	}
+}